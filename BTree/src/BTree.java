@@ -0,0 +1,290 @@
+import java.util.function.BiConsumer;
+
+/**
+ * BTree 阶数可配置的B树, 是2-3树(3阶B树)的推广
+ * 每个节点的键, 值和孩子分别存放在连续的数组中, 节点内用二分查找定位, 一次节点访问可以比较多个键,
+ * 树高约为 log(n) / log(order/2), 查找经过的节点数远少于2-3树和红黑树
+ * 插入与2-3树相同: 叶子节点先临时多放一个键, 溢出后从中间分裂, 中间的键上移到父节点
+ * 阶数取16的倍数时, 压缩指针下节点的键数组大致占满整数个64字节的缓存行
+ */
+public class BTree<K extends Comparable<K>, V> {
+    private static final int DEFAULT_ORDER = 64;
+
+    // 阶数至少为3, 否则分裂后会出现没有键的节点
+    private static final int MIN_ORDER = 3;
+
+    /**
+     * Node 最多 order-1 个键和 order 个孩子, 数组多留一个位置放插入时临时溢出的键
+     * 叶子节点的children为null
+     */
+    static private class Node<K extends Comparable<K>, V> {
+        private int size;
+        private final Object[] keys;
+        private final Object[] values;
+        private final Node<K, V>[] children;
+
+        @SuppressWarnings("unchecked")
+        Node(int order, boolean leaf) {
+            this.keys = new Object[order];
+            this.values = new Object[order];
+            this.children = leaf ? null : (Node<K, V>[]) new Node[order + 1];
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+
+        @SuppressWarnings("unchecked")
+        K key(int index) {
+            return (K) keys[index];
+        }
+
+        @SuppressWarnings("unchecked")
+        V value(int index) {
+            return (V) values[index];
+        }
+    }
+
+    private final int order;
+
+    private int size;
+
+    private int height;
+
+    private Node<K, V> root;
+
+    BTree() {
+        this(DEFAULT_ORDER);
+    }
+
+    /**
+     * @param order 每个节点最多的孩子个数, 节点最多保存 order-1 个键
+     */
+    BTree(int order) {
+        if (order < MIN_ORDER) {
+            throw new IllegalArgumentException("order must be at least " + MIN_ORDER + ": " + order);
+        }
+        this.order = order;
+        this.size = 0;
+        this.height = 0;
+        this.root = null;
+    }
+
+    /**
+     * get 查找键对应的值
+     * @param k 要查找的键
+     * @return 返回键对应的值, 键不存在时返回null
+     */
+    public V get(K k) {
+        Node<K, V> node = root;
+        while (node != null) {
+            int index = search(node, k);
+            if (index >= 0) {
+                return node.value(index);
+            }
+            node = node.isLeaf() ? null : node.children[-index - 1];
+        }
+        return null;
+    }
+
+    /**
+     * containsKey 判断键是否存在
+     * @param k 要查找的键
+     * @return 键存在时返回true
+     */
+    public boolean containsKey(K k) {
+        Node<K, V> node = root;
+        while (node != null) {
+            int index = search(node, k);
+            if (index >= 0) {
+                return true;
+            }
+            node = node.isLeaf() ? null : node.children[-index - 1];
+        }
+        return false;
+    }
+
+    /**
+     * add 往B树中添加元素, 键已经存在时不做任何修改
+     * @param k 元素对应的键
+     * @param v 元素对应的值
+     */
+    public void add(K k, V v) {
+        if (root == null) {
+            root = new Node<K, V>(order, true);
+            insertAt(root, 0, k, v, null);
+            size++;
+            height = 1;
+            return;
+        }
+
+        if (!add(root, k, v)) {
+            return;
+        }
+        size++;
+
+        // 分裂根节点, 中间的键成为新的根节点, 树高加1
+        if (root.size == order) {
+            Node<K, V> newRoot = new Node<K, V>(order, false);
+            newRoot.children[0] = root;
+            splitChild(newRoot, 0, root);
+            root = newRoot;
+            height++;
+        }
+    }
+
+    /**
+     * add 方法递归的向子树添加元素, 孩子溢出时在这一层分裂孩子
+     * 返回后node可能临时多出一个键, 由调用方分裂
+     * @return 添加了新元素时返回true, 键已经存在时返回false
+     */
+    private boolean add(Node<K, V> node, K k, V v) {
+        int index = search(node, k);
+        if (index >= 0) {
+            return false;
+        }
+
+        int slot = -index - 1;
+        if (node.isLeaf()) {
+            insertAt(node, slot, k, v, null);
+            return true;
+        }
+
+        Node<K, V> child = node.children[slot];
+        if (!add(child, k, v)) {
+            return false;
+        }
+        if (child.size == order) {
+            splitChild(node, slot, child);
+        }
+        return true;
+    }
+
+    /**
+     * splitChild 把溢出的孩子从中间分裂为两个节点, 中间的键插入到父节点
+     * 与2-3树分离临时4-node的做法相同, 只是节点更宽
+     * @param parent 父节点
+     * @param slot child在父节点中的位置
+     * @param child 有order个键的溢出节点
+     */
+    private void splitChild(Node<K, V> parent, int slot, Node<K, V> child) {
+        int mid = order / 2;
+        int moved = order - mid - 1;
+
+        Node<K, V> right = new Node<K, V>(order, child.isLeaf());
+        System.arraycopy(child.keys, mid + 1, right.keys, 0, moved);
+        System.arraycopy(child.values, mid + 1, right.values, 0, moved);
+        if (!child.isLeaf()) {
+            System.arraycopy(child.children, mid + 1, right.children, 0, moved + 1);
+        }
+        right.size = moved;
+
+        K k = child.key(mid);
+        V v = child.value(mid);
+
+        // 清除移走的引用, 避免阻止键值被回收
+        for (int i = mid; i < order; i++) {
+            child.keys[i] = null;
+            child.values[i] = null;
+            if (!child.isLeaf()) {
+                child.children[i + 1] = null;
+            }
+        }
+        child.size = mid;
+
+        insertAt(parent, slot, k, v, right);
+    }
+
+    /**
+     * insertAt 在节点的slot位置插入键值, 之后的键值和孩子依次后移
+     * @param right 插入键的右孩子, 叶子节点为null
+     */
+    private void insertAt(Node<K, V> node, int slot, K k, V v, Node<K, V> right) {
+        int tail = node.size - slot;
+        System.arraycopy(node.keys, slot, node.keys, slot + 1, tail);
+        System.arraycopy(node.values, slot, node.values, slot + 1, tail);
+        node.keys[slot] = k;
+        node.values[slot] = v;
+        if (!node.isLeaf()) {
+            System.arraycopy(node.children, slot + 1, node.children, slot + 2, tail);
+            node.children[slot + 1] = right;
+        }
+        node.size++;
+    }
+
+    /**
+     * search 在节点内二分查找键
+     * @return 找到时返回键的下标, 否则返回 -(应该插入的位置) - 1, 插入位置也是要继续查找的孩子
+     */
+    private int search(Node<K, V> node, K k) {
+        int lo = 0;
+        int hi = node.size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = k.compareTo(node.key(mid));
+            if (cmp < 0) {
+                hi = mid - 1;
+            } else if (cmp > 0) {
+                lo = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * forEach 按键的升序遍历所有元素
+     * @param action 对每个键值对执行的操作
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        forEach(root, action);
+    }
+
+    private void forEach(Node<K, V> node, BiConsumer<? super K, ? super V> action) {
+        if (node == null) {
+            return;
+        }
+        for (int i = 0; i < node.size; i++) {
+            if (!node.isLeaf()) {
+                forEach(node.children[i], action);
+            }
+            action.accept(node.key(i), node.value(i));
+        }
+        if (!node.isLeaf()) {
+            forEach(node.children[node.size], action);
+        }
+    }
+
+    /**
+     * size 获取元素个数
+     * @return 返回B树持有的元素个数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * height 获取树高, 即一次查找最多访问的节点个数
+     * @return 返回树高, 空树为0
+     */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * order 获取阶数
+     * @return 返回每个节点最多的孩子个数
+     */
+    public int order() {
+        return order;
+    }
+
+    public static void main(String[] args) {
+        BTree<Integer, Integer> tree = new BTree<>(4);
+        for (int i = 0; i < 100; i++) {
+            tree.add(i * 7 % 101, i);
+        }
+        System.out.println(tree.size() + " " + tree.height() + " " + tree.get(14));
+    }
+}
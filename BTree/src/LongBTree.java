@@ -0,0 +1,254 @@
+import java.util.Arrays;
+
+/**
+ * LongBTree 键为 long 的B树, 结构与 BTree 相同, 键直接保存在 long[] 中
+ * 节点内的查找交给 LongKeySearch: JVM 加载了 jdk.incubator.vector 模块时使用向量比较, 否则退回到二分查找
+ * 开启向量查找需要在运行时加上 --add-modules jdk.incubator.vector, 也可以用 -DLongBTree.vector=false 强制关闭
+ * @param <V> 值的类型
+ */
+public class LongBTree<V> {
+    private static final int DEFAULT_ORDER = 64;
+
+    private static final int MIN_ORDER = 3;
+
+    // 键数组的长度按8个long(一个64字节的缓存行)对齐, 向量查找一次最多读取这么多个键
+    static final int LANE_PADDING = 8;
+
+    private static final LongKeySearch SCALAR = new ScalarLongKeySearch();
+
+    // 向量查找不可用时为null
+    private static final LongKeySearch VECTOR = loadVectorSearch();
+
+    /**
+     * Node 与 BTree.Node 相同, 键数组 [size, keys.length) 的位置始终为 Long.MAX_VALUE
+     */
+    static private class Node<V> {
+        private int size;
+        private final long[] keys;
+        private final Object[] values;
+        private final Node<V>[] children;
+
+        @SuppressWarnings("unchecked")
+        Node(int order, boolean leaf) {
+            this.keys = new long[(order + LANE_PADDING - 1) / LANE_PADDING * LANE_PADDING];
+            Arrays.fill(this.keys, Long.MAX_VALUE);
+            this.values = new Object[order];
+            this.children = leaf ? null : (Node<V>[]) new Node[order + 1];
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+
+        @SuppressWarnings("unchecked")
+        V value(int index) {
+            return (V) values[index];
+        }
+    }
+
+    private final int order;
+
+    private final LongKeySearch search;
+
+    private int size;
+
+    private int height;
+
+    private Node<V> root;
+
+    LongBTree() {
+        this(DEFAULT_ORDER);
+    }
+
+    /**
+     * @param order 每个节点最多的孩子个数, 节点最多保存 order-1 个键
+     */
+    LongBTree(int order) {
+        this(order, true);
+    }
+
+    /**
+     * @param order 每个节点最多的孩子个数, 节点最多保存 order-1 个键
+     * @param vectorized 是否尝试使用向量查找, 向量查找不可用时忽略
+     */
+    LongBTree(int order, boolean vectorized) {
+        if (order < MIN_ORDER) {
+            throw new IllegalArgumentException("order must be at least " + MIN_ORDER + ": " + order);
+        }
+        this.order = order;
+        this.search = vectorized && VECTOR != null ? VECTOR : SCALAR;
+        this.size = 0;
+        this.height = 0;
+        this.root = null;
+    }
+
+    /**
+     * loadVectorSearch 在向量模块可用时通过反射加载 VectorLongKeySearch
+     * 直接引用会在没有加载模块的JVM上链接失败, 所以这里只按类名加载
+     */
+    private static LongKeySearch loadVectorSearch() {
+        if (!Boolean.parseBoolean(System.getProperty("LongBTree.vector", "true"))
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return (LongKeySearch) Class.forName("VectorLongKeySearch").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * vectorAvailable 判断当前JVM能否使用向量查找
+     * @return 向量查找可用时返回true
+     */
+    public static boolean vectorAvailable() {
+        return VECTOR != null;
+    }
+
+    /**
+     * get 查找键对应的值
+     * @param k 要查找的键
+     * @return 返回键对应的值, 键不存在时返回null
+     */
+    public V get(long k) {
+        Node<V> node = root;
+        while (node != null) {
+            int slot = search.lowerBound(node.keys, node.size, k);
+            if (slot < node.size && node.keys[slot] == k) {
+                return node.value(slot);
+            }
+            node = node.isLeaf() ? null : node.children[slot];
+        }
+        return null;
+    }
+
+    /**
+     * containsKey 判断键是否存在
+     * @param k 要查找的键
+     * @return 键存在时返回true
+     */
+    public boolean containsKey(long k) {
+        Node<V> node = root;
+        while (node != null) {
+            int slot = search.lowerBound(node.keys, node.size, k);
+            if (slot < node.size && node.keys[slot] == k) {
+                return true;
+            }
+            node = node.isLeaf() ? null : node.children[slot];
+        }
+        return false;
+    }
+
+    /**
+     * add 往B树中添加元素, 键已经存在时不做任何修改
+     * @param k 元素对应的键
+     * @param v 元素对应的值
+     */
+    public void add(long k, V v) {
+        if (root == null) {
+            root = new Node<V>(order, true);
+            insertAt(root, 0, k, v, null);
+            size++;
+            height = 1;
+            return;
+        }
+
+        if (!add(root, k, v)) {
+            return;
+        }
+        size++;
+
+        if (root.size == order) {
+            Node<V> newRoot = new Node<V>(order, false);
+            newRoot.children[0] = root;
+            splitChild(newRoot, 0, root);
+            root = newRoot;
+            height++;
+        }
+    }
+
+    private boolean add(Node<V> node, long k, V v) {
+        int slot = search.lowerBound(node.keys, node.size, k);
+        if (slot < node.size && node.keys[slot] == k) {
+            return false;
+        }
+
+        if (node.isLeaf()) {
+            insertAt(node, slot, k, v, null);
+            return true;
+        }
+
+        Node<V> child = node.children[slot];
+        if (!add(child, k, v)) {
+            return false;
+        }
+        if (child.size == order) {
+            splitChild(node, slot, child);
+        }
+        return true;
+    }
+
+    // splitChild 与 BTree.splitChild 相同, 移走的键位置重新填充为 Long.MAX_VALUE
+    private void splitChild(Node<V> parent, int slot, Node<V> child) {
+        int mid = order / 2;
+        int moved = order - mid - 1;
+
+        Node<V> right = new Node<V>(order, child.isLeaf());
+        System.arraycopy(child.keys, mid + 1, right.keys, 0, moved);
+        System.arraycopy(child.values, mid + 1, right.values, 0, moved);
+        if (!child.isLeaf()) {
+            System.arraycopy(child.children, mid + 1, right.children, 0, moved + 1);
+        }
+        right.size = moved;
+
+        long k = child.keys[mid];
+        V v = child.value(mid);
+
+        Arrays.fill(child.keys, mid, order, Long.MAX_VALUE);
+        Arrays.fill(child.values, mid, order, null);
+        if (!child.isLeaf()) {
+            Arrays.fill(child.children, mid + 1, order + 1, null);
+        }
+        child.size = mid;
+
+        insertAt(parent, slot, k, v, right);
+    }
+
+    private void insertAt(Node<V> node, int slot, long k, V v, Node<V> right) {
+        int tail = node.size - slot;
+        System.arraycopy(node.keys, slot, node.keys, slot + 1, tail);
+        System.arraycopy(node.values, slot, node.values, slot + 1, tail);
+        node.keys[slot] = k;
+        node.values[slot] = v;
+        if (!node.isLeaf()) {
+            System.arraycopy(node.children, slot + 1, node.children, slot + 2, tail);
+            node.children[slot + 1] = right;
+        }
+        node.size++;
+    }
+
+    /**
+     * size 获取元素个数
+     * @return 返回B树持有的元素个数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * height 获取树高, 即一次查找最多访问的节点个数
+     * @return 返回树高, 空树为0
+     */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * vectorized 判断这棵树是否使用向量查找
+     * @return 使用向量查找时返回true
+     */
+    public boolean vectorized() {
+        return search != SCALAR;
+    }
+}
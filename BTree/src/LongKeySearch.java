@@ -0,0 +1,16 @@
+/**
+ * LongKeySearch LongBTree 节点内的查找策略
+ * 节点的键数组中 [size, keys.length) 的位置都填充为 Long.MAX_VALUE, 数组长度是 LongBTree.LANE_PADDING 的倍数,
+ * 所以实现可以按整组读取而不用单独处理末尾
+ */
+interface LongKeySearch {
+
+    /**
+     * lowerBound 计算节点中小于k的键的个数
+     * @param keys 升序排列的键, 有效部分之后填充 Long.MAX_VALUE
+     * @param size 有效的键的个数
+     * @param k 要查找的键
+     * @return 返回小于k的键的个数, 也是k应该插入的位置和要继续查找的孩子
+     */
+    int lowerBound(long[] keys, int size, long k);
+}
@@ -0,0 +1,20 @@
+/**
+ * ScalarLongKeySearch 用二分查找实现的节点内查找, 在任何JVM上都可用
+ */
+final class ScalarLongKeySearch implements LongKeySearch {
+
+    @Override
+    public int lowerBound(long[] keys, int size, long k) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < k) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,31 @@
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorLongKeySearch 用 jdk.incubator.vector 实现的节点内查找
+ * 每次把一组键与k做向量比较, 小于k的键一定排在前面, 掩码中为真的位数就是这一组中小于k的键的个数;
+ * 某一组不全为真时后面的键都不小于k, 查找结束
+ * 编译和运行都需要 --add-modules jdk.incubator.vector, 只能通过 LongBTree 反射加载, 其他类不能直接引用
+ */
+final class VectorLongKeySearch implements LongKeySearch {
+
+    // 一组的长度不能超过键数组的填充粒度, 否则会读越界
+    private static final VectorSpecies<Long> SPECIES =
+            LongVector.SPECIES_PREFERRED.length() <= LongBTree.LANE_PADDING
+                    ? LongVector.SPECIES_PREFERRED : LongVector.SPECIES_512;
+
+    private static final int LANES = SPECIES.length();
+
+    @Override
+    public int lowerBound(long[] keys, int size, long k) {
+        int count = 0;
+        for (int i = 0; i < size; i += LANES) {
+            int less = LongVector.fromArray(SPECIES, keys, i).lt(k).trueCount();
+            count += less;
+            if (less < LANES) {
+                break;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,85 @@
+import java.util.TreeMap;
+
+import treebench.Workload;
+
+/**
+ * JmhWorkload 把默认包中的树和 KeyStream 提供给 treebench 包中的 JMH 基准测试
+ */
+public class JmhWorkload implements Workload {
+
+    @Override
+    public Tree create(String implementation) {
+        switch (implementation) {
+            case "RedBlackTree":
+                return new RedBlackTreeAdapter();
+            case "TwoThreeTree":
+                return new TwoThreeTreeAdapter();
+            case "TreeMap":
+                return new TreeMapAdapter();
+            default:
+                throw new IllegalArgumentException("unknown implementation: " + implementation);
+        }
+    }
+
+    @Override
+    public Integer[] keys(String stream, int n, long seed) {
+        return KeyStream.valueOf(stream.toUpperCase()).boxed(n, seed);
+    }
+
+    private static final class RedBlackTreeAdapter implements Tree {
+        private final RedBlackTree<Integer, Integer> tree = new RedBlackTree<>();
+
+        @Override
+        public void add(Integer key, Integer value) {
+            tree.add(key, value);
+        }
+
+        @Override
+        public Integer get(Integer key) {
+            return tree.get(key);
+        }
+
+        @Override
+        public int size() {
+            return tree.size();
+        }
+    }
+
+    private static final class TwoThreeTreeAdapter implements Tree {
+        private final TwoThreeTree<Integer, Integer> tree = new TwoThreeTree<>();
+
+        @Override
+        public void add(Integer key, Integer value) {
+            tree.add(key, value);
+        }
+
+        @Override
+        public Integer get(Integer key) {
+            return tree.get(key);
+        }
+
+        @Override
+        public int size() {
+            return tree.size();
+        }
+    }
+
+    private static final class TreeMapAdapter implements Tree {
+        private final TreeMap<Integer, Integer> tree = new TreeMap<>();
+
+        @Override
+        public void add(Integer key, Integer value) {
+            tree.put(key, value);
+        }
+
+        @Override
+        public Integer get(Integer key) {
+            return tree.get(key);
+        }
+
+        @Override
+        public int size() {
+            return tree.size();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package treebench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * TreeJmhBenchmark 以 java.util.TreeMap 为基准, 用 JMH 测量 RedBlackTree 和 TwoThreeTree 的 add/get/size
+ * 每个操作报告吞吐量和平均延迟, main 默认启用gc分析器, 报告分配速率和每个操作分配的字节数(gc.alloc.rate.norm)
+ *
+ * 构建和运行(在 Benchmark 目录):
+ * mvn -B package
+ * java -jar target/benchmarks.jar -p size=1000,1000000 -p stream=random,zipf
+ * 参数和 JMH 的命令行一致, 例如 -p implementation=TreeMap 只测基准, -f/-wi/-i 调整分叉和迭代次数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class TreeJmhBenchmark {
+
+    private static final long SEED = 42L;
+
+    @Param({"RedBlackTree", "TwoThreeTree", "TreeMap"})
+    public String implementation;
+
+    @Param({"random", "sorted", "reverse", "zipf"})
+    public String stream;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    private Workload workload;
+    private Integer[] keys;
+    private Integer[] probes;
+
+    // 预先插入全部键的树, 用于 get 和 size
+    private Workload.Tree filled;
+
+    // add 写入的树, 写满 size 个键后换一棵新树, 每个操作的开销是树从空增长到 size 的平均值
+    private Workload.Tree growing;
+    private int next;
+
+    private int probe;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        workload = Workload.load();
+        keys = workload.keys(stream, size, SEED);
+        probes = workload.keys("random", size, SEED);
+        // 查询序列一半命中已有的键, 一半是随机键, 与 TreeBenchmark 相同
+        for (int i = 0; i < probes.length; i += 2) {
+            probes[i] = keys[(int) ((i * 2654435761L) % keys.length)];
+        }
+        filled = workload.create(implementation);
+        for (Integer key : keys) {
+            filled.add(key, key);
+        }
+        growing = workload.create(implementation);
+    }
+
+    @Benchmark
+    public void add() {
+        if (next == keys.length) {
+            growing = workload.create(implementation);
+            next = 0;
+        }
+        Integer key = keys[next++];
+        growing.add(key, key);
+    }
+
+    @Benchmark
+    public Integer get() {
+        if (probe == probes.length) {
+            probe = 0;
+        }
+        return filled.get(probes[probe++]);
+    }
+
+    @Benchmark
+    public int size() {
+        return filled.size();
+    }
+
+    /**
+     * main 用gc分析器运行这个类中的基准测试, 命令行参数按 JMH 的格式解析
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(commandLine);
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include(TreeJmhBenchmark.class.getName());
+        }
+        options.addProfiler(GCProfiler.class);
+        new Runner(options.build()).run();
+    }
+}
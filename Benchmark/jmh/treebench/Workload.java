@@ -0,0 +1,45 @@
+package treebench;
+
+/**
+ * Workload JMH 基准测试访问被测的树和键序列的入口
+ * JMH 要求基准测试类在具名包中, 而树和 KeyStream 都在默认包中, 具名包中的代码不能直接引用它们;
+ * 默认包中的 JmhWorkload 实现这个接口, 在每次试验开始时按类名加载一次, 之后都是普通的接口调用
+ */
+public interface Workload {
+
+    /**
+     * Tree 被测的有序映射, 键和值都是 Integer
+     */
+    interface Tree {
+        void add(Integer key, Integer value);
+
+        Integer get(Integer key);
+
+        int size();
+    }
+
+    /**
+     * create 创建一棵空树
+     * @param implementation RedBlackTree, TwoThreeTree 或者作为基准的 TreeMap
+     */
+    Tree create(String implementation);
+
+    /**
+     * keys 生成键序列, 与 Bench 版本的基准测试使用同一个 KeyStream
+     * @param stream KeyStream 的名称, 不区分大小写
+     * @param n 键的个数
+     * @param seed 随机种子
+     */
+    Integer[] keys(String stream, int n, long seed);
+
+    /**
+     * load 加载默认包中的实现
+     */
+    static Workload load() {
+        try {
+            return (Workload) Class.forName("JmhWorkload").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("JmhWorkload is not on the classpath", e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * BTreeBenchmark 对比不同阶数的 BTree 与 TwoThreeTree, RedBlackTree 的随机查找延迟
+ * 同时输出每棵树的高度(一次查找访问的节点个数), 元素个数远大于缓存时差距主要来自缓存缺失的次数
+ *
+ * java -Xms16g -Xmx16g -cp out BTreeBenchmark [元素个数, 默认10000000] [阶数, 默认16,32,64,128]
+ */
+public class BTreeBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        String[] orders = (args.length > 1 ? args[1] : "16,32,64,128").split(",");
+
+        Integer[] keys = KeyStream.RANDOM.boxed(n, 42L);
+        Integer[] probes = KeyStream.RANDOM.boxed(n, 7L);
+        for (int i = 0; i < probes.length; i += 2) {
+            probes[i] = keys[(int) ((i * 2654435761L) % keys.length)];
+        }
+        Bench bench = new Bench(2, 5);
+
+        for (String value : orders) {
+            int order = Integer.parseInt(value);
+            BTree<Integer, Integer> tree = new BTree<>(order);
+            for (Integer key : keys) {
+                tree.add(key, key);
+            }
+            System.out.println(bench.measure("BTree.get order=" + order + " height=" + tree.height() + " n=" + n, () -> {
+                long hits = 0;
+                for (Integer probe : probes) {
+                    if (tree.get(probe) != null) {
+                        hits++;
+                    }
+                }
+                Bench.sink = hits;
+                return probes.length;
+            }));
+        }
+
+        TwoThreeTree<Integer, Integer> tree23 = new TwoThreeTree<>();
+        for (Integer key : keys) {
+            tree23.add(key, key);
+        }
+        System.out.println(bench.measure("TwoThreeTree.get n=" + n, () -> {
+            long hits = 0;
+            for (Integer probe : probes) {
+                if (tree23.get(probe) != null) {
+                    hits++;
+                }
+            }
+            Bench.sink = hits;
+            return probes.length;
+        }));
+
+        RedBlackTree<Integer, Integer> rbt = new RedBlackTree<>();
+        for (Integer key : keys) {
+            rbt.add(key, key);
+        }
+        System.out.println(bench.measure("RedBlackTree.get n=" + n, () -> {
+            long hits = 0;
+            for (Integer probe : probes) {
+                if (rbt.get(probe) != null) {
+                    hits++;
+                }
+            }
+            Bench.sink = hits;
+            return probes.length;
+        }));
+    }
+}
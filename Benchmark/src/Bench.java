@@ -0,0 +1,131 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Bench 一个不依赖第三方库的微基准测试框架
+ * 每个测试先执行若干轮预热, 再执行若干轮测量, 报告:
+ * 吞吐量(ops/s), 平均延迟(ns/op), 分配速率(B/op, 等价于JMH的gc profiler中的gc.alloc.rate.norm)以及GC次数和耗时
+ * 同样的测量有JMH版本(Benchmark/pom.xml, jmh/treebench/TreeJmhBenchmark), 这个框架用于没有Maven和JMH的环境, 只需要javac
+ */
+final class Bench {
+
+    /**
+     * Workload 被测量的操作
+     */
+    interface Workload {
+        /**
+         * run 执行一轮操作
+         * @return 返回本轮执行的操作次数
+         */
+        long run();
+    }
+
+    /**
+     * Result 一次测量的结果
+     */
+    static final class Result {
+        final String name;
+        final double opsPerSecond;
+        final double nanosPerOp;
+        final double bytesPerOp;
+        final long gcCount;
+        final long gcMillis;
+
+        Result(String name, double opsPerSecond, double nanosPerOp, double bytesPerOp, long gcCount, long gcMillis) {
+            this.name = name;
+            this.opsPerSecond = opsPerSecond;
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-48s %14.0f ops/s %12.2f ns/op %10.2f B/op %6d gc %8d ms",
+                    name, opsPerSecond, nanosPerOp, bytesPerOp, gcCount, gcMillis);
+        }
+    }
+
+    // 防止JIT把没有被使用的结果当作死代码消除
+    static volatile long sink;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final int warmupIterations;
+    private final int measureIterations;
+
+    Bench(int warmupIterations, int measureIterations) {
+        this.warmupIterations = warmupIterations;
+        this.measureIterations = measureIterations;
+    }
+
+    /**
+     * measure 预热后测量一个操作
+     * @param name 测试名称
+     * @param workload 被测量的操作
+     * @return 返回所有测量轮次的汇总结果
+     */
+    Result measure(String name, Workload workload) {
+        for (int i = 0; i < warmupIterations; i++) {
+            workload.run();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long ops = 0;
+        long nanos = 0;
+        long bytes = 0;
+        long gcCount = 0;
+        long gcMillis = 0;
+
+        for (int i = 0; i < measureIterations; i++) {
+            long gcCountBefore = gcCount();
+            long gcMillisBefore = gcMillis();
+            long bytesBefore = THREADS.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+
+            ops += workload.run();
+
+            nanos += System.nanoTime() - start;
+            bytes += THREADS.getThreadAllocatedBytes(threadId) - bytesBefore;
+            gcCount += gcCount() - gcCountBefore;
+            gcMillis += gcMillis() - gcMillisBefore;
+        }
+
+        return new Result(name, ops * 1e9 / nanos, (double) nanos / ops, (double) bytes / ops, gcCount, gcMillis);
+    }
+
+    /**
+     * usedHeap 多次触发GC后读取已使用的堆内存, 用于估算数据结构常驻内存
+     * @return 返回已使用的堆内存字节数
+     */
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        List<GarbageCollectorMXBean> beans = ManagementFactory.getGarbageCollectorMXBeans();
+        for (GarbageCollectorMXBean bean : beans) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        List<GarbageCollectorMXBean> beans = ManagementFactory.getGarbageCollectorMXBeans();
+        for (GarbageCollectorMXBean bean : beans) {
+            millis += Math.max(0, bean.getCollectionTime());
+        }
+        return millis;
+    }
+}
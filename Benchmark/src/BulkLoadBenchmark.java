@@ -0,0 +1,38 @@
+/**
+ * BulkLoadBenchmark 对比有序输入下逐个 add 和 fromSorted 线性构造的耗时
+ *
+ * java -Xms8g -Xmx8g -cp out BulkLoadBenchmark [元素个数, 默认10000000]
+ */
+public class BulkLoadBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        Integer[] keys = KeyStream.SORTED.boxed(n, 42L);
+        Bench bench = new Bench(2, 3);
+
+        System.out.println(bench.measure("RedBlackTree.add sorted n=" + n, () -> {
+            RedBlackTree<Integer, Integer> tree = new RedBlackTree<>();
+            for (Integer key : keys) {
+                tree.add(key, key);
+            }
+            Bench.sink = tree.size();
+            return keys.length;
+        }));
+        System.out.println(bench.measure("RedBlackTree.fromSorted n=" + n, () -> {
+            Bench.sink = RedBlackTree.fromSorted(keys, keys).size();
+            return keys.length;
+        }));
+        System.out.println(bench.measure("TwoThreeTree.add sorted n=" + n, () -> {
+            TwoThreeTree<Integer, Integer> tree = new TwoThreeTree<>();
+            for (Integer key : keys) {
+                tree.add(key, key);
+            }
+            Bench.sink = tree.size();
+            return keys.length;
+        }));
+        System.out.println(bench.measure("TwoThreeTree.fromSorted n=" + n, () -> {
+            Bench.sink = TwoThreeTree.fromSorted(keys, keys).size();
+            return keys.length;
+        }));
+    }
+}
@@ -0,0 +1,98 @@
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * ContentionBenchmark 多线程写入均匀随机键时, 对比 ConcurrentShardedTree 和 ConcurrentSkipListMap 的吞吐量
+ * 每个线程写入相同个数的键, 每次写入后查找一个随机键; 报告总吞吐量
+ *
+ * java -Xms8g -Xmx8g -cp out ContentionBenchmark [最大线程数, 默认64] [每个线程的操作数, 默认1000000]
+ */
+public class ContentionBenchmark {
+
+    private interface Target {
+        void add(Integer key);
+
+        Object get(Integer key);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int opsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+        Integer[][] keys = new Integer[maxThreads][];
+        for (int t = 0; t < maxThreads; t++) {
+            keys[t] = KeyStream.RANDOM.boxed(opsPerThread, t);
+        }
+
+        Bench bench = new Bench(1, 3);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            int n = threads;
+            System.out.println(bench.measure("ConcurrentShardedTree threads=" + n, () -> {
+                ConcurrentShardedTree<Integer, Integer> tree = new ConcurrentShardedTree<>();
+                return run(n, keys, new Target() {
+                    @Override
+                    public void add(Integer key) {
+                        tree.add(key, key);
+                    }
+
+                    @Override
+                    public Object get(Integer key) {
+                        return tree.get(key);
+                    }
+                });
+            }));
+            System.out.println(bench.measure("ConcurrentSkipListMap threads=" + n, () -> {
+                ConcurrentSkipListMap<Integer, Integer> map = new ConcurrentSkipListMap<>();
+                return run(n, keys, new Target() {
+                    @Override
+                    public void add(Integer key) {
+                        map.putIfAbsent(key, key);
+                    }
+
+                    @Override
+                    public Object get(Integer key) {
+                        return map.get(key);
+                    }
+                });
+            }));
+        }
+    }
+
+    // run 启动threads个线程同时写入, 返回所有线程执行的操作次数
+    private static long run(int threads, Integer[][] keys, Target target) {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            Integer[] own = keys[t];
+            Integer[] probes = keys[(t + 1) % keys.length];
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long hits = 0;
+                for (int i = 0; i < own.length; i++) {
+                    target.add(own[i]);
+                    if (target.get(probes[i]) != null) {
+                        hits++;
+                    }
+                }
+                Bench.sink = hits;
+            });
+            workers[t].start();
+        }
+
+        start.countDown();
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        return 2L * threads * keys[0].length;
+    }
+}
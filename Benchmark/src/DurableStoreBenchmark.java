@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * DurableStoreBenchmark 对比 DurableTreeStore 在不同持久化配置下和纯内存 TwoThreeTree 的写入吞吐量
+ * BATCH 按批fsync; SYNC 每个修改都fsync, 多个线程同时写入时由组提交合并fsync
+ * 目录应当位于要测量的磁盘上, 每一轮开始前清空
+ *
+ * java -Xms4g -Xmx4g -cp out DurableStoreBenchmark [目录, 默认临时目录] [元素个数, 默认1000000]
+ */
+public class DurableStoreBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        Path directory = args.length > 0 ? Paths.get(args[0]) : Files.createTempDirectory("store");
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        Integer[] keys = KeyStream.RANDOM.boxed(n, 42L);
+        Bench bench = new Bench(1, 3);
+
+        System.out.println(bench.measure("TwoThreeTree.add n=" + n, () -> {
+            TwoThreeTree<Integer, Integer> tree = new TwoThreeTree<>();
+            for (Integer key : keys) {
+                tree.add(key, key);
+            }
+            Bench.sink = tree.size();
+            return keys.length;
+        }));
+
+        for (int batch : new int[]{100, 1000, 10000}) {
+            System.out.println(bench.measure("DurableTreeStore.add BATCH batchSize=" + batch + " n=" + n, () ->
+                    write(directory, DurableTreeStore.Durability.BATCH, batch, keys, 1)));
+        }
+
+        // 每个修改都fsync, 用较少的元素个数
+        Integer[] syncKeys = KeyStream.RANDOM.boxed(Math.min(n, 20_000), 42L);
+        for (int threads : new int[]{1, 8, 64}) {
+            System.out.println(bench.measure("DurableTreeStore.add SYNC threads=" + threads + " n=" + syncKeys.length, () ->
+                    write(directory, DurableTreeStore.Durability.SYNC, 1, syncKeys, threads)));
+        }
+    }
+
+    // write 清空目录后打开存储, threads个线程分别写入keys的一段
+    private static long write(Path directory, DurableTreeStore.Durability durability, int batchSize, Integer[] keys, int threads) {
+        try {
+            clear(directory);
+            try (DurableTreeStore<Integer, Integer> store = DurableTreeStore.open(directory, SnapshotCodecs.INT, SnapshotCodecs.INT,
+                    durability, batchSize, 64L * 1024 * 1024)) {
+                Thread[] workers = new Thread[threads];
+                for (int t = 0; t < threads; t++) {
+                    int from = (int) ((long) keys.length * t / threads);
+                    int to = (int) ((long) keys.length * (t + 1) / threads);
+                    workers[t] = new Thread(() -> {
+                        try {
+                            for (int i = from; i < to; i++) {
+                                store.add(keys[i], keys[i]);
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    workers[t].start();
+                }
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+                store.sync();
+                Bench.sink = store.size();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        return keys.length;
+    }
+
+    private static void clear(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).filter(path -> !path.equals(directory)).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+}
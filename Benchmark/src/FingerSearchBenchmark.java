@@ -0,0 +1,51 @@
+/**
+ * FingerSearchBenchmark 对比 RedBlackTree/TwoThreeTree 开启和关闭指针查找模式时插入近似有序键和随机键的吞吐量
+ * 开启统计时(-Dtreestats.enabled=true)同时输出每次插入的平均比较次数
+ *
+ * java -Xms4g -Xmx4g -cp out FingerSearchBenchmark [元素个数, 默认1000000]
+ * java -Xms4g -Xmx4g -Dtreestats.enabled=true -cp out FingerSearchBenchmark [元素个数, 默认1000000]
+ */
+public class FingerSearchBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Bench bench = new Bench(3, 5);
+
+        for (KeyStream stream : new KeyStream[]{KeyStream.NEAR_SORTED, KeyStream.RANDOM}) {
+            Integer[] keys = stream.boxed(n, 42L);
+            for (boolean finger : new boolean[]{false, true}) {
+                String label = " " + stream + " finger=" + finger + " n=" + n;
+
+                @SuppressWarnings("unchecked")
+                RedBlackTree<Integer, Integer>[] rbt = (RedBlackTree<Integer, Integer>[]) new RedBlackTree[1];
+                System.out.println(bench.measure("RedBlackTree.add" + label, () -> {
+                    RedBlackTree<Integer, Integer> tree = new RedBlackTree<>();
+                    tree.setFingerSearch(finger);
+                    for (Integer key : keys) {
+                        tree.add(key, key);
+                    }
+                    rbt[0] = tree;
+                    return keys.length;
+                }));
+
+                @SuppressWarnings("unchecked")
+                TwoThreeTree<Integer, Integer>[] tree23 = (TwoThreeTree<Integer, Integer>[]) new TwoThreeTree[1];
+                System.out.println(bench.measure("TwoThreeTree.add" + label, () -> {
+                    TwoThreeTree<Integer, Integer> tree = new TwoThreeTree<>();
+                    tree.setFingerSearch(finger);
+                    for (Integer key : keys) {
+                        tree.add(key, key);
+                    }
+                    tree23[0] = tree;
+                    return keys.length;
+                }));
+
+                if (TreeStats.ENABLED) {
+                    // 计数器在树的整个生命周期内累计, 最后一次测量的树只执行过这一轮插入
+                    System.out.printf("  compares/add RedBlackTree=%.2f TwoThreeTree=%.2f%n",
+                            rbt[0].stats().comparisonsPerOperation(), tree23[0].stats().comparisonsPerOperation());
+                }
+            }
+        }
+    }
+}
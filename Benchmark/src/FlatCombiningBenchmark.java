@@ -0,0 +1,119 @@
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * FlatCombiningBenchmark 多线程插入均匀随机键时, 对比 FlatCombiningTree 和每次插入都加锁的 RedBlackTree 的吞吐量
+ * 加锁的对照组分别使用 synchronized 和 ReentrantLock; 运行时支持虚拟线程(JDK 21+)时, 再用虚拟线程测量一遍
+ *
+ * java -Xms8g -Xmx8g -cp out FlatCombiningBenchmark [最大线程数, 默认64] [每个线程的操作数, 默认200000]
+ */
+public class FlatCombiningBenchmark {
+
+    public static void main(String[] args) {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int opsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+        Integer[][] keys = new Integer[maxThreads][];
+        for (int t = 0; t < maxThreads; t++) {
+            keys[t] = KeyStream.RANDOM.boxed(opsPerThread, t);
+        }
+
+        Bench bench = new Bench(1, 3);
+        measure(bench, "platform", maxThreads, keys, runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.start();
+            return thread;
+        });
+
+        Function<Runnable, Thread> virtual = virtualThreads();
+        if (virtual == null) {
+            System.out.println("virtual threads are not available on Java " + Runtime.version().feature() + ", skipped");
+        } else {
+            measure(bench, "virtual", maxThreads, keys, virtual);
+        }
+    }
+
+    private static void measure(Bench bench, String kind, int maxThreads, Integer[][] keys, Function<Runnable, Thread> starter) {
+        for (int threads = 1; threads <= maxThreads; threads *= 4) {
+            int n = threads;
+            System.out.println(bench.measure("FlatCombiningTree " + kind + " threads=" + n, () -> {
+                FlatCombiningTree<Integer, Integer> tree = new FlatCombiningTree<>();
+                long ops = run(n, keys, key -> tree.add(key, key), starter);
+                Bench.sink = (long) tree.averageBatchSize();
+                return ops;
+            }));
+            System.out.println(bench.measure("synchronized RedBlackTree " + kind + " threads=" + n, () -> {
+                RedBlackTree<Integer, Integer> tree = new RedBlackTree<>();
+                return run(n, keys, key -> {
+                    synchronized (tree) {
+                        tree.add(key, key);
+                    }
+                }, starter);
+            }));
+            System.out.println(bench.measure("ReentrantLock RedBlackTree " + kind + " threads=" + n, () -> {
+                RedBlackTree<Integer, Integer> tree = new RedBlackTree<>();
+                ReentrantLock lock = new ReentrantLock();
+                return run(n, keys, key -> {
+                    lock.lock();
+                    try {
+                        tree.add(key, key);
+                    } finally {
+                        lock.unlock();
+                    }
+                }, starter);
+            }));
+        }
+    }
+
+    // run 用starter启动threads个线程同时插入, 返回所有线程执行的操作次数
+    private static long run(int threads, Integer[][] keys, Consumer<Integer> add, Function<Runnable, Thread> starter) {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            Integer[] own = keys[t];
+            workers[t] = starter.apply(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (Integer key : own) {
+                    add.accept(key);
+                }
+            });
+        }
+
+        start.countDown();
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        return (long) threads * keys[0].length;
+    }
+
+    // virtualThreads 通过反射查找 Thread.startVirtualThread, 这样在JDK 17上也能编译运行; 不支持时返回null
+    private static Function<Runnable, Thread> virtualThreads() {
+        Method method;
+        try {
+            method = Thread.class.getMethod("startVirtualThread", Runnable.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+        return runnable -> {
+            try {
+                return (Thread) method.invoke(null, runnable);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+}
@@ -0,0 +1,172 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * InstrumentationBenchmark 测量 TreeStats 关闭和开启时 RedBlackTree/TwoThreeTree 的 add/get 开销
+ * 关闭时记录点应当被JIT完全消除, 吞吐量和分配量应当与没有插桩的代码相同;
+ * 开启时报告计数的额外开销, 并输出每棵树的统计快照
+ *
+ * 在当前JVM中测量(由 -Dtreestats.enabled 决定模式):
+ * java -Xms4g -Xmx4g -cp out InstrumentationBenchmark [元素个数, 默认1000000]
+ * 依次启动没有插桩的基线, 关闭和开启三个JVM并对比, 需要JDK, 在仓库根目录运行:
+ * java -cp out InstrumentationBenchmark compare [元素个数, 默认1000000]
+ * 基线是从当前源码删掉所有 if (TreeStats.ENABLED) {...} 记录点后重新编译的两棵树, 放在类路径的最前面
+ */
+public class InstrumentationBenchmark {
+
+    private static final String GUARD = "if (TreeStats.ENABLED) {";
+
+    private static final String[] INSTRUMENTED_SOURCES = {
+            "RedBlackTree/src/RedBlackTree.java",
+            "TwoThreeTree/src/TwoThreeTree.java",
+    };
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("compare")) {
+            String n = args.length > 1 ? args[1] : "1000000";
+            String classPath = System.getProperty("java.class.path");
+            Path baseline = compileBaseline(classPath);
+            run(baseline + File.pathSeparator + classPath, "false", n, "baseline");
+            run(classPath, "false", n, "stats=off");
+            run(classPath, "true", n, "stats=on");
+            return;
+        }
+
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Integer[] keys = KeyStream.RANDOM.boxed(n, 42L);
+        Integer[] probes = KeyStream.RANDOM.boxed(n, 7L);
+        String mode = " " + (args.length > 1 ? args[1] : TreeStats.ENABLED ? "stats=on" : "stats=off");
+        Bench bench = new Bench(3, 5);
+
+        @SuppressWarnings("unchecked")
+        RedBlackTree<Integer, Integer>[] rbt = (RedBlackTree<Integer, Integer>[]) new RedBlackTree[1];
+        System.out.println(bench.measure("RedBlackTree.add n=" + n + mode, () -> {
+            RedBlackTree<Integer, Integer> tree = new RedBlackTree<>();
+            for (Integer key : keys) {
+                tree.add(key, key);
+            }
+            rbt[0] = tree;
+            return keys.length;
+        }));
+        System.out.println(bench.measure("RedBlackTree.get n=" + n + mode, () -> {
+            long hits = 0;
+            for (Integer probe : probes) {
+                if (rbt[0].get(probe) != null) {
+                    hits++;
+                }
+            }
+            Bench.sink = hits;
+            return probes.length;
+        }));
+
+        @SuppressWarnings("unchecked")
+        TwoThreeTree<Integer, Integer>[] tree23 = (TwoThreeTree<Integer, Integer>[]) new TwoThreeTree[1];
+        System.out.println(bench.measure("TwoThreeTree.add n=" + n + mode, () -> {
+            TwoThreeTree<Integer, Integer> tree = new TwoThreeTree<>();
+            for (Integer key : keys) {
+                tree.add(key, key);
+            }
+            tree23[0] = tree;
+            return keys.length;
+        }));
+        System.out.println(bench.measure("TwoThreeTree.get n=" + n + mode, () -> {
+            long hits = 0;
+            for (Integer probe : probes) {
+                if (tree23[0].get(probe) != null) {
+                    hits++;
+                }
+            }
+            Bench.sink = hits;
+            return probes.length;
+        }));
+
+        System.out.println("RedBlackTree " + rbt[0].stats());
+        System.out.println("TwoThreeTree " + tree23[0].stats());
+    }
+
+    // run 在新的JVM中测量一种模式, label 作为结果名称的后缀
+    private static void run(String classPath, String enabled, String n, String label)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + "/bin/java");
+        command.add("-Xms4g");
+        command.add("-Xmx4g");
+        command.add("-Dtreestats.enabled=" + enabled);
+        command.add("-cp");
+        command.add(classPath);
+        command.add(InstrumentationBenchmark.class.getName());
+        command.add(n);
+        command.add(label);
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("benchmark failed: " + label);
+        }
+    }
+
+    /**
+     * compileBaseline 删掉两棵树源码中的所有记录点, 编译到临时目录
+     * @return 返回编译输出的目录
+     */
+    private static Path compileBaseline(String classPath) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("compare mode needs a JDK to compile the baseline");
+        }
+        Path sources = Files.createTempDirectory("instrumentation-baseline-src");
+        Path classes = Files.createTempDirectory("instrumentation-baseline");
+        List<String> arguments = new ArrayList<>(List.of(
+                "-encoding", "UTF-8", "-nowarn", "-d", classes.toString(), "-cp", classPath));
+        for (String source : INSTRUMENTED_SOURCES) {
+            Path path = Paths.get(source);
+            if (!Files.exists(path)) {
+                throw new IllegalStateException(source + " not found, run compare mode from the repository root");
+            }
+            Path stripped = sources.resolve(path.getFileName());
+            Files.writeString(stripped, stripGuards(Files.readString(path, StandardCharsets.UTF_8)),
+                    StandardCharsets.UTF_8);
+            arguments.add(stripped.toString());
+        }
+        if (compiler.run(null, null, null, arguments.toArray(new String[0])) != 0) {
+            throw new IllegalStateException("failed to compile the baseline");
+        }
+        return classes;
+    }
+
+    /**
+     * stripGuards 删掉每个 if (TreeStats.ENABLED) {...} 语句, 包括它所在的整行和匹配的右括号所在的行
+     * 记录点的语句块里没有字符串或字符字面量中的括号, 也没有 else 分支
+     */
+    static String stripGuards(String source) {
+        StringBuilder out = new StringBuilder(source.length());
+        int from = 0;
+        int guards = 0;
+        for (int at = source.indexOf(GUARD); at >= 0; at = source.indexOf(GUARD, from)) {
+            int depth = 1;
+            int end = at + GUARD.length();
+            while (depth > 0) {
+                char c = source.charAt(end++);
+                if (c == '{') {
+                    depth++;
+                } else if (c == '}') {
+                    depth--;
+                }
+            }
+            out.append(source, from, source.lastIndexOf('\n', at) + 1);
+            int lineEnd = source.indexOf('\n', end);
+            from = lineEnd < 0 ? source.length() : lineEnd + 1;
+            guards++;
+        }
+        if (guards == 0) {
+            throw new IllegalStateException("no " + GUARD + " found");
+        }
+        return out.append(source, from, source.length()).toString();
+    }
+}
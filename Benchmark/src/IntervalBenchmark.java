@@ -0,0 +1,77 @@
+import java.util.Random;
+
+/**
+ * IntervalBenchmark 对比 IntervalTree 和线性扫描查找包含某个时间点的所有区间的耗时和分配量
+ * 区间的起点在 [0, 100*n) 中均匀随机, 长度在 [0, 1000) 中均匀随机, 每次查询平均命中约5个区间
+ * 线性扫描遍历按起点排序的 long 数组, 扫描到起点大于查询点时结束
+ *
+ * java -Xms8g -Xmx8g -cp out IntervalBenchmark [区间个数, 默认1000000]
+ */
+public class IntervalBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long range = 100L * n;
+
+        Random random = new Random(42L);
+        long[] lo = new long[n];
+        long[] hi = new long[n];
+        IntervalTree<Integer> tree = new IntervalTree<>();
+        for (int i = 0; i < n; i++) {
+            lo[i] = (long) (random.nextDouble() * range);
+            hi[i] = lo[i] + random.nextInt(1000);
+            tree.add(lo[i], hi[i], i);
+        }
+        // 线性扫描的对照组按起点排序, 可以在起点超过查询点时提前结束
+        long[][] sorted = new long[2][n];
+        int[] count = new int[1];
+        tree.forEach((l, h, v) -> {
+            sorted[0][count[0]] = l;
+            sorted[1][count[0]] = h;
+            count[0]++;
+        });
+
+        long[] points = new long[1 << 20];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = (long) (random.nextDouble() * range);
+        }
+
+        Bench bench = new Bench(3, 5);
+        long[] hits = new long[1];
+        IntervalTree.IntervalSink<Integer> sink = (l, h, v) -> hits[0] += v;
+        System.out.println(bench.measure("IntervalTree.overlapping(point) n=" + n, () -> {
+            long found = 0;
+            for (long point : points) {
+                found += tree.overlapping(point, sink);
+            }
+            Bench.sink = found + hits[0];
+            return points.length;
+        }));
+        System.out.println(bench.measure("IntervalTree.overlapping(lo, hi) width=10000 n=" + n, () -> {
+            long found = 0;
+            for (long point : points) {
+                found += tree.overlapping(point, point + 10_000, sink);
+            }
+            Bench.sink = found + hits[0];
+            return points.length;
+        }));
+
+        // 线性扫描每次查询都要遍历约一半的区间, 只测量一小部分查询点
+        int scans = Math.max(1, (int) Math.min(points.length, 2_000_000_000L / n));
+        System.out.println(bench.measure("linear scan sorted by lo n=" + n, () -> {
+            long found = 0;
+            long[] starts = sorted[0];
+            long[] ends = sorted[1];
+            for (int q = 0; q < scans; q++) {
+                long point = points[q];
+                for (int i = 0; i < n && starts[i] <= point; i++) {
+                    if (ends[i] >= point) {
+                        found++;
+                    }
+                }
+            }
+            Bench.sink = found;
+            return scans;
+        }));
+    }
+}
@@ -0,0 +1,141 @@
+import java.util.Random;
+
+/**
+ * KeyStream 生成基准测试使用的键序列
+ * 所有序列都使用固定的随机种子, 保证多次运行之间可以直接对比
+ */
+public enum KeyStream {
+    /**
+     * 均匀随机的键, 可能包含少量重复
+     */
+    RANDOM {
+        @Override
+        int[] generate(int n, long seed) {
+            Random random = new Random(seed);
+            int[] keys = new int[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = random.nextInt();
+            }
+            return keys;
+        }
+    },
+
+    /**
+     * 严格升序的键
+     */
+    SORTED {
+        @Override
+        int[] generate(int n, long seed) {
+            int[] keys = new int[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = i;
+            }
+            return keys;
+        }
+    },
+
+    /**
+     * 严格降序的键
+     */
+    REVERSE {
+        @Override
+        int[] generate(int n, long seed) {
+            int[] keys = new int[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = n - i;
+            }
+            return keys;
+        }
+    },
+
+    /**
+     * 近似有序的键: 单调递增的时间戳加上小幅抖动, 每个键最多比它之前的8个键小, 可能包含少量重复
+     */
+    NEAR_SORTED {
+        @Override
+        int[] generate(int n, long seed) {
+            Random random = new Random(seed);
+            int[] keys = new int[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = i * 8 + random.nextInt(64);
+            }
+            return keys;
+        }
+    },
+
+    /**
+     * 服从Zipf分布(倾斜系数0.99)的键, 少数热点键出现的频率远高于其他键
+     * 排名经过散列后再映射为键, 避免热点键在键空间中聚集
+     */
+    ZIPF {
+        @Override
+        int[] generate(int n, long seed) {
+            Random random = new Random(seed);
+            int[] keys = new int[n];
+
+            // Gray et al. "Quickly Generating Billion-Record Synthetic Databases" 中的算法
+            double theta = ZIPF_THETA;
+            double zetaN = zeta(n, theta);
+            double zeta2 = zeta(2, theta);
+            double alpha = 1.0 / (1.0 - theta);
+            double eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetaN);
+
+            for (int i = 0; i < n; i++) {
+                double u = random.nextDouble();
+                double uz = u * zetaN;
+                long rank;
+                if (uz < 1.0) {
+                    rank = 0;
+                } else if (uz < 1.0 + Math.pow(0.5, theta)) {
+                    rank = 1;
+                } else {
+                    rank = (long) (n * Math.pow(eta * u - eta + 1, alpha));
+                }
+                keys[i] = scramble(rank);
+            }
+            return keys;
+        }
+    };
+
+    private static final double ZIPF_THETA = 0.99;
+
+    /**
+     * generate 生成长度为n的键序列
+     * @param n 序列长度
+     * @param seed 随机种子
+     * @return 返回生成的键序列
+     */
+    abstract int[] generate(int n, long seed);
+
+    /**
+     * boxed 生成装箱后的键序列, 装箱发生在计时区间之外
+     * @param n 序列长度
+     * @param seed 随机种子
+     * @return 返回装箱后的键序列
+     */
+    Integer[] boxed(int n, long seed) {
+        int[] keys = generate(n, seed);
+        Integer[] boxed = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            boxed[i] = keys[i];
+        }
+        return boxed;
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+
+    // scramble 使用64位混合函数把排名打散到整个int空间
+    private static int scramble(long rank) {
+        long h = rank * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 29;
+        return (int) h;
+    }
+}
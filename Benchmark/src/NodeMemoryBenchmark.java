@@ -0,0 +1,47 @@
+import java.util.TreeMap;
+
+/**
+ * NodeMemoryBenchmark 测量 TwoThreeTree, RedBlackTree 和 TreeMap 每个元素占用的堆内存
+ * 键值对象在所有树之间共享, 不计入结果, 结果只包含节点本身;
+ * 用 System.gc 前后的已用堆之差测量, 需要固定堆大小以减少误差
+ *
+ * java -Xms8g -Xmx8g -cp out NodeMemoryBenchmark [元素个数, 默认10000000]
+ */
+public class NodeMemoryBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        Integer[] keys = KeyStream.RANDOM.boxed(n, 42L);
+
+        long before = Bench.usedHeap();
+        TwoThreeTree<Integer, Integer> tree23 = new TwoThreeTree<>();
+        for (Integer key : keys) {
+            tree23.add(key, key);
+        }
+        report("TwoThreeTree", before, tree23.size());
+        Bench.sink = tree23.size();
+        tree23 = null;
+
+        before = Bench.usedHeap();
+        RedBlackTree<Integer, Integer> rbt = new RedBlackTree<>();
+        for (Integer key : keys) {
+            rbt.add(key, key);
+        }
+        report("RedBlackTree", before, rbt.size());
+        Bench.sink = rbt.size();
+        rbt = null;
+
+        before = Bench.usedHeap();
+        TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+        for (Integer key : keys) {
+            treeMap.put(key, key);
+        }
+        report("TreeMap", before, treeMap.size());
+        Bench.sink = treeMap.size();
+    }
+
+    private static void report(String name, long before, int size) {
+        long after = Bench.usedHeap();
+        System.out.printf("%-16s %8.1f B/entry  (%d entries)%n", name, (double) (after - before) / size, size);
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * NodeSearchBenchmark 对比 LongBTree 节点内二分查找和向量查找在不同阶数下的 get 延迟
+ * 向量查找需要加载 jdk.incubator.vector 模块, 否则只测量二分查找:
+ *
+ * java --add-modules jdk.incubator.vector -Xms8g -Xmx8g -cp out NodeSearchBenchmark [元素个数, 默认10000000] [阶数, 默认8,16,32,64,128]
+ */
+public class NodeSearchBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        String[] orders = (args.length > 1 ? args[1] : "8,16,32,64,128").split(",");
+
+        long[] keys = new long[n];
+        long[] probes = new long[n];
+        int[] ints = KeyStream.RANDOM.generate(n, 42L);
+        int[] misses = KeyStream.RANDOM.generate(n, 7L);
+        for (int i = 0; i < n; i++) {
+            keys[i] = ints[i] * 1_000L;
+            // 一半命中已有的键, 一半几乎一定不存在
+            probes[i] = i % 2 == 0 ? keys[(int) ((i * 2654435761L) % n)] : misses[i] * 1_000L + 1;
+        }
+
+        if (!LongBTree.vectorAvailable()) {
+            System.out.println("jdk.incubator.vector is not available, measuring binary search only");
+        }
+
+        Bench bench = new Bench(2, 5);
+        for (String value : orders) {
+            int order = Integer.parseInt(value);
+            measure(bench, keys, probes, order, false);
+            if (LongBTree.vectorAvailable()) {
+                measure(bench, keys, probes, order, true);
+            }
+        }
+    }
+
+    private static void measure(Bench bench, long[] keys, long[] probes, int order, boolean vectorized) {
+        LongBTree<Long> tree = new LongBTree<>(order, vectorized);
+        for (long key : keys) {
+            tree.add(key, key);
+        }
+        String name = "LongBTree.get " + (vectorized ? "vector" : "scalar") + " order=" + order + " n=" + keys.length;
+        System.out.println(bench.measure(name, () -> {
+            long hits = 0;
+            for (long probe : probes) {
+                if (tree.containsKey(probe)) {
+                    hits++;
+                }
+            }
+            Bench.sink = hits;
+            return probes.length;
+        }));
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * OrderStatisticBenchmark 对比 RedBlackTree.select 和按序遍历求百分位数的耗时
+ * 每次查询随机取一个百分位, select 只做一次对数深度的下降, 遍历需要走到对应的位置
+ *
+ * java -Xms8g -Xmx8g -cp out OrderStatisticBenchmark [元素个数, 默认10000000] [查询次数, 默认1000000]
+ */
+public class OrderStatisticBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+        Integer[] keys = KeyStream.SORTED.boxed(n, 42L);
+        RedBlackTree<Integer, Integer> tree = RedBlackTree.fromSorted(keys, keys, true);
+        int[] indexes = KeyStream.RANDOM.generate(queries, 7L);
+        for (int i = 0; i < queries; i++) {
+            indexes[i] = Math.floorMod(indexes[i], n);
+        }
+
+        Bench bench = new Bench(3, 5);
+        System.out.println(bench.measure("RedBlackTree.select n=" + n, () -> {
+            long sum = 0;
+            for (int index : indexes) {
+                sum += tree.select(index);
+            }
+            Bench.sink = sum;
+            return indexes.length;
+        }));
+        System.out.println(bench.measure("RedBlackTree.rank n=" + n, () -> {
+            long sum = 0;
+            for (int index : indexes) {
+                sum += tree.rank(index);
+            }
+            Bench.sink = sum;
+            return indexes.length;
+        }));
+
+        // 线性遍历太慢, 只测量p99这一个查询
+        int p99 = (int) (n * 0.99);
+        RedBlackTree<Integer, Integer>.Cursor cursor = tree.cursor();
+        System.out.println(bench.measure("Cursor scan to p99 n=" + n, () -> {
+            int position = 0;
+            for (cursor.seek(Integer.MIN_VALUE, Integer.MAX_VALUE); cursor.next(); position++) {
+                if (position == p99) {
+                    Bench.sink = cursor.key();
+                    break;
+                }
+            }
+            return 1;
+        }));
+    }
+}
@@ -0,0 +1,31 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * ParallelBuildBenchmark 测量 RedBlackTree.parallelBuild 在1到32个线程下的构造耗时
+ * parallelBuild 在调用方所在的ForkJoinPool中执行, 所以每个线程数使用一个单独的线程池
+ * Arrays.parallelSort 根据公共线程池的并行度决定是否并行, 运行时需要把公共线程池的并行度设为最大线程数:
+ *
+ * java -Xms24g -Xmx24g -Djava.util.concurrent.ForkJoinPool.common.parallelism=32 -cp out ParallelBuildBenchmark [元素个数, 默认50000000]
+ */
+public class ParallelBuildBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 50_000_000;
+        Integer[] keys = KeyStream.RANDOM.boxed(n, 42L);
+        Bench bench = new Bench(1, 3);
+
+        for (int threads = 1; threads <= 32; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                System.out.println(bench.measure("RedBlackTree.parallelBuild threads=" + threads + " n=" + n,
+                        () -> {
+                            Bench.sink = pool.invoke(ForkJoinTask.adapt(() -> RedBlackTree.parallelBuild(keys, keys))).size();
+                            return keys.length;
+                        }));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+}
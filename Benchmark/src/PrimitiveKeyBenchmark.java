@@ -0,0 +1,101 @@
+import java.util.TreeMap;
+
+/**
+ * PrimitiveKeyBenchmark 对比装箱键的 RedBlackTree/TreeMap 和 long 键的 LongRedBlackTree/LongLongRedBlackTree
+ * 报告插入和查找的吞吐量, 每次操作的分配量以及每个元素占用的堆内存
+ *
+ * java -Xms8g -Xmx8g -cp out PrimitiveKeyBenchmark [元素个数, 默认1000000]
+ */
+public class PrimitiveKeyBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long[] keys = new long[n];
+        int[] ints = KeyStream.RANDOM.generate(n, 42L);
+        for (int i = 0; i < n; i++) {
+            keys[i] = ints[i] * 1_000L;
+        }
+
+        Bench bench = new Bench(3, 5);
+
+        System.out.println(bench.measure("RedBlackTree<Long, Long>.add n=" + n, () -> {
+            RedBlackTree<Long, Long> tree = new RedBlackTree<>();
+            for (long key : keys) {
+                tree.add(key, key);
+            }
+            Bench.sink = tree.size();
+            return keys.length;
+        }));
+        System.out.println(bench.measure("LongLongRedBlackTree.add n=" + n, () -> {
+            LongLongRedBlackTree tree = new LongLongRedBlackTree();
+            for (long key : keys) {
+                tree.add(key, key);
+            }
+            Bench.sink = tree.size();
+            return keys.length;
+        }));
+
+        TreeMap<Long, Long> treeMap = new TreeMap<>();
+        LongLongRedBlackTree longs = new LongLongRedBlackTree();
+        for (long key : keys) {
+            treeMap.put(key, key);
+            longs.add(key, key);
+        }
+        System.out.println(bench.measure("TreeMap<Long, Long>.get n=" + n, () -> {
+            long sum = 0;
+            for (long key : keys) {
+                sum += treeMap.get(key);
+            }
+            Bench.sink = sum;
+            return keys.length;
+        }));
+        System.out.println(bench.measure("LongLongRedBlackTree.get n=" + n, () -> {
+            long sum = 0;
+            for (long key : keys) {
+                sum += longs.get(key, 0);
+            }
+            Bench.sink = sum;
+            return keys.length;
+        }));
+
+        System.out.printf("RedBlackTree<Long, Long>   %8.1f B/entry%n", retained(keys, PrimitiveKeyBenchmark::boxed));
+        System.out.printf("LongRedBlackTree<Long>     %8.1f B/entry%n", retained(keys, PrimitiveKeyBenchmark::longKeys));
+        System.out.printf("LongLongRedBlackTree       %8.1f B/entry%n", retained(keys, PrimitiveKeyBenchmark::longLong));
+    }
+
+    private interface Builder {
+        Object build(long[] keys);
+    }
+
+    private static double retained(long[] keys, Builder builder) {
+        long before = Bench.usedHeap();
+        Object tree = builder.build(keys);
+        long after = Bench.usedHeap();
+        Bench.sink = tree.hashCode();
+        return (double) (after - before) / keys.length;
+    }
+
+    private static Object boxed(long[] keys) {
+        RedBlackTree<Long, Long> tree = new RedBlackTree<>();
+        for (long key : keys) {
+            tree.add(key, key);
+        }
+        return tree;
+    }
+
+    private static Object longKeys(long[] keys) {
+        LongRedBlackTree<Long> tree = new LongRedBlackTree<>();
+        for (long key : keys) {
+            tree.add(key, key);
+        }
+        return tree;
+    }
+
+    private static Object longLong(long[] keys) {
+        LongLongRedBlackTree tree = new LongLongRedBlackTree();
+        for (long key : keys) {
+            tree.add(key, key);
+        }
+        return tree;
+    }
+}
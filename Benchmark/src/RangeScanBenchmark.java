@@ -0,0 +1,56 @@
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * RangeScanBenchmark 对比 RedBlackTree.Cursor 和 TreeMap.subMap 扫描时间窗口的耗时和分配量
+ * 每次扫描从随机位置开始, 覆盖约window个键
+ *
+ * java -Xms8g -Xmx8g -cp out RangeScanBenchmark [元素个数, 默认1000000] [窗口大小, 默认100]
+ */
+public class RangeScanBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int window = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int scans = Math.max(1, 10_000_000 / window);
+
+        Integer[] keys = KeyStream.SORTED.boxed(n, 42L);
+        Integer[] starts = KeyStream.RANDOM.boxed(scans, 7L);
+        for (int i = 0; i < scans; i++) {
+            starts[i] = Math.floorMod(starts[i], n);
+        }
+
+        RedBlackTree<Integer, Integer> tree = RedBlackTree.fromSorted(keys, keys);
+        TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+        for (Integer key : keys) {
+            treeMap.put(key, key);
+        }
+
+        Bench bench = new Bench(3, 5);
+        RedBlackTree<Integer, Integer>.Cursor cursor = tree.cursor();
+        System.out.println(bench.measure("RedBlackTree.Cursor window=" + window + " n=" + n, () -> {
+            long sum = 0;
+            long visited = 0;
+            for (Integer start : starts) {
+                for (cursor.seek(start, start + window); cursor.next(); ) {
+                    sum += cursor.value();
+                    visited++;
+                }
+            }
+            Bench.sink = sum;
+            return visited;
+        }));
+        System.out.println(bench.measure("TreeMap.subMap window=" + window + " n=" + n, () -> {
+            long sum = 0;
+            long visited = 0;
+            for (Integer start : starts) {
+                for (Map.Entry<Integer, Integer> entry : treeMap.subMap(start, start + window).entrySet()) {
+                    sum += entry.getValue();
+                    visited++;
+                }
+            }
+            Bench.sink = sum;
+            return visited;
+        }));
+    }
+}
@@ -0,0 +1,80 @@
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BinaryOperator;
+
+/**
+ * SetOperationBenchmark 测量 RedBlackTree 基于 join 的 union/intersection/difference 在不同并行度下的耗时,
+ * 对照组是把较小的树的元素逐个 add 到较大的树中
+ * 两棵树的键在同一个范围内均匀随机, 约有一半重叠; 集合操作会消耗输入, 每一轮都用 fromSorted 重新构造(不计时)
+ *
+ * java -Xms8g -Xmx8g -cp out SetOperationBenchmark [较大的树的元素个数, 默认20000000] [较小的树的元素个数, 默认5000000]
+ */
+public class SetOperationBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 20_000_000;
+        int m = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+        Integer[] large = sortedUnique(KeyStream.RANDOM.generate(n, 42L), n);
+        Integer[] small = sortedUnique(KeyStream.RANDOM.generate(m, 7L), n);
+
+        long addNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            RedBlackTree<Integer, Integer> tree = RedBlackTree.fromSorted(large, large);
+            long start = System.nanoTime();
+            for (Integer key : small) {
+                tree.add(key, key);
+            }
+            addNanos += System.nanoTime() - start;
+            Bench.sink = tree.size();
+        }
+        report("add " + small.length + " into " + large.length, addNanos);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int parallelism = 1; parallelism <= cores; parallelism *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            run(pool, "union parallelism=" + parallelism, large, small, RedBlackTree::union);
+            run(pool, "intersection parallelism=" + parallelism, large, small, RedBlackTree::intersection);
+            run(pool, "difference parallelism=" + parallelism, large, small, RedBlackTree::difference);
+            pool.shutdown();
+        }
+    }
+
+    private static void run(ForkJoinPool pool, String name, Integer[] large, Integer[] small,
+                            BinaryOperator<RedBlackTree<Integer, Integer>> operation)
+            throws InterruptedException, ExecutionException {
+        long nanos = 0;
+        for (int round = 0; round < ROUNDS + 1; round++) {
+            RedBlackTree<Integer, Integer> a = RedBlackTree.fromSorted(large, large);
+            RedBlackTree<Integer, Integer> b = RedBlackTree.fromSorted(small, small);
+            long start = System.nanoTime();
+            // 在池的工作线程中调用, 集合操作拆分出的子任务都在这个池中执行
+            RedBlackTree<Integer, Integer> result = pool.submit(() -> operation.apply(a, b)).get();
+            long elapsed = System.nanoTime() - start;
+            if (round > 0) {
+                nanos += elapsed;
+            }
+            Bench.sink = result.size();
+        }
+        report(name, nanos);
+    }
+
+    private static void report(String name, long nanos) {
+        System.out.printf("%-48s %10.1f ms%n", name, nanos / 1e6 / ROUNDS);
+    }
+
+    // sortedUnique 把随机数映射到 [0, range) 并排序去重
+    private static Integer[] sortedUnique(int[] random, int range) {
+        int[] keys = new int[random.length];
+        for (int i = 0; i < random.length; i++) {
+            keys[i] = Math.floorMod(random[i], range);
+        }
+        int[] unique = Arrays.stream(keys).sorted().distinct().toArray();
+        Integer[] boxed = new Integer[unique.length];
+        for (int i = 0; i < unique.length; i++) {
+            boxed[i] = unique[i];
+        }
+        return boxed;
+    }
+}
@@ -0,0 +1,72 @@
+import java.util.TreeMap;
+
+/**
+ * SlidingWindowBenchmark 模拟按时间戳索引的滑动窗口: 每个事件插入一个新键并删除窗口外最老的键
+ * 窗口填满后树的大小保持不变, 报告稳态下每个事件(一次插入加一次删除)的耗时和分配量
+ *
+ * java -Xms8g -Xmx8g -cp out SlidingWindowBenchmark [窗口大小, 默认1000000] [事件个数, 默认10000000]
+ */
+public class SlidingWindowBenchmark {
+
+    public static void main(String[] args) {
+        int window = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int events = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;
+
+        // 时间戳递增, 低位加入随机抖动让事件不是严格按顺序到达
+        Integer[] keys = new Integer[window + events];
+        int[] jitter = KeyStream.RANDOM.generate(keys.length, 42L);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i * 16 + Math.floorMod(jitter[i], 16);
+        }
+
+        Bench bench = new Bench(1, 3);
+        System.out.println(bench.measure("RedBlackTree remove+add window=" + window, () -> {
+            RedBlackTree<Integer, Integer> tree = new RedBlackTree<>();
+            for (int i = 0; i < window; i++) {
+                tree.add(keys[i], keys[i]);
+            }
+            for (int i = window; i < keys.length; i++) {
+                tree.remove(keys[i - window]);
+                tree.add(keys[i], keys[i]);
+            }
+            Bench.sink = tree.size();
+            return events;
+        }));
+        System.out.println(bench.measure("RedBlackTree pollFirst+add window=" + window, () -> {
+            RedBlackTree<Integer, Integer> tree = new RedBlackTree<>();
+            for (int i = 0; i < window; i++) {
+                tree.add(keys[i], keys[i]);
+            }
+            for (int i = window; i < keys.length; i++) {
+                tree.removeMin();
+                tree.add(keys[i], keys[i]);
+            }
+            Bench.sink = tree.size();
+            return events;
+        }));
+        System.out.println(bench.measure("TwoThreeTree remove+add window=" + window, () -> {
+            TwoThreeTree<Integer, Integer> tree = new TwoThreeTree<>();
+            for (int i = 0; i < window; i++) {
+                tree.add(keys[i], keys[i]);
+            }
+            for (int i = window; i < keys.length; i++) {
+                tree.remove(keys[i - window]);
+                tree.add(keys[i], keys[i]);
+            }
+            Bench.sink = tree.size();
+            return events;
+        }));
+        System.out.println(bench.measure("TreeMap remove+put window=" + window, () -> {
+            TreeMap<Integer, Integer> tree = new TreeMap<>();
+            for (int i = 0; i < window; i++) {
+                tree.put(keys[i], keys[i]);
+            }
+            for (int i = window; i < keys.length; i++) {
+                tree.remove(keys[i - window]);
+                tree.put(keys[i], keys[i]);
+            }
+            Bench.sink = tree.size();
+            return events;
+        }));
+    }
+}
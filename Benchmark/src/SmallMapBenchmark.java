@@ -0,0 +1,104 @@
+import java.util.TreeMap;
+
+/**
+ * SmallMapBenchmark 测量大量小映射(每个映射只有几个到几十个元素)时 HybridOrderedMap, RedBlackTree,
+ * TwoThreeTree 和 TreeMap 每个映射占用的堆内存, 以及在这些映射中查找的吞吐量
+ * 键值对象在所有映射之间共享, 不计入结果
+ *
+ * java -Xms8g -Xmx8g -cp out SmallMapBenchmark [映射个数, 默认1000000] [每个映射的元素个数, 默认16]
+ */
+public class SmallMapBenchmark {
+
+    private interface Lookup {
+        Object get(int map, Integer key);
+    }
+
+    public static void main(String[] args) {
+        int maps = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int entries = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        Integer[] keys = KeyStream.RANDOM.boxed(entries, 42L);
+        Integer[] probes = KeyStream.RANDOM.boxed(maps, 7L);
+        for (int i = 0; i < maps; i++) {
+            probes[i] = keys[Math.floorMod(probes[i], entries)];
+        }
+        Bench bench = new Bench(3, 5);
+
+        long before = Bench.usedHeap();
+        @SuppressWarnings("unchecked")
+        HybridOrderedMap<Integer, Integer>[] hybrid = (HybridOrderedMap<Integer, Integer>[]) new HybridOrderedMap[maps];
+        for (int m = 0; m < maps; m++) {
+            hybrid[m] = new HybridOrderedMap<>();
+            for (Integer key : keys) {
+                hybrid[m].add(key, key);
+            }
+        }
+        report("HybridOrderedMap", before, maps, entries);
+        System.out.println(measure(bench, "HybridOrderedMap.get", probes, (m, key) -> hybrid[m].get(key)));
+        Bench.sink = hybrid.length;
+        for (int m = 0; m < maps; m++) {
+            hybrid[m] = null;
+        }
+
+        before = Bench.usedHeap();
+        @SuppressWarnings("unchecked")
+        RedBlackTree<Integer, Integer>[] rbt = (RedBlackTree<Integer, Integer>[]) new RedBlackTree[maps];
+        for (int m = 0; m < maps; m++) {
+            rbt[m] = new RedBlackTree<>();
+            for (Integer key : keys) {
+                rbt[m].add(key, key);
+            }
+        }
+        report("RedBlackTree", before, maps, entries);
+        System.out.println(measure(bench, "RedBlackTree.get", probes, (m, key) -> rbt[m].get(key)));
+        for (int m = 0; m < maps; m++) {
+            rbt[m] = null;
+        }
+
+        before = Bench.usedHeap();
+        @SuppressWarnings("unchecked")
+        TwoThreeTree<Integer, Integer>[] tree23 = (TwoThreeTree<Integer, Integer>[]) new TwoThreeTree[maps];
+        for (int m = 0; m < maps; m++) {
+            tree23[m] = new TwoThreeTree<>();
+            for (Integer key : keys) {
+                tree23[m].add(key, key);
+            }
+        }
+        report("TwoThreeTree", before, maps, entries);
+        System.out.println(measure(bench, "TwoThreeTree.get", probes, (m, key) -> tree23[m].get(key)));
+        for (int m = 0; m < maps; m++) {
+            tree23[m] = null;
+        }
+
+        before = Bench.usedHeap();
+        @SuppressWarnings("unchecked")
+        TreeMap<Integer, Integer>[] treeMaps = (TreeMap<Integer, Integer>[]) new TreeMap[maps];
+        for (int m = 0; m < maps; m++) {
+            treeMaps[m] = new TreeMap<>();
+            for (Integer key : keys) {
+                treeMaps[m].put(key, key);
+            }
+        }
+        report("TreeMap", before, maps, entries);
+        System.out.println(measure(bench, "TreeMap.get", probes, (m, key) -> treeMaps[m].get(key)));
+    }
+
+    // measure 在第i个映射中查找第i个探测键
+    private static Bench.Result measure(Bench bench, String name, Integer[] probes, Lookup lookup) {
+        return bench.measure(name, () -> {
+            long hits = 0;
+            for (int m = 0; m < probes.length; m++) {
+                if (lookup.get(m, probes[m]) != null) {
+                    hits++;
+                }
+            }
+            Bench.sink = hits;
+            return probes.length;
+        });
+    }
+
+    private static void report(String name, long before, int maps, int entries) {
+        long after = Bench.usedHeap();
+        System.out.printf("%-16s %8.1f B/map  %6.1f B/entry  (%d maps x %d entries)%n",
+                name, (double) (after - before) / maps, (double) (after - before) / maps / entries, maps, entries);
+    }
+}
@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * SnapshotBenchmark 测量 RedBlackTree/TwoThreeTree 写出和读取二进制快照的耗时, 以及快照每个元素占用的字节数
+ * 键是带抖动的递增整数(SORTED_INT差分编码), 值是随机整数; 快照写在临时文件中, 读取时文件在页缓存里
+ * 对照组是用 add 逐个插入同样的元素
+ *
+ * java -Xms8g -Xmx8g -cp out SnapshotBenchmark [元素个数, 默认10000000]
+ */
+public class SnapshotBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        Integer[] keys = KeyStream.SORTED.boxed(n, 42L);
+        int[] gaps = KeyStream.RANDOM.generate(n, 42L);
+        for (int i = 1; i < n; i++) {
+            keys[i] = keys[i - 1] + 1 + Math.floorMod(gaps[i], 16);
+        }
+        Integer[] values = KeyStream.RANDOM.boxed(n, 7L);
+
+        Path file = Files.createTempFile("tree", ".snapshot");
+        try {
+            Bench bench = new Bench(2, 5);
+
+            RedBlackTree<Integer, Integer> rbt = RedBlackTree.fromSorted(keys, values);
+            System.out.println(bench.measure("RedBlackTree.writeTo n=" + n, () -> {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    rbt.writeTo(channel, SnapshotCodecs.SORTED_INT, SnapshotCodecs.INT);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return n;
+            }));
+            System.out.printf("snapshot %.2f B/entry%n", (double) Files.size(file) / n);
+
+            System.out.println(bench.measure("RedBlackTree.readFrom n=" + n, () -> {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    Bench.sink = RedBlackTree.readFrom(channel, SnapshotCodecs.SORTED_INT, SnapshotCodecs.INT).size();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return n;
+            }));
+            System.out.println(bench.measure("RedBlackTree.add n=" + n, () -> {
+                RedBlackTree<Integer, Integer> tree = new RedBlackTree<>();
+                for (int i = 0; i < n; i++) {
+                    tree.add(keys[i], values[i]);
+                }
+                Bench.sink = tree.size();
+                return n;
+            }));
+
+            System.out.println(bench.measure("TwoThreeTree.readFrom n=" + n, () -> {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    Bench.sink = TwoThreeTree.readFrom(channel, SnapshotCodecs.SORTED_INT, SnapshotCodecs.INT).size();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return n;
+            }));
+            System.out.println(bench.measure("TwoThreeTree.add n=" + n, () -> {
+                TwoThreeTree<Integer, Integer> tree = new TwoThreeTree<>();
+                for (int i = 0; i < n; i++) {
+                    tree.add(keys[i], values[i]);
+                }
+                Bench.sink = tree.size();
+                return n;
+            }));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
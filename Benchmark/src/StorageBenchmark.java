@@ -0,0 +1,57 @@
+/**
+ * StorageBenchmark 对比节点对象存储的 RedBlackTree 和并行数组存储的 ArrayRedBlackTree
+ * 报告插入吞吐量, 每个元素占用的堆内存, 以及树存活时一次 Full GC 的耗时
+ *
+ * java -Xms8g -Xmx8g -cp out StorageBenchmark [元素个数, 默认10000000]
+ */
+public class StorageBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        Integer[] keys = KeyStream.RANDOM.boxed(n, 42L);
+        Bench bench = new Bench(2, 3);
+
+        System.out.println(bench.measure("RedBlackTree.add n=" + n, () -> {
+            RedBlackTree<Integer, Integer> tree = new RedBlackTree<>();
+            for (Integer key : keys) {
+                tree.add(key, key);
+            }
+            Bench.sink = tree.size();
+            return keys.length;
+        }));
+        System.out.println(bench.measure("ArrayRedBlackTree.add n=" + n, () -> {
+            ArrayRedBlackTree<Integer, Integer> tree = new ArrayRedBlackTree<>();
+            for (Integer key : keys) {
+                tree.add(key, key);
+            }
+            Bench.sink = tree.size();
+            return keys.length;
+        }));
+
+        long before = Bench.usedHeap();
+        RedBlackTree<Integer, Integer> nodes = new RedBlackTree<>();
+        for (Integer key : keys) {
+            nodes.add(key, key);
+        }
+        report("RedBlackTree", before, n);
+        Bench.sink = nodes.size();
+        nodes = null;
+
+        before = Bench.usedHeap();
+        ArrayRedBlackTree<Integer, Integer> arrays = new ArrayRedBlackTree<>(n);
+        for (Integer key : keys) {
+            arrays.add(key, key);
+        }
+        report("ArrayRedBlackTree", before, n);
+        Bench.sink = arrays.size();
+    }
+
+    // report 输出树的常驻内存(不含键值对象, 它们在两种存储中相同)和树存活时的 Full GC 耗时
+    private static void report(String name, long before, int n) {
+        long start = System.nanoTime();
+        long after = Bench.usedHeap();
+        long gcNanos = (System.nanoTime() - start) / 5;
+        System.out.printf("%-20s %8.1f B/entry  full gc %8.1f ms%n",
+                name, (double) (after - before) / n, gcNanos / 1e6);
+    }
+}
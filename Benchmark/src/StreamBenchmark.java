@@ -0,0 +1,87 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * StreamBenchmark 测量 RedBlackTree 和 TwoThreeTree 的 stream/parallelStream 对所有值求和的耗时
+ * 对照组是 forEach, 以及先把所有元素复制到数组再用 Arrays.stream 并行求和; 并行流在不同并行度的 ForkJoinPool 中执行
+ * 两棵树的流共用 JDK 中流水线的类, 先测量的树会污染JIT的类型profile, 比较两棵树时每次只测量一棵
+ *
+ * java -Xms16g -Xmx16g -cp out StreamBenchmark [元素个数, 默认50000000] [RedBlackTree|TwoThreeTree, 默认两棵都测量]
+ */
+public class StreamBenchmark {
+    // 从顺序流切换到并行流后JIT要重新编译几次才稳定, 预热的轮数比其他基准测试多
+    private static final int WARMUP = 10;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 50_000_000;
+        String only = args.length > 1 ? args[1] : null;
+        Integer[] keys = KeyStream.SORTED.boxed(n, 42L);
+
+        if (only == null || only.equals("RedBlackTree")) {
+            RedBlackTree<Integer, Integer> tree = RedBlackTree.fromSorted(keys, keys);
+            run("RedBlackTree", tree::forEach, tree::stream, tree::parallelStream, n);
+        }
+        if (only == null || only.equals("TwoThreeTree")) {
+            TwoThreeTree<Integer, Integer> tree = TwoThreeTree.fromSorted(keys, keys);
+            run("TwoThreeTree", tree::forEach, tree::stream, tree::parallelStream, n);
+        }
+    }
+
+    private static void run(String name, Consumer<BiConsumer<Integer, Integer>> forEach, Supplier<Stream<Map.Entry<Integer, Integer>>> stream,
+                            Supplier<Stream<Map.Entry<Integer, Integer>>> parallelStream, int n) {
+        report(name + ".forEach", n, () -> {
+            long[] sum = new long[1];
+            forEach.accept((k, v) -> sum[0] += v);
+            return sum[0];
+        });
+        report(name + ".stream", n, () -> stream.get().mapToLong(Map.Entry::getValue).sum());
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int parallelism = 1; parallelism <= cores; parallelism *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            // 在池的工作线程中启动并行流, 拆分出的任务都在这个池中执行
+            report(name + ".parallelStream parallelism=" + parallelism, n, () -> submit(pool,
+                    () -> parallelStream.get().mapToLong(Map.Entry::getValue).sum()));
+            report(name + " copy + Arrays.stream parallelism=" + parallelism, n, () -> submit(pool, () -> {
+                Integer[] values = new Integer[n];
+                int[] count = new int[1];
+                forEach.accept((k, v) -> values[count[0]++] = v);
+                return Arrays.stream(values).parallel().mapToLong(Integer::longValue).sum();
+            }));
+            pool.shutdown();
+        }
+    }
+
+    private static long submit(ForkJoinPool pool, Supplier<Long> task) {
+        try {
+            return pool.submit(task::get).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // report 预热WARMUP轮后测量ROUNDS轮, 报告平均耗时
+    private static void report(String name, int n, Supplier<Long> sum) {
+        long nanos = 0;
+        for (int round = 0; round < WARMUP + ROUNDS; round++) {
+            long start = System.nanoTime();
+            Bench.sink = sum.get();
+            long elapsed = System.nanoTime() - start;
+            if (round >= WARMUP) {
+                nanos += elapsed;
+            }
+        }
+        double millis = nanos / 1e6 / ROUNDS;
+        System.out.println(String.format("%-56s %10.1f ms %10.2f ns/entry", name + " n=" + n, millis, millis * 1e6 / n));
+    }
+}
@@ -0,0 +1,299 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * TreeBenchmark 以 java.util.TreeMap 为基准, 测量 RedBlackTree 和 TwoThreeTree 的 add/get/size/remove
+ * 基于 Bench, 不依赖JMH; JMH版本见 jmh/treebench/TreeJmhBenchmark
+ *
+ * 编译和运行(在仓库根目录):
+ * javac -encoding UTF-8 --add-modules jdk.incubator.vector -d out TreeStats/src/*.java TreeSnapshot/src/*.java RedBlackTree/src/*.java TwoThreeTree/src/*.java BTree/src/*.java DurableStore/src/*.java Benchmark/src/*.java
+ * java -Xms8g -Xmx8g -cp out TreeBenchmark sizes=1000,1000000 streams=random,zipf ops=add,get
+ *
+ * 参数(均可省略):
+ * sizes      元素个数, 默认 1000,10000,100000,1000000,10000000
+ * streams    键序列, random/sorted/reverse/zipf, 默认全部
+ * ops        操作, add/get/size/remove, 默认全部
+ *            remove 先插入全部键再按同样的顺序删除, 插入和删除都计入操作次数, 与 add 的结果对比得到删除的开销
+ * warmup     预热轮数, 默认 3
+ * iterations 测量轮数, 默认 5
+ */
+public class TreeBenchmark {
+
+    // 小规模的测试在一轮中重复多次, 保证每轮至少执行这么多次操作
+    private static final int MIN_OPS_PER_ITERATION = 1_000_000;
+
+    private static final long SEED = 42L;
+
+    // size 测试每次都通过 volatile 读取树, 防止JIT把 size() 提到循环外
+    private static volatile Object target;
+
+    public static void main(String[] args) {
+        Options options = Options.parse(args);
+        Bench bench = new Bench(options.warmup, options.iterations);
+
+        for (int n : options.sizes) {
+            for (KeyStream stream : options.streams) {
+                Integer[] keys = stream.boxed(n, SEED);
+                Integer[] probes = KeyStream.RANDOM.boxed(n, SEED);
+                mixProbes(keys, probes);
+
+                for (String op : options.ops) {
+                    String suffix = op + " " + stream.name().toLowerCase() + " n=" + n;
+                    switch (op) {
+                        case "add":
+                            report(bench.measure("RedBlackTree." + suffix, () -> addRedBlackTree(keys)));
+                            report(bench.measure("TwoThreeTree." + suffix, () -> addTwoThreeTree(keys)));
+                            report(bench.measure("TreeMap." + suffix, () -> addTreeMap(keys)));
+                            break;
+                        case "get": {
+                            TwoThreeTree<Integer, Integer> tree23 = buildTwoThreeTree(keys);
+                            TreeMap<Integer, Integer> treeMap = buildTreeMap(keys);
+                            report(bench.measure("TwoThreeTree." + suffix, () -> getTwoThreeTree(tree23, probes)));
+                            report(bench.measure("TreeMap." + suffix, () -> getTreeMap(treeMap, probes)));
+                            break;
+                        }
+                        case "size": {
+                            RedBlackTree<Integer, Integer> rbt = buildRedBlackTree(keys);
+                            TwoThreeTree<Integer, Integer> tree23 = buildTwoThreeTree(keys);
+                            TreeMap<Integer, Integer> treeMap = buildTreeMap(keys);
+                            report(bench.measure("RedBlackTree." + suffix, () -> sizeRedBlackTree(rbt)));
+                            report(bench.measure("TwoThreeTree." + suffix, () -> sizeTwoThreeTree(tree23)));
+                            report(bench.measure("TreeMap." + suffix, () -> sizeTreeMap(treeMap)));
+                            break;
+                        }
+                        case "remove":
+                            report(bench.measure("RedBlackTree." + suffix, () -> removeRedBlackTree(keys)));
+                            report(bench.measure("TwoThreeTree." + suffix, () -> removeTwoThreeTree(keys)));
+                            report(bench.measure("TreeMap." + suffix, () -> removeTreeMap(keys)));
+                            break;
+                        default:
+                            throw new IllegalArgumentException("unknown op: " + op);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void report(Bench.Result result) {
+        System.out.println(result);
+    }
+
+    // mixProbes 查询序列一半命中已有的键, 一半是随机键
+    private static void mixProbes(Integer[] keys, Integer[] probes) {
+        for (int i = 0; i < probes.length; i += 2) {
+            probes[i] = keys[(int) ((i * 2654435761L) % keys.length)];
+        }
+    }
+
+    private static int repeats(int n) {
+        return Math.max(1, MIN_OPS_PER_ITERATION / n);
+    }
+
+    private static long addRedBlackTree(Integer[] keys) {
+        int repeats = repeats(keys.length);
+        long size = 0;
+        for (int r = 0; r < repeats; r++) {
+            size += buildRedBlackTree(keys).size();
+        }
+        Bench.sink = size;
+        return (long) repeats * keys.length;
+    }
+
+    private static long addTwoThreeTree(Integer[] keys) {
+        int repeats = repeats(keys.length);
+        long size = 0;
+        for (int r = 0; r < repeats; r++) {
+            size += buildTwoThreeTree(keys).size();
+        }
+        Bench.sink = size;
+        return (long) repeats * keys.length;
+    }
+
+    private static long addTreeMap(Integer[] keys) {
+        int repeats = repeats(keys.length);
+        long size = 0;
+        for (int r = 0; r < repeats; r++) {
+            size += buildTreeMap(keys).size();
+        }
+        Bench.sink = size;
+        return (long) repeats * keys.length;
+    }
+
+    private static long removeRedBlackTree(Integer[] keys) {
+        int repeats = repeats(keys.length);
+        long size = 0;
+        for (int r = 0; r < repeats; r++) {
+            RedBlackTree<Integer, Integer> tree = buildRedBlackTree(keys);
+            for (Integer key : keys) {
+                tree.remove(key);
+            }
+            size += tree.size();
+        }
+        Bench.sink = size;
+        return 2L * repeats * keys.length;
+    }
+
+    private static long removeTwoThreeTree(Integer[] keys) {
+        int repeats = repeats(keys.length);
+        long size = 0;
+        for (int r = 0; r < repeats; r++) {
+            TwoThreeTree<Integer, Integer> tree = buildTwoThreeTree(keys);
+            for (Integer key : keys) {
+                tree.remove(key);
+            }
+            size += tree.size();
+        }
+        Bench.sink = size;
+        return 2L * repeats * keys.length;
+    }
+
+    private static long removeTreeMap(Integer[] keys) {
+        int repeats = repeats(keys.length);
+        long size = 0;
+        for (int r = 0; r < repeats; r++) {
+            TreeMap<Integer, Integer> tree = buildTreeMap(keys);
+            for (Integer key : keys) {
+                tree.remove(key);
+            }
+            size += tree.size();
+        }
+        Bench.sink = size;
+        return 2L * repeats * keys.length;
+    }
+
+    private static long getTwoThreeTree(TwoThreeTree<Integer, Integer> tree, Integer[] probes) {
+        int repeats = repeats(probes.length);
+        long hits = 0;
+        for (int r = 0; r < repeats; r++) {
+            for (Integer probe : probes) {
+                if (tree.get(probe) != null) {
+                    hits++;
+                }
+            }
+        }
+        Bench.sink = hits;
+        return (long) repeats * probes.length;
+    }
+
+    private static long getTreeMap(TreeMap<Integer, Integer> tree, Integer[] probes) {
+        int repeats = repeats(probes.length);
+        long hits = 0;
+        for (int r = 0; r < repeats; r++) {
+            for (Integer probe : probes) {
+                if (tree.get(probe) != null) {
+                    hits++;
+                }
+            }
+        }
+        Bench.sink = hits;
+        return (long) repeats * probes.length;
+    }
+
+    private static long sizeRedBlackTree(RedBlackTree<Integer, Integer> tree) {
+        target = tree;
+        long sum = 0;
+        for (int i = 0; i < MIN_OPS_PER_ITERATION; i++) {
+            sum += ((RedBlackTree<?, ?>) target).size();
+        }
+        Bench.sink = sum;
+        return MIN_OPS_PER_ITERATION;
+    }
+
+    private static long sizeTwoThreeTree(TwoThreeTree<Integer, Integer> tree) {
+        target = tree;
+        long sum = 0;
+        for (int i = 0; i < MIN_OPS_PER_ITERATION; i++) {
+            sum += ((TwoThreeTree<?, ?>) target).size();
+        }
+        Bench.sink = sum;
+        return MIN_OPS_PER_ITERATION;
+    }
+
+    private static long sizeTreeMap(TreeMap<Integer, Integer> tree) {
+        target = tree;
+        long sum = 0;
+        for (int i = 0; i < MIN_OPS_PER_ITERATION; i++) {
+            sum += ((TreeMap<?, ?>) target).size();
+        }
+        Bench.sink = sum;
+        return MIN_OPS_PER_ITERATION;
+    }
+
+    private static RedBlackTree<Integer, Integer> buildRedBlackTree(Integer[] keys) {
+        RedBlackTree<Integer, Integer> tree = new RedBlackTree<>();
+        for (Integer key : keys) {
+            tree.add(key, key);
+        }
+        return tree;
+    }
+
+    private static TwoThreeTree<Integer, Integer> buildTwoThreeTree(Integer[] keys) {
+        TwoThreeTree<Integer, Integer> tree = new TwoThreeTree<>();
+        for (Integer key : keys) {
+            tree.add(key, key);
+        }
+        return tree;
+    }
+
+    private static TreeMap<Integer, Integer> buildTreeMap(Integer[] keys) {
+        TreeMap<Integer, Integer> tree = new TreeMap<>();
+        for (Integer key : keys) {
+            tree.put(key, key);
+        }
+        return tree;
+    }
+
+    /**
+     * Options 命令行参数
+     */
+    private static final class Options {
+        List<Integer> sizes = List.of(1_000, 10_000, 100_000, 1_000_000, 10_000_000);
+        List<KeyStream> streams = List.of(KeyStream.values());
+        List<String> ops = List.of("add", "get", "size", "remove");
+        int warmup = 3;
+        int iterations = 5;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (eq < 0) {
+                    throw new IllegalArgumentException("expected name=value: " + arg);
+                }
+                String name = arg.substring(0, eq);
+                String[] values = arg.substring(eq + 1).split(",");
+                switch (name) {
+                    case "sizes": {
+                        List<Integer> sizes = new ArrayList<>();
+                        for (String value : values) {
+                            sizes.add(Integer.parseInt(value));
+                        }
+                        options.sizes = sizes;
+                        break;
+                    }
+                    case "streams": {
+                        List<KeyStream> streams = new ArrayList<>();
+                        for (String value : values) {
+                            streams.add(KeyStream.valueOf(value.toUpperCase()));
+                        }
+                        options.streams = streams;
+                        break;
+                    }
+                    case "ops":
+                        options.ops = List.of(values);
+                        break;
+                    case "warmup":
+                        options.warmup = Integer.parseInt(values[0]);
+                        break;
+                    case "iterations":
+                        options.iterations = Integer.parseInt(values[0]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown option: " + name);
+                }
+            }
+            return options;
+        }
+    }
+}
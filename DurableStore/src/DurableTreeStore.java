@@ -0,0 +1,676 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * DurableTreeStore 以 TwoThreeTree 作为内存索引的持久化有序映射
+ * 每个修改先编码为预写日志(WAL)的记录, 编码成功后才应用到树上; 日志定期被检查点取代: 检查点是树的有序快照(TreeSnapshot格式)
+ *
+ * 检查点分两步: 在锁内持久化所有修改, 复制树中元素的有序副本并切换到新的日志段; 然后在锁外从副本写出快照,
+ * 写完后原子地重命名, 再删除旧的日志段和检查点. 写快照期间修改照常进行, 只写入新的日志段
+ * 日志段超过 checkpointBytes 时由后台线程自动写检查点, 失败不影响已经持久化的修改, 通过 checkpointFailure 获取;
+ * 失败后旧的检查点和日志段保留, 恢复时仍然完整
+ * 打开时加载最新的检查点, 只重放它之后的日志段; 最后一个日志段末尾不完整的记录(写到一半时崩溃)被截掉
+ *
+ * 目录中的文件, 序号是文件开始时已经应用的修改个数:
+ * checkpoint-序号.snap  检查点
+ * wal-序号.log          日志段, 每条记录: 数据长度(int), 数据的CRC32C(int), 数据(操作类型, 键, 添加时的值)
+ *
+ * 组提交: 修改在锁内编码到内存中的待写缓冲区并应用, 需要持久化的线程中只有一个负责写出和fsync,
+ * 写出期间其他线程继续追加, 随后由下一个线程一次性写出, 并发的修改共用一次fsync
+ *
+ * 所有操作由同一把锁保护, 读写都是线程安全的; 值不能为null
+ */
+public class DurableTreeStore<K extends Comparable<K>, V> implements Closeable {
+
+    /**
+     * Durability 修改返回前的持久化要求
+     */
+    public enum Durability {
+        /**
+         * 每个修改在返回前写入日志并fsync, 并发的修改合并为一次fsync
+         */
+        SYNC,
+
+        /**
+         * 每累计batchSize个修改写入日志并fsync一次, 崩溃时最多丢失最后一批修改; sync() 可以随时强制持久化
+         */
+        BATCH
+    }
+
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    private static final String CHECKPOINT_SUFFIX = ".snap";
+    private static final String LOG_PREFIX = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+
+    private static final int ADD = 1;
+    private static final int REMOVE = 2;
+
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    // 单条记录允许的最大长度, 超过时认为记录头已经损坏
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+
+    private static final long DEFAULT_CHECKPOINT_BYTES = 64L * 1024 * 1024;
+
+    private final Path directory;
+    private final SnapshotCodec<K> keyCodec;
+    private final SnapshotCodec<V> valueCodec;
+    private final Durability durability;
+    private final int batchSize;
+    private final long checkpointBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition written = lock.newCondition();
+    private final Condition checkpointed = lock.newCondition();
+
+    private TwoThreeTree<K, V> tree;
+
+    // 当前日志段
+    private FileChannel log;
+    private long logBytes;
+
+    // 待写出的记录, 写出时和spare交换, 写出期间新的记录追加到另一个缓冲区
+    private SnapshotBuffer pending = new SnapshotBuffer(64 * 1024);
+    private SnapshotBuffer spare = new SnapshotBuffer(64 * 1024);
+    private final CRC32C crc = new CRC32C();
+
+    // appended: 已经应用并编码的修改个数; synced: 已经fsync的修改个数
+    private long appended;
+    private long synced;
+
+    // 是否有线程正在写出和fsync
+    private boolean syncing;
+
+    // 写日志失败后不再接受修改
+    private IOException failure;
+
+    private boolean closed;
+
+    // 是否有检查点正在写出, 同一时间只写一个检查点
+    private boolean checkpointing;
+
+    // 最近一次检查点失败的原因, 成功后清空
+    private IOException checkpointFailure;
+
+    private DurableTreeStore(Path directory, SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec,
+                             Durability durability, int batchSize, long checkpointBytes) {
+        this.directory = directory;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.durability = durability;
+        this.batchSize = batchSize;
+        this.checkpointBytes = checkpointBytes;
+    }
+
+    /**
+     * open 用默认配置打开(或创建)存储: 每个修改同步持久化, 日志超过64MB时写检查点
+     */
+    public static <K extends Comparable<K>, V> DurableTreeStore<K, V> open(Path directory, SnapshotCodec<K> keyCodec,
+                                                                           SnapshotCodec<V> valueCodec) throws IOException {
+        return open(directory, keyCodec, valueCodec, Durability.SYNC, 1, DEFAULT_CHECKPOINT_BYTES);
+    }
+
+    /**
+     * open 打开(或创建)存储, 加载最新的检查点并重放之后的日志
+     * @param directory 存放检查点和日志的目录, 不存在时创建
+     * @param keyCodec 键的编码, 检查点和日志共用
+     * @param valueCodec 值的编码, 检查点和日志共用
+     * @param durability 修改返回前的持久化要求
+     * @param batchSize BATCH 模式下每批的修改个数
+     * @param checkpointBytes 当前日志段超过这个字节数时自动写检查点
+     * @return 返回打开的存储
+     * @throws StreamCorruptedException 检查点或者日志(除了最后一个日志段的末尾)损坏时抛出
+     */
+    public static <K extends Comparable<K>, V> DurableTreeStore<K, V> open(Path directory, SnapshotCodec<K> keyCodec,
+                                                                           SnapshotCodec<V> valueCodec, Durability durability,
+                                                                           int batchSize, long checkpointBytes) throws IOException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        if (checkpointBytes < 1) {
+            throw new IllegalArgumentException("checkpointBytes must be positive: " + checkpointBytes);
+        }
+        Files.createDirectories(directory);
+        DurableTreeStore<K, V> store = new DurableTreeStore<>(directory, keyCodec, valueCodec, durability, batchSize, checkpointBytes);
+        store.recover();
+        return store;
+    }
+
+    /**
+     * add 添加键值对, 键已经存在时不做任何修改, 也不写日志
+     * @param key 元素对应的键
+     * @param value 元素对应的值, 不能为null
+     * @throws NullPointerException value为null时抛出, 存储不做任何修改
+     */
+    public void add(K key, V value) throws IOException {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        lock.lock();
+        try {
+            checkWritable();
+            // 值不为null, get 返回null说明键不存在
+            if (tree.get(key) != null) {
+                return;
+            }
+            int start = append(ADD, key, value);
+            try {
+                tree.add(key, value);
+            } catch (RuntimeException | Error e) {
+                pending.position(start);
+                throw e;
+            }
+            commit(start);
+            afterAppend();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * remove 删除键
+     * @param key 要删除的键
+     * @return 返回被删除的键对应的值, 键不存在时返回null
+     */
+    public V remove(K key) throws IOException {
+        lock.lock();
+        try {
+            checkWritable();
+            if (tree.get(key) == null) {
+                return null;
+            }
+            int start = append(REMOVE, key, null);
+            V value;
+            try {
+                value = tree.remove(key);
+            } catch (RuntimeException | Error e) {
+                pending.position(start);
+                throw e;
+            }
+            commit(start);
+            afterAppend();
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * get 查找键对应的值; 可以读到已经应用但还没有持久化的修改
+     * @param key 要查找的键
+     * @return 返回键对应的值, 键不存在时返回null
+     */
+    public V get(K key) {
+        lock.lock();
+        try {
+            return tree.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * size 获取元素个数
+     * @return 返回存储持有的元素个数
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return tree.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * sync 把所有已经应用的修改写入日志并fsync
+     */
+    public void sync() throws IOException {
+        lock.lock();
+        try {
+            checkWritable();
+            awaitSynced(appended);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * checkpoint 把当前的树写成检查点, 然后删除旧的日志段和检查点
+     * 只在复制树和切换日志段时持有锁, 写快照期间其他修改可以继续; 已经有检查点在写出时先等待它完成
+     * @throws IOException 写检查点失败时抛出, 这时已经持久化的修改不受影响
+     */
+    public void checkpoint() throws IOException {
+        Checkpoint checkpoint;
+        lock.lock();
+        try {
+            while (checkpointing) {
+                checkpointed.awaitUninterruptibly();
+            }
+            checkpoint = beginCheckpoint();
+        } finally {
+            lock.unlock();
+        }
+        IOException error = writeCheckpoint(checkpoint);
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * checkpointFailure 获取最近一次检查点失败的原因
+     * @return 返回最近一次检查点(包括自动写的检查点)失败时的异常, 最近一次成功或者还没有写过检查点时返回null
+     */
+    public IOException checkpointFailure() {
+        lock.lock();
+        try {
+            return checkpointFailure;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * close 持久化所有修改并关闭日志
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            while (checkpointing) {
+                checkpointed.awaitUninterruptibly();
+            }
+            try {
+                if (failure == null) {
+                    awaitSynced(appended);
+                }
+            } finally {
+                closed = true;
+                log.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * append 把一条修改编码到待写缓冲区: 先预留记录头, 编码数据后再回填长度和校验和
+     * 编码抛出异常时把缓冲区退回到记录开始的位置, 不留下写了一半的记录; 记录在 commit 之前不计入 appended
+     * @return 返回记录在缓冲区中的开始位置
+     */
+    private int append(int op, K key, V value) {
+        SnapshotBuffer buffer = pending;
+        int start = buffer.position();
+        try {
+            buffer.position(start + RECORD_HEADER_BYTES);
+            buffer.writeByte(op);
+            keyCodec.write(buffer, null, key);
+            if (op == ADD) {
+                valueCodec.write(buffer, null, value);
+            }
+        } catch (RuntimeException | Error e) {
+            buffer.position(start);
+            throw e;
+        }
+        int end = buffer.position();
+
+        crc.reset();
+        crc.update(buffer.array(), start + RECORD_HEADER_BYTES, end - start - RECORD_HEADER_BYTES);
+        buffer.position(start);
+        buffer.writeInt(end - start - RECORD_HEADER_BYTES);
+        buffer.writeInt((int) crc.getValue());
+        buffer.position(end);
+        return start;
+    }
+
+    // commit 修改已经应用到树上, 从start开始的记录计入待持久化的修改
+    private void commit(int start) {
+        appended++;
+        logBytes += pending.position() - start;
+    }
+
+    private void afterAppend() throws IOException {
+        if (durability == Durability.SYNC || appended - synced >= batchSize) {
+            awaitSynced(appended);
+        }
+        if (logBytes >= checkpointBytes && !checkpointing) {
+            Checkpoint checkpoint;
+            try {
+                checkpoint = beginCheckpoint();
+            } catch (IOException e) {
+                // 当前修改已经应用, 检查点的失败单独报告
+                checkpointFailure = e;
+                return;
+            }
+            Thread thread = new Thread(() -> writeCheckpoint(checkpoint), "checkpoint-" + directory.getFileName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Checkpoint 一个正在写出的检查点: 序号和开始时树中元素的有序副本
+     */
+    private static final class Checkpoint {
+        private final long sequence;
+        private final Object[] keys;
+        private final Object[] values;
+
+        private Checkpoint(long sequence, Object[] keys, Object[] values) {
+            this.sequence = sequence;
+            this.keys = keys;
+            this.values = values;
+        }
+    }
+
+    /**
+     * beginCheckpoint 开始一个检查点, 持有锁并且没有检查点在写出时调用
+     * 持久化所有已经应用的修改, 复制树中的元素, 然后切换到以当前序号开始的新日志段
+     */
+    private Checkpoint beginCheckpoint() throws IOException {
+        checkWritable();
+        // awaitSynced 写出期间释放锁, 其他线程可能追加新的修改, 直到没有待写的记录才能切换日志段
+        while (synced < appended) {
+            awaitSynced(appended);
+        }
+
+        Object[] keys = new Object[tree.size()];
+        Object[] values = new Object[keys.length];
+        int[] index = {0};
+        tree.forEach((key, value) -> {
+            keys[index[0]] = key;
+            values[index[0]++] = value;
+        });
+
+        try {
+            log.close();
+            openLog(appended);
+        } catch (IOException e) {
+            // 没有可写的日志段, 不能再接受修改
+            failure = e;
+            throw e;
+        }
+        checkpointing = true;
+        return new Checkpoint(appended, keys, values);
+    }
+
+    /**
+     * writeCheckpoint 在锁外把副本写成检查点文件, 完成后删除旧的日志段和检查点
+     * @return 返回失败的原因, 成功时返回null; 结果同时记录到 checkpointFailure
+     */
+    @SuppressWarnings("unchecked")
+    private IOException writeCheckpoint(Checkpoint checkpoint) {
+        IOException error = null;
+        try {
+            Path target = directory.resolve(name(CHECKPOINT_PREFIX, checkpoint.sequence, CHECKPOINT_SUFFIX));
+            Path temporary = directory.resolve(target.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                TreeSnapshot.write(channel, checkpoint.keys.length, sink -> {
+                    for (int i = 0; i < checkpoint.keys.length; i++) {
+                        sink.accept((K) checkpoint.keys[i], (V) checkpoint.values[i]);
+                    }
+                }, keyCodec, valueCodec);
+                channel.force(true);
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory();
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException | Error e) {
+            error = new IOException("checkpoint failed", e);
+        }
+
+        lock.lock();
+        try {
+            if (error == null) {
+                try {
+                    deleteBefore(checkpoint.sequence);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            checkpointFailure = error;
+            checkpointing = false;
+            checkpointed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return error;
+    }
+
+    /**
+     * awaitSynced 等待前target个修改持久化, 持有锁时调用
+     * 没有其他线程在写出时由当前线程写出所有待写的记录, 写出和fsync期间释放锁
+     */
+    private void awaitSynced(long target) throws IOException {
+        while (synced < target) {
+            if (failure != null) {
+                throw new IOException("write-ahead log failed", failure);
+            }
+            if (syncing) {
+                written.awaitUninterruptibly();
+                continue;
+            }
+
+            syncing = true;
+            SnapshotBuffer writing = pending;
+            pending = spare;
+            long batch = appended;
+            lock.unlock();
+            IOException error = null;
+            try {
+                ByteBuffer source = ByteBuffer.wrap(writing.array(), 0, writing.position());
+                while (source.hasRemaining()) {
+                    log.write(source);
+                }
+                log.force(false);
+            } catch (IOException e) {
+                error = e;
+            } finally {
+                lock.lock();
+            }
+
+            writing.position(0);
+            spare = writing;
+            syncing = false;
+            if (error != null) {
+                failure = error;
+            } else {
+                synced = batch;
+            }
+            written.signalAll();
+        }
+    }
+
+    private void checkWritable() throws IOException {
+        if (closed) {
+            throw new IOException("store is closed");
+        }
+        if (failure != null) {
+            throw new IOException("write-ahead log failed", failure);
+        }
+    }
+
+    /**
+     * recover 加载最新的检查点, 按顺序重放序号不小于它的日志段
+     * 日志段的序号必须与已经应用的修改个数连续; 最后一个日志段中第一条不完整或者校验失败的记录及之后的内容被截掉
+     */
+    private void recover() throws IOException {
+        List<Long> checkpoints = list(CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+        long start = 0;
+        if (checkpoints.isEmpty()) {
+            tree = new TwoThreeTree<>();
+        } else {
+            start = checkpoints.get(checkpoints.size() - 1);
+            Path path = directory.resolve(name(CHECKPOINT_PREFIX, start, CHECKPOINT_SUFFIX));
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                tree = TwoThreeTree.readFrom(channel, keyCodec, valueCodec);
+            }
+        }
+
+        appended = start;
+        long checkpoint = start;
+        List<Long> segments = list(LOG_PREFIX, LOG_SUFFIX);
+        segments.removeIf(segment -> segment < checkpoint);
+        for (int i = 0; i < segments.size(); i++) {
+            long segment = segments.get(i);
+            if (segment != appended) {
+                throw new StreamCorruptedException("log segment " + segment + " does not continue from " + appended);
+            }
+            replay(directory.resolve(name(LOG_PREFIX, segment, LOG_SUFFIX)), i == segments.size() - 1);
+        }
+        synced = appended;
+
+        if (segments.isEmpty()) {
+            openLog(appended);
+        } else {
+            long last = segments.get(segments.size() - 1);
+            log = FileChannel.open(directory.resolve(name(LOG_PREFIX, last, LOG_SUFFIX)), StandardOpenOption.WRITE);
+            logBytes = log.size();
+            log.position(logBytes);
+        }
+        deleteBefore(start);
+    }
+
+    // replay 重放一个日志段; last为true时允许末尾有不完整的记录, 并把它截掉
+    private void replay(Path path, boolean last) throws IOException {
+        SnapshotBuffer buffer = new SnapshotBuffer(1024);
+        long valid = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            long size = channel.size();
+            while (valid < size) {
+                if (!readRecord(in, buffer, size - valid)) {
+                    if (!last) {
+                        throw new StreamCorruptedException("log " + path.getFileName() + " is corrupt at offset " + valid);
+                    }
+                    channel.truncate(valid);
+                    channel.force(true);
+                    break;
+                }
+                apply(buffer, path, valid);
+                valid += RECORD_HEADER_BYTES + buffer.limit();
+            }
+        }
+    }
+
+    // readRecord 读取一条记录的数据到buffer中, 记录不完整或者校验失败时返回false
+    private boolean readRecord(DataInputStream in, SnapshotBuffer buffer, long remaining) throws IOException {
+        if (remaining < RECORD_HEADER_BYTES) {
+            return false;
+        }
+        int length = in.readInt();
+        int checksum = in.readInt();
+        if (length <= 0 || length > MAX_RECORD_BYTES || length > remaining - RECORD_HEADER_BYTES) {
+            return false;
+        }
+        buffer.reset(length);
+        try {
+            in.readFully(buffer.array(), 0, length);
+        } catch (EOFException e) {
+            return false;
+        }
+        crc.reset();
+        crc.update(buffer.array(), 0, length);
+        return (int) crc.getValue() == checksum;
+    }
+
+    private void apply(SnapshotBuffer buffer, Path path, long offset) throws IOException {
+        try {
+            int op = buffer.readByte();
+            K key = keyCodec.read(buffer, null);
+            if (op == ADD) {
+                tree.add(key, valueCodec.read(buffer, null));
+            } else if (op == REMOVE) {
+                tree.remove(key);
+            } else {
+                throw new IllegalStateException("unknown operation " + op);
+            }
+        } catch (RuntimeException e) {
+            throw new StreamCorruptedException("log " + path.getFileName() + " has a bad record at offset " + offset + ": " + e);
+        }
+        appended++;
+    }
+
+    private void openLog(long start) throws IOException {
+        log = FileChannel.open(directory.resolve(name(LOG_PREFIX, start, LOG_SUFFIX)),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        logBytes = 0;
+        syncDirectory();
+    }
+
+    // deleteBefore 删除序号小于start的检查点和日志段, 以及写到一半的临时检查点
+    private void deleteBefore(long start) throws IOException {
+        for (long checkpoint : list(CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX)) {
+            if (checkpoint < start) {
+                Files.delete(directory.resolve(name(CHECKPOINT_PREFIX, checkpoint, CHECKPOINT_SUFFIX)));
+            }
+        }
+        for (long segment : list(LOG_PREFIX, LOG_SUFFIX)) {
+            if (segment < start) {
+                Files.delete(directory.resolve(name(LOG_PREFIX, segment, LOG_SUFFIX)));
+            }
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(".tmp")) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    // list 按序号升序列出目录中指定前后缀的文件的序号
+    private List<Long> list(String prefix, String suffix) throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                    try {
+                        sequences.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                    } catch (NumberFormatException e) {
+                        // 不是这个存储写出的文件, 忽略
+                    }
+                }
+            }
+        }
+        Collections.sort(sequences);
+        return sequences;
+    }
+
+    // syncDirectory fsync目录, 让新建和重命名的文件在崩溃后仍然存在
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // 有些平台不支持打开目录, 这时只能依赖文件系统的元数据日志
+        }
+    }
+
+    private static String name(String prefix, long sequence, String suffix) {
+        return prefix + String.format("%020d", sequence) + suffix;
+    }
+}
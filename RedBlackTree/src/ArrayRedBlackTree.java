@@ -0,0 +1,368 @@
+import java.util.Arrays;
+
+/**
+ * ArrayRedBlackTree 节点保存在并行数组中的左倾红黑树
+ * 与 RedBlackTree 的 add/get/remove/size 接口和插入删除逻辑相同, 区别在于节点不是独立的对象:
+ * 左右孩子是 int 下标, 颜色保存在位图中, 键和值分别保存在两个数组中; 删除释放的下标放入空闲链表, 之后的插入优先复用
+ * 千万级元素时堆上只有几个大数组, GC需要扫描的对象数量和节点对象头的开销都大幅减少
+ */
+public class ArrayRedBlackTree<K extends Comparable<K>, V> {
+    // 下标0保留为空节点, 对应 RedBlackTree 中的 null
+    private static final int NIL = 0;
+
+    // 数组按这个大小的整数倍扩容
+    private static final int CHUNK = 1 << 12;
+
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - CHUNK;
+
+    // 左倾红黑树的高度不超过 2*log2(n), int 能表示的元素个数下高度不会超过64
+    private static final int MAX_HEIGHT = 64;
+
+    private int[] left;
+    private int[] right;
+    // 第i位为1表示节点i是红节点
+    private long[] red;
+    private Object[] keys;
+    private Object[] values;
+
+    // 从未使用过的第一个下标
+    private int next;
+
+    // 空闲链表的表头, 空闲节点通过 left 数组串联
+    private int free;
+
+    private int size;
+
+    private int root;
+
+    private final int[] path = new int[MAX_HEIGHT];
+    private final boolean[] wentLeft = new boolean[MAX_HEIGHT];
+
+    ArrayRedBlackTree() {
+        this(CHUNK);
+    }
+
+    /**
+     * @param initialCapacity 初始能容纳的节点个数
+     */
+    ArrayRedBlackTree(int initialCapacity) {
+        int capacity = chunked(Math.max(initialCapacity, 1) + 1);
+        left = new int[capacity];
+        right = new int[capacity];
+        red = new long[(capacity + 63) >>> 6];
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        next = 1;
+        free = NIL;
+        size = 0;
+        root = NIL;
+    }
+
+    /**
+     * add 往红黑树种添加节点, 键已经存在时不做任何修改
+     * @param k 元素对应的键
+     * @param v 元素对应的值
+     */
+    public void add(K k, V v) {
+        if (root == NIL) {
+            size++;
+            root = newNode(k, v);
+            setColor(root, false);
+            return;
+        }
+
+        // 自顶向下查找插入位置, 每层只比较一次
+        int depth = 0;
+        int node = root;
+        while (node != NIL) {
+            int cmp = k.compareTo(key(node));
+            if (cmp == 0) {
+                return;
+            }
+            path[depth] = node;
+            wentLeft[depth] = cmp < 0;
+            depth++;
+            node = cmp < 0 ? left[node] : right[node];
+        }
+
+        size++;
+        int child = newNode(k, v);
+
+        // childChanged 表示下一层的子树根节点是新节点或者发生过旋转/颜色翻转
+        boolean childChanged = true;
+        int level = depth - 1;
+        for (; level >= 0; level--) {
+            node = path[level];
+
+            if (wentLeft[level]) {
+                if (left[node] != child) {
+                    left[node] = child;
+                }
+            } else if (right[node] != child) {
+                right[node] = child;
+            }
+
+            boolean changed = false;
+
+            if (!isRed(left[node]) && isRed(right[node])) {
+                node = rotateLeft(node);
+                changed = true;
+            }
+
+            if (isRed(left[node]) && isRed(left[left[node]])) {
+                node = rotateRight(node);
+                changed = true;
+            }
+
+            if (isRed(left[node]) && isRed(right[node])) {
+                flipColor(node);
+                changed = true;
+            }
+
+            if (!changed && !childChanged) {
+                break;
+            }
+
+            child = node;
+            childChanged = changed;
+        }
+
+        if (level < 0) {
+            root = child;
+        }
+        setColor(root, false);
+    }
+
+    /**
+     * get 查找键对应的值
+     * @param k 要查找的键
+     * @return 返回键对应的值, 键不存在时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K k) {
+        int node = find(k);
+        return node == NIL ? null : (V) values[node];
+    }
+
+    /**
+     * remove 从红黑树中删除键, 与 RedBlackTree 相同的自顶向下删除, 被删除节点的下标放回空闲链表
+     * @param k 要删除的键
+     * @return 返回被删除的键对应的值, 键不存在时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(K k) {
+        int node = find(k);
+        if (node == NIL) {
+            return null;
+        }
+
+        V value = (V) values[node];
+        if (!isRed(left[root]) && !isRed(right[root])) {
+            setColor(root, true);
+        }
+        root = remove(root, k);
+        size--;
+        setColor(root, false);
+        return value;
+    }
+
+    private int remove(int node, K k) {
+        if (k.compareTo(key(node)) < 0) {
+            if (!isRed(left[node]) && !isRed(left[left[node]])) {
+                node = moveRedLeft(node);
+            }
+            left[node] = remove(left[node], k);
+        } else {
+            if (isRed(left[node])) {
+                node = rotateRight(node);
+            }
+            if (k.compareTo(key(node)) == 0 && right[node] == NIL) {
+                releaseNode(node);
+                return NIL;
+            }
+            if (!isRed(right[node]) && !isRed(left[right[node]])) {
+                node = moveRedRight(node);
+            }
+            if (k.compareTo(key(node)) == 0) {
+                // 用右子树的最小节点替换当前节点, 再从右子树中删除它
+                int min = right[node];
+                while (left[min] != NIL) {
+                    min = left[min];
+                }
+                keys[node] = keys[min];
+                values[node] = values[min];
+                right[node] = removeMin(right[node]);
+            } else {
+                right[node] = remove(right[node], k);
+            }
+        }
+        return balance(node);
+    }
+
+    private int removeMin(int node) {
+        if (left[node] == NIL) {
+            releaseNode(node);
+            return NIL;
+        }
+        if (!isRed(left[node]) && !isRed(left[left[node]])) {
+            node = moveRedLeft(node);
+        }
+        left[node] = removeMin(left[node]);
+        return balance(node);
+    }
+
+    // find 返回键所在节点的下标, 键不存在时返回NIL
+    private int find(K k) {
+        int node = root;
+        while (node != NIL) {
+            int cmp = k.compareTo(key(node));
+            if (cmp < 0) {
+                node = left[node];
+            } else if (cmp > 0) {
+                node = right[node];
+            } else {
+                return node;
+            }
+        }
+        return NIL;
+    }
+
+    /**
+     * size 获取当前红黑树的节点个数
+     * @return 返回红黑树持有的节点个数值
+     */
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private K key(int node) {
+        return (K) keys[node];
+    }
+
+    private int rotateLeft(int node) {
+        int root = right[node];
+        right[node] = left[root];
+        left[root] = node;
+        setColor(root, isRed(node));
+        setColor(node, true);
+        return root;
+    }
+
+    private int rotateRight(int node) {
+        int root = left[node];
+        left[node] = right[root];
+        right[root] = node;
+        setColor(root, isRed(node));
+        setColor(node, true);
+        return root;
+    }
+
+    // flipColor 翻转节点和两个孩子的颜色; 插入时节点是黑色, 两个孩子是红色
+    private void flipColor(int node) {
+        flip(node);
+        flip(left[node]);
+        flip(right[node]);
+    }
+
+    private void flip(int node) {
+        red[node >>> 6] ^= 1L << node;
+    }
+
+    // moveRedLeft, moveRedRight 和 balance 与 RedBlackTree 中的同名方法相同
+    private int moveRedLeft(int node) {
+        flipColor(node);
+        if (isRed(left[right[node]])) {
+            right[node] = rotateRight(right[node]);
+            node = rotateLeft(node);
+            flipColor(node);
+        }
+        return node;
+    }
+
+    private int moveRedRight(int node) {
+        flipColor(node);
+        if (isRed(left[left[node]])) {
+            node = rotateRight(node);
+            flipColor(node);
+        }
+        return node;
+    }
+
+    private int balance(int node) {
+        if (isRed(right[node]) && !isRed(left[node])) {
+            node = rotateLeft(node);
+        }
+        if (isRed(left[node]) && isRed(left[left[node]])) {
+            node = rotateRight(node);
+        }
+        if (isRed(left[node]) && isRed(right[node])) {
+            flipColor(node);
+        }
+        return node;
+    }
+
+    // 空节点NIL的颜色位始终为0, 所以不需要单独判断
+    private boolean isRed(int node) {
+        return (red[node >>> 6] & (1L << node)) != 0;
+    }
+
+    private void setColor(int node, boolean isRed) {
+        if (isRed) {
+            red[node >>> 6] |= 1L << node;
+        } else {
+            red[node >>> 6] &= ~(1L << node);
+        }
+    }
+
+    /**
+     * newNode 分配一个红色节点, 优先复用空闲链表中的下标
+     */
+    private int newNode(K k, V v) {
+        int node;
+        if (free != NIL) {
+            node = free;
+            free = left[node];
+        } else {
+            if (next == keys.length) {
+                grow();
+            }
+            node = next++;
+        }
+        left[node] = NIL;
+        right[node] = NIL;
+        keys[node] = k;
+        values[node] = v;
+        setColor(node, true);
+        return node;
+    }
+
+    /**
+     * releaseNode 把节点下标放回空闲链表, 并清除键值引用
+     */
+    private void releaseNode(int node) {
+        keys[node] = null;
+        values[node] = null;
+        right[node] = NIL;
+        setColor(node, false);
+        left[node] = free;
+        free = node;
+    }
+
+    // grow 按1.5倍扩容, 并向上取整到CHUNK的整数倍
+    private void grow() {
+        if (keys.length >= MAX_CAPACITY) {
+            throw new IllegalStateException("tree is full");
+        }
+        int capacity = chunked((int) Math.min((long) keys.length + (keys.length >>> 1), MAX_CAPACITY));
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        red = Arrays.copyOf(red, (capacity + 63) >>> 6);
+        keys = Arrays.copyOf(keys, capacity);
+        values = Arrays.copyOf(values, capacity);
+    }
+
+    private static int chunked(int capacity) {
+        return (capacity + CHUNK - 1) / CHUNK * CHUNK;
+    }
+}
@@ -0,0 +1,341 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+
+/**
+ * ConcurrentShardedTree 按键的范围分片的并发有序映射
+ * 每个分片是一棵 RedBlackTree, 由各自的 StampedLock 保护, 不同分片上的写操作互不影响
+ * 查找先尝试乐观读, 只有在读的过程中分片被修改时才退回到读锁
+ * 分片在两种情况下在中位数处分裂为两个分片: 元素个数超过上限; 或者分片过热, 即最近一个统计窗口内
+ * 有较多的写操作需要等待写锁. 后者让写入集中的键范围分散到更多的锁上, 而不必等到分片长到上限
+ */
+public class ConcurrentShardedTree<K extends Comparable<K>, V> {
+    private static final int DEFAULT_MAX_SHARD_SIZE = 1 << 16;
+
+    // 每个分片每隔这么多次写操作检查一次竞争程度
+    private static final int CONTENTION_WINDOW = 1024;
+
+    // 窗口内至少有这么多次写操作需要等待写锁时认为分片过热
+    private static final int HOT_CONTENDED_WRITES = CONTENTION_WINDOW / 8;
+
+    // 元素个数少于这个值的分片不因为过热而分裂, 避免少数热点键把分片切得过碎
+    private static final int MIN_HOT_SPLIT_SIZE = 1024;
+
+    /**
+     * Shard 一个分片, 负责 [lowKey, 下一个分片的lowKey) 范围内的键
+     */
+    private static final class Shard<K extends Comparable<K>, V> {
+        // 第一个分片的lowKey为null, 表示没有下界
+        private final K lowKey;
+        private final RedBlackTree<K, V> tree;
+        private final StampedLock lock = new StampedLock();
+
+        // 分片分裂后不再使用, 持有写锁时设置
+        private volatile boolean retired;
+
+        // 当前统计窗口内的写操作次数, 以及其中需要等待写锁的次数, 持有写锁时更新
+        private int writes;
+        private int contended;
+
+        Shard(K lowKey, RedBlackTree<K, V> tree) {
+            this.lowKey = lowKey;
+            this.tree = tree;
+        }
+
+        /**
+         * recordWrite 记录一次写操作, 持有写锁时调用
+         * @param waited 这次写操作是否等待了写锁
+         * @return 统计窗口结束并且分片过热时返回true
+         */
+        boolean recordWrite(boolean waited) {
+            if (waited) {
+                contended++;
+            }
+            if (++writes < CONTENTION_WINDOW) {
+                return false;
+            }
+            boolean hot = contended >= HOT_CONTENDED_WRITES && tree.size() >= MIN_HOT_SPLIT_SIZE;
+            writes = 0;
+            contended = 0;
+            return hot;
+        }
+    }
+
+    // 按lowKey升序排列的分片, 分裂时整体替换
+    private volatile Shard<K, V>[] shards;
+
+    // 分裂互斥, 保证同一时刻只有一个线程替换分片数组
+    private final ReentrantLock splitLock = new ReentrantLock();
+
+    private final int maxShardSize;
+
+    ConcurrentShardedTree() {
+        this(null, DEFAULT_MAX_SHARD_SIZE);
+    }
+
+    /**
+     * @param splitPoints 初始分片的边界, 严格升序, n个边界产生n+1个分片; 为null时只有一个分片
+     * @param maxShardSize 分片的元素个数超过这个值时分裂
+     */
+    @SuppressWarnings("unchecked")
+    ConcurrentShardedTree(K[] splitPoints, int maxShardSize) {
+        if (maxShardSize < 2) {
+            throw new IllegalArgumentException("maxShardSize must be at least 2: " + maxShardSize);
+        }
+        int count = splitPoints == null ? 1 : splitPoints.length + 1;
+        Shard<K, V>[] initial = (Shard<K, V>[]) new Shard[count];
+        initial[0] = new Shard<K, V>(null, new RedBlackTree<>());
+        for (int i = 1; i < count; i++) {
+            if (i > 1 && splitPoints[i - 2].compareTo(splitPoints[i - 1]) >= 0) {
+                throw new IllegalArgumentException("split points are not strictly ascending at index " + (i - 1));
+            }
+            initial[i] = new Shard<K, V>(splitPoints[i - 1], new RedBlackTree<>());
+        }
+        this.shards = initial;
+        this.maxShardSize = maxShardSize;
+    }
+
+    /**
+     * add 添加键值对, 键已经存在时不做任何修改
+     * @param k 元素对应的键
+     * @param v 元素对应的值
+     */
+    public void add(K k, V v) {
+        while (true) {
+            Shard<K, V> shard = shardFor(shards, k);
+            boolean split;
+            // 先不等待地尝试获取写锁, 失败说明有其他线程在写这个分片, 计入竞争
+            long stamp = shard.lock.tryWriteLock();
+            boolean waited = stamp == 0;
+            if (waited) {
+                stamp = shard.lock.writeLock();
+            }
+            try {
+                if (shard.retired) {
+                    continue;
+                }
+                shard.tree.add(k, v);
+                boolean hot = shard.recordWrite(waited);
+                split = hot || shard.tree.size() > maxShardSize;
+            } finally {
+                shard.lock.unlockWrite(stamp);
+            }
+
+            if (split) {
+                split(shard);
+            }
+            return;
+        }
+    }
+
+    /**
+     * get 查找键对应的值
+     * @param k 要查找的键
+     * @return 返回键对应的值, 键不存在时返回null
+     */
+    public V get(K k) {
+        while (true) {
+            Shard<K, V> shard = shardFor(shards, k);
+
+            long stamp = shard.lock.tryOptimisticRead();
+            if (stamp != 0) {
+                V value;
+                try {
+                    value = shard.tree.get(k);
+                } catch (RuntimeException e) {
+                    // 与写操作并发时可能读到不一致的节点, 校验一定失败, 忽略
+                    value = null;
+                }
+                if (shard.lock.validate(stamp)) {
+                    if (shard.retired) {
+                        continue;
+                    }
+                    return value;
+                }
+            }
+
+            stamp = shard.lock.readLock();
+            try {
+                if (shard.retired) {
+                    continue;
+                }
+                return shard.tree.get(k);
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /**
+     * size 获取元素个数, 与写操作并发时是一个近似值
+     * @return 返回所有分片的元素个数之和
+     */
+    public long size() {
+        long size = 0;
+        for (Shard<K, V> shard : shards) {
+            size += shard.tree.size();
+        }
+        return size;
+    }
+
+    /**
+     * shardCount 获取当前的分片个数
+     * @return 返回分片个数
+     */
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * forEach 按键的升序遍历所有元素
+     * 分片按范围排列, 依次在每个分片的读锁下复制它的元素, 释放锁之后再对副本执行action, 即可得到全局有序的结果;
+     * action 执行时不持有任何锁, 可以修改这个映射, 已经复制的分片中的修改不会被看到;
+     * 遍历中遇到已经分裂的分片时, 从新的分片数组中跳过已经输出过的键继续
+     * @param action 对每个键值对执行的操作
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        OrderedScan<K, V> scan = new OrderedScan<K, V>(action);
+        Object[] keys = new Object[0];
+        Object[] values = new Object[0];
+
+        Shard<K, V>[] current = shards;
+        int index = 0;
+        while (index < current.length) {
+            Shard<K, V> shard = current[index];
+            int n;
+            long stamp = shard.lock.readLock();
+            try {
+                if (shard.retired) {
+                    current = shards;
+                    index = scan.last == null ? 0 : indexFor(current, scan.last);
+                    continue;
+                }
+                n = shard.tree.size();
+                if (keys.length < n) {
+                    keys = new Object[n];
+                    values = new Object[n];
+                }
+                Object[] k = keys;
+                Object[] v = values;
+                int[] count = new int[1];
+                shard.tree.forEach((key, value) -> {
+                    k[count[0]] = key;
+                    v[count[0]] = value;
+                    count[0]++;
+                });
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+
+            for (int i = 0; i < n; i++) {
+                scan.accept((K) keys[i], (V) values[i]);
+            }
+            index++;
+        }
+    }
+
+    /**
+     * OrderedScan 只输出比上一次输出的键更大的键, 用于分片分裂后从新分片继续遍历
+     */
+    private static final class OrderedScan<K extends Comparable<K>, V> implements BiConsumer<K, V> {
+        private final BiConsumer<? super K, ? super V> action;
+        private K last;
+
+        OrderedScan(BiConsumer<? super K, ? super V> action) {
+            this.action = action;
+        }
+
+        @Override
+        public void accept(K k, V v) {
+            if (last == null || k.compareTo(last) > 0) {
+                action.accept(k, v);
+                last = k;
+            }
+        }
+    }
+
+    /**
+     * split 把元素过多或者过热的分片在中位数处分裂为两个分片
+     * 新分片用 RedBlackTree.fromSorted 线性构造, 分裂期间持有旧分片的写锁
+     */
+    @SuppressWarnings("unchecked")
+    private void split(Shard<K, V> shard) {
+        splitLock.lock();
+        try {
+            if (shard.retired) {
+                return;
+            }
+
+            long stamp = shard.lock.writeLock();
+            try {
+                int n = shard.tree.size();
+                if (n < 2) {
+                    return;
+                }
+
+                K[] keys = (K[]) new Comparable[n];
+                V[] values = (V[]) new Object[n];
+                int[] count = new int[1];
+                shard.tree.forEach((k, v) -> {
+                    keys[count[0]] = k;
+                    values[count[0]] = v;
+                    count[0]++;
+                });
+
+                int mid = n / 2;
+                Shard<K, V> low = new Shard<K, V>(shard.lowKey,
+                        RedBlackTree.fromSorted(Arrays.copyOfRange(keys, 0, mid), Arrays.copyOfRange(values, 0, mid)));
+                Shard<K, V> high = new Shard<K, V>(keys[mid],
+                        RedBlackTree.fromSorted(Arrays.copyOfRange(keys, mid, n), Arrays.copyOfRange(values, mid, n)));
+
+                Shard<K, V>[] current = shards;
+                int index = indexOf(current, shard);
+                Shard<K, V>[] next = (Shard<K, V>[]) new Shard[current.length + 1];
+                System.arraycopy(current, 0, next, 0, index);
+                next[index] = low;
+                next[index + 1] = high;
+                System.arraycopy(current, index + 1, next, index + 2, current.length - index - 1);
+
+                // 先发布新的分片数组再标记旧分片, 等待旧分片锁的线程醒来后能看到新数组
+                shards = next;
+                shard.retired = true;
+            } finally {
+                shard.lock.unlockWrite(stamp);
+            }
+        } finally {
+            splitLock.unlock();
+        }
+    }
+
+    private Shard<K, V> shardFor(Shard<K, V>[] current, K k) {
+        return current[indexFor(current, k)];
+    }
+
+    // indexFor 二分查找lowKey不大于k的最后一个分片
+    private int indexFor(Shard<K, V>[] current, K k) {
+        int lo = 1;
+        int hi = current.length - 1;
+        int index = 0;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (current[mid].lowKey.compareTo(k) <= 0) {
+                index = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return index;
+    }
+
+    private int indexOf(Shard<K, V>[] current, Shard<K, V> shard) {
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == shard) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("shard is not in the directory");
+    }
+}
@@ -0,0 +1,294 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * FlatCombiningTree 用平面合并(flat combining)把多线程的插入交给单个线程批量执行的 RedBlackTree 包装
+ * 写线程把插入请求发布到请求槽位中, 然后尝试获取合并锁: 拿到锁的线程成为合并者, 收集所有槽位中的请求,
+ * 按键排序后一次性插入到树中, 再逐个唤醒请求的发布者; 没拿到锁的线程等待自己的请求被别的合并者完成
+ * 同一时刻只有合并者访问树, 锁在一批请求之间才交接一次, 排序后的相邻插入共享树的上层路径, 缓存命中率更高
+ *
+ * 槽位按线程id散列到固定大小的数组, 冲突时线性探测, 不使用 ThreadLocal, 线程数量不受槽位个数限制;
+ * 等待时先自旋再用 LockSupport.park 挂起, 锁是 ReentrantLock, 虚拟线程等待时不会占住载体线程
+ * 所有持有锁的方法都通过 release 释放锁: 释放之后再检查一遍槽位, 如果还有请求就唤醒它的发布者接替合并,
+ * 所以挂起的线程不会错过唤醒, 无论锁被合并者还是 get, remove, size, forEach 持有
+ * 合并时某个请求的比较或插入抛出异常, 只有这个请求失败, 异常在它的发布者线程中重新抛出, 同一批的其他请求照常插入
+ */
+public class FlatCombiningTree<K extends Comparable<K>, V> {
+    private static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    // 默认的槽位个数, 同时写入的线程多于槽位时, 槽位占满的线程自己合并清空槽位
+    private static final int DEFAULT_SLOTS = Math.max(8, 2 * NCPU);
+
+    // 合并者持有锁时最多扫描槽位的轮数, 后一轮没有收集到请求时提前结束
+    private static final int MAX_PASSES = 4;
+
+    // 等待请求完成时先自旋的次数, 之后挂起; 单核上自旋只会推迟合并者运行, 不自旋
+    private static final int SPINS = NCPU < 2 ? 0 : 64;
+
+    private static final Comparator<Request<?, ?>> BY_KEY = FlatCombiningTree::compareKeys;
+
+    /**
+     * Request 一个待执行的插入请求, 由合并者完成后设置done并唤醒发布者
+     */
+    private static final class Request<K extends Comparable<K>, V> {
+        private final K key;
+        private final V value;
+        private final Thread thread;
+        // 合并时插入失败的异常, 在设置done之前写入, 发布者看到done之后读取
+        private Throwable failure;
+        private volatile boolean done;
+
+        Request(K key, V value, Thread thread) {
+            this.key = key;
+            this.value = value;
+            this.thread = thread;
+        }
+    }
+
+    private final RedBlackTree<K, V> tree;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // 请求槽位, 发布者把null替换为请求, 只有合并者把请求替换回null
+    private final AtomicReferenceArray<Request<K, V>> slots;
+    private final int mask;
+
+    // 合并者收集请求的缓冲区, 只在持有锁时访问
+    private final Request<K, V>[] batch;
+
+    // 合并的批次数和合并的请求数, 只在持有锁时修改
+    private long batches;
+    private long combined;
+
+    FlatCombiningTree() {
+        this(new RedBlackTree<>(), DEFAULT_SLOTS);
+    }
+
+    /**
+     * @param tree 被包装的树, 之后只能通过这个包装访问
+     * @param slots 请求槽位的个数, 向上取整为2的幂; 通常不少于同时写入的线程数
+     */
+    @SuppressWarnings("unchecked")
+    FlatCombiningTree(RedBlackTree<K, V> tree, int slots) {
+        if (slots < 1 || slots > 1 << 16) {
+            throw new IllegalArgumentException("slots must be between 1 and 65536: " + slots);
+        }
+        int capacity = slots == 1 ? 1 : Integer.highestOneBit(slots - 1) << 1;
+        this.tree = tree;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.batch = (Request<K, V>[]) new Request[capacity];
+    }
+
+    /**
+     * add 添加键值对, 键已经存在时不做任何修改; 返回时插入已经生效
+     * @param k 元素对应的键
+     * @param v 元素对应的值
+     */
+    public void add(K k, V v) {
+        // 合并者插入时抛出异常会让同一批的其他请求永远等待, 在发布之前拒绝null键
+        if (k == null) {
+            throw new NullPointerException("key is null");
+        }
+        // 锁空闲时直接插入, 再顺便合并其他线程已经发布的请求, 没有竞争时不需要发布请求
+        if (lock.tryLock()) {
+            try {
+                tree.add(k, v);
+            } finally {
+                combineAndRelease();
+            }
+            return;
+        }
+
+        Thread current = Thread.currentThread();
+        Request<K, V> request = new Request<K, V>(k, v, current);
+        publish(request, current);
+
+        int spins = 0;
+        while (!request.done) {
+            if (lock.tryLock()) {
+                // 请求在获取锁之前已经发布, 合并者的第一轮扫描一定能收集到它
+                combineAndRelease();
+                break;
+            }
+            if (spins < SPINS) {
+                spins++;
+                Thread.onSpinWait();
+            } else {
+                LockSupport.park(this);
+            }
+        }
+        rethrow(request.failure);
+    }
+
+    /**
+     * get 查找键对应的值
+     * @param k 要查找的键
+     * @return 返回键对应的值, 键不存在时返回null
+     */
+    public V get(K k) {
+        lock.lock();
+        try {
+            return tree.get(k);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * remove 删除键
+     * @param k 要删除的键
+     * @return 返回被删除的键对应的值, 键不存在时返回null
+     */
+    public V remove(K k) {
+        lock.lock();
+        try {
+            return tree.remove(k);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * size 获取元素个数
+     * @return 返回树持有的元素个数
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return tree.size();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * forEach 在合并锁下按键的升序遍历所有元素, 遍历期间的插入会等待遍历结束
+     * @param action 对每个键值对执行的操作
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        lock.lock();
+        try {
+            tree.forEach(action);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * averageBatchSize 获取平均每次合并执行的插入个数, 用于观察竞争程度
+     * @return 返回合并的请求数除以合并的批次数, 还没有合并过时返回0
+     */
+    public double averageBatchSize() {
+        lock.lock();
+        try {
+            return batches == 0 ? 0 : (double) combined / batches;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * publish 从线程id散列到的槽位开始线性探测, 把请求放入第一个空槽位
+     * 所有槽位都被占用时自己成为合并者清空槽位, 然后重新探测
+     */
+    @SuppressWarnings("deprecation")
+    private void publish(Request<K, V> request, Thread current) {
+        long id = current.getId();
+        int start = (int) (id ^ id >>> 32) * 0x9E3779B9 >>> 16 & mask;
+        while (true) {
+            for (int i = 0; i <= mask; i++) {
+                int index = start + i & mask;
+                if (slots.get(index) == null && slots.compareAndSet(index, null, request)) {
+                    return;
+                }
+            }
+            lock.lock();
+            combineAndRelease();
+        }
+    }
+
+    // combineAndRelease 持有锁时调用, 合并之后释放锁
+    private void combineAndRelease() {
+        try {
+            combine();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * release 释放锁, 再唤醒一个还在槽位中的请求的发布者; 所有持有锁的方法都通过它释放锁
+     * 发布者先发布请求再尝试获取锁, 获取失败说明当时锁被占用, 锁的持有者释放后的这次检查一定能看到它的请求,
+     * 被唤醒的线程重新尝试获取锁; 如果锁又被别的线程拿到, 由那个线程负责释放后的检查
+     */
+    private void release() {
+        lock.unlock();
+        for (int i = 0; i <= mask; i++) {
+            Request<K, V> request = slots.get(i);
+            if (request != null) {
+                LockSupport.unpark(request.thread);
+                return;
+            }
+        }
+    }
+
+    /**
+     * combine 持有锁时调用, 收集槽位中的请求, 按键排序后插入树中并唤醒发布者
+     * 一轮之后再扫描, 直到某一轮没有收集到请求或者达到 MAX_PASSES 轮
+     */
+    private void combine() {
+        for (int pass = 0; pass < MAX_PASSES; pass++) {
+            int n = 0;
+            for (int i = 0; i <= mask; i++) {
+                Request<K, V> request = slots.get(i);
+                if (request != null) {
+                    batch[n++] = request;
+                    slots.set(i, null);
+                }
+            }
+            if (n == 0) {
+                return;
+            }
+
+            // 键相同的请求保持收集的顺序, 第一个生效, 与依次调用 add 一致
+            // 排序时比较抛出异常无法确定是哪个请求的键, 改为按当前顺序逐个插入, 由插入找出失败的请求
+            try {
+                Arrays.sort(batch, 0, n, BY_KEY);
+            } catch (RuntimeException | Error e) {
+                // 排序失败时数组仍然是同一批请求的一个排列
+            }
+            for (int i = 0; i < n; i++) {
+                Request<K, V> request = batch[i];
+                batch[i] = null;
+                try {
+                    tree.add(request.key, request.value);
+                } catch (RuntimeException | Error e) {
+                    request.failure = e;
+                }
+                request.done = true;
+                LockSupport.unpark(request.thread);
+            }
+            batches++;
+            combined += n;
+        }
+    }
+
+    // rethrow 在发布者线程中重新抛出合并时记录的异常
+    private static void rethrow(Throwable failure) {
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compareKeys(Request<?, ?> a, Request<?, ?> b) {
+        return ((Comparable) a.key).compareTo(b.key);
+    }
+}
@@ -0,0 +1,258 @@
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * HybridOrderedMap 小规模时用紧凑的有序数组保存, 规模变大后切换为红黑树的有序映射
+ * 数组模式下键和值分别保存在两个按键升序排列的数组中, 查找用二分, 插入和删除移动数组元素;
+ * 元素个数超过阈值时用 RedBlackTree.fromSorted 线性构造红黑树, 删除到阈值的一半以下时再退回数组模式,
+ * 两个切换点之间留出的距离避免在阈值附近反复插入删除时来回转换
+ * 大量只有几个到几十个元素的映射每个元素只占两个数组槽位, 没有节点对象和树的路径缓冲区
+ */
+public class HybridOrderedMap<K extends Comparable<K>, V> {
+    private static final int DEFAULT_THRESHOLD = 64;
+
+    // 数组模式第一次分配的容量
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final int threshold;
+
+    // 数组模式下按键升序排列的键值, 空映射时为null; 树模式下也为null
+    private K[] keys;
+    private V[] values;
+
+    // 数组模式下的元素个数
+    private int size;
+
+    // 树模式下保存元素的红黑树, 数组模式下为null
+    private RedBlackTree<K, V> tree;
+
+    HybridOrderedMap() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold 元素个数超过这个值时切换为红黑树, 减少到这个值的一半时退回数组
+     */
+    HybridOrderedMap(int threshold) {
+        if (threshold < 2) {
+            throw new IllegalArgumentException("threshold must be at least 2: " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    /**
+     * add 添加键值对, 键已经存在时不做任何修改
+     * @param k 元素对应的键
+     * @param v 元素对应的值
+     */
+    @SuppressWarnings("unchecked")
+    public void add(K k, V v) {
+        if (tree != null) {
+            tree.add(k, v);
+            return;
+        }
+
+        int index = search(k);
+        if (index >= 0) {
+            return;
+        }
+        index = -index - 1;
+
+        if (size == threshold) {
+            promote(index, k, v);
+            return;
+        }
+
+        if (keys == null) {
+            keys = (K[]) new Comparable[Math.min(INITIAL_CAPACITY, threshold)];
+            values = (V[]) new Object[keys.length];
+        } else if (size == keys.length) {
+            int capacity = Math.min(keys.length * 2, threshold);
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        keys[index] = k;
+        values[index] = v;
+        size++;
+    }
+
+    /**
+     * get 查找键对应的值
+     * @param k 要查找的键
+     * @return 返回键对应的值, 键不存在时返回null
+     */
+    public V get(K k) {
+        if (tree != null) {
+            return tree.get(k);
+        }
+        int index = search(k);
+        return index >= 0 ? values[index] : null;
+    }
+
+    /**
+     * containsKey 判断键是否存在
+     * @param k 要查找的键
+     * @return 键存在时返回true
+     */
+    public boolean containsKey(K k) {
+        if (tree != null) {
+            return tree.containsKey(k);
+        }
+        return search(k) >= 0;
+    }
+
+    /**
+     * floor 查找不大于k的最大键
+     * @param k 要查找的键
+     * @return 返回不大于k的最大键, 不存在时返回null
+     */
+    public K floor(K k) {
+        if (tree != null) {
+            return tree.floor(k);
+        }
+        int index = search(k);
+        if (index >= 0) {
+            return keys[index];
+        }
+        index = -index - 2;
+        return index >= 0 ? keys[index] : null;
+    }
+
+    /**
+     * ceiling 查找不小于k的最小键
+     * @param k 要查找的键
+     * @return 返回不小于k的最小键, 不存在时返回null
+     */
+    public K ceiling(K k) {
+        if (tree != null) {
+            return tree.ceiling(k);
+        }
+        int index = search(k);
+        if (index >= 0) {
+            return keys[index];
+        }
+        index = -index - 1;
+        return index < size ? keys[index] : null;
+    }
+
+    /**
+     * remove 删除键
+     * @param k 要删除的键
+     * @return 返回被删除的键对应的值, 键不存在时返回null
+     */
+    public V remove(K k) {
+        if (tree != null) {
+            V value = tree.remove(k);
+            if (tree.size() <= threshold / 2) {
+                demote();
+            }
+            return value;
+        }
+
+        int index = search(k);
+        if (index < 0) {
+            return null;
+        }
+        V value = values[index];
+        size--;
+        System.arraycopy(keys, index + 1, keys, index, size - index);
+        System.arraycopy(values, index + 1, values, index, size - index);
+        keys[size] = null;
+        values[size] = null;
+        if (size == 0) {
+            keys = null;
+            values = null;
+        }
+        return value;
+    }
+
+    /**
+     * forEach 按键的升序遍历所有元素
+     * @param action 对每个键值对执行的操作
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (tree != null) {
+            tree.forEach(action);
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            action.accept(keys[i], values[i]);
+        }
+    }
+
+    /**
+     * size 获取元素个数
+     * @return 返回映射持有的元素个数
+     */
+    public int size() {
+        return tree != null ? tree.size() : size;
+    }
+
+    /**
+     * isTree 判断当前是否处于树模式
+     * @return 元素保存在红黑树中时返回true
+     */
+    public boolean isTree() {
+        return tree != null;
+    }
+
+    // search 二分查找k, 找到时返回下标, 否则返回 -(插入位置) - 1
+    private int search(K k) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = keys[mid].compareTo(k);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * promote 数组已满时把数组中的元素和新元素一起构造为红黑树
+     * @param index 新元素在数组中的插入位置
+     */
+    @SuppressWarnings("unchecked")
+    private void promote(int index, K k, V v) {
+        K[] sortedKeys = (K[]) new Comparable[size + 1];
+        V[] sortedValues = (V[]) new Object[size + 1];
+        System.arraycopy(keys, 0, sortedKeys, 0, index);
+        System.arraycopy(values, 0, sortedValues, 0, index);
+        sortedKeys[index] = k;
+        sortedValues[index] = v;
+        System.arraycopy(keys, index, sortedKeys, index + 1, size - index);
+        System.arraycopy(values, index, sortedValues, index + 1, size - index);
+
+        tree = RedBlackTree.fromSorted(sortedKeys, sortedValues);
+        keys = null;
+        values = null;
+        size = 0;
+    }
+
+    // demote 把红黑树中的元素按升序拷贝回数组, 数组保留到阈值的容量, 再次增长时不需要扩容
+    @SuppressWarnings("unchecked")
+    private void demote() {
+        K[] sortedKeys = (K[]) new Comparable[threshold];
+        V[] sortedValues = (V[]) new Object[threshold];
+        int[] count = new int[1];
+        tree.forEach((k, v) -> {
+            sortedKeys[count[0]] = k;
+            sortedValues[count[0]] = v;
+            count[0]++;
+        });
+
+        keys = count[0] == 0 ? null : sortedKeys;
+        values = count[0] == 0 ? null : sortedValues;
+        size = count[0];
+        tree = null;
+    }
+}
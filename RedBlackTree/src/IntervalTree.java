@@ -0,0 +1,272 @@
+/**
+ * IntervalTree 保存闭区间 [lo, hi] 的左倾红黑树, 用于查找与某个点或某个区间重叠的所有区间
+ * 区间按 (lo, hi) 排序, 与 LongRedBlackTree 使用相同的插入, 旋转和颜色翻转逻辑;
+ * 每个节点额外保存以它为根的子树中最大的右端点max, 旋转时重新计算被旋转的两个节点, 插入修复时沿路径向上更新
+ *
+ * 查询按 (lo, hi) 的升序把结果交给 IntervalSink, 不分配对象:
+ * 子树的max小于查询的左端点时整棵子树都不会重叠; 节点的lo大于查询的右端点时它和它的右子树都不会重叠
+ * 被访问的节点都在某个结果或者查询右端点的查找路径上, 耗时为 O(log n + k·log(n/k)) 以内, 结果集中在一段范围时接近 O(log n + k)
+ * @param <V> 值的类型
+ */
+public class IntervalTree<V> {
+    private static final boolean RED = true;
+    private static final boolean BLACK = false;
+
+    // 左倾红黑树的高度不超过 2*log2(n), int 能表示的元素个数下高度不会超过64
+    private static final int MAX_HEIGHT = 64;
+
+    /**
+     * IntervalSink 接收查询结果的回调
+     */
+    public interface IntervalSink<V> {
+        /**
+         * accept 处理一个与查询重叠的区间
+         * @param lo 区间的左端点
+         * @param hi 区间的右端点
+         * @param value 区间对应的值
+         */
+        void accept(long lo, long hi, V value);
+    }
+
+    static private class Node<V> {
+        private long lo, hi;
+        // 以这个节点为根的子树中最大的右端点
+        private long max;
+        private V value;
+        private Node<V> left, right;
+        private boolean color;
+
+        Node(long lo, long hi, V value, boolean color) {
+            this.lo = lo;
+            this.hi = hi;
+            this.max = hi;
+            this.value = value;
+            this.color = color;
+        }
+    }
+
+    private int size;
+
+    private Node<V> root;
+
+    // 插入时记录的从根到插入位置的路径, 每棵树复用同一块缓冲区
+    private final Node<V>[] path;
+
+    // path[i] 的下一个节点是否是它的左孩子
+    private final boolean[] wentLeft;
+
+    @SuppressWarnings("unchecked")
+    IntervalTree() {
+        size = 0;
+        root = null;
+        path = (Node<V>[]) new Node[MAX_HEIGHT];
+        wentLeft = new boolean[MAX_HEIGHT];
+    }
+
+    /**
+     * add 添加区间, 端点完全相同的区间已经存在时不做任何修改
+     * @param lo 区间的左端点
+     * @param hi 区间的右端点, 不能小于lo
+     * @param v 区间对应的值
+     */
+    public void add(long lo, long hi, V v) {
+        if (lo > hi) {
+            throw new IllegalArgumentException("interval [" + lo + ", " + hi + "] is empty");
+        }
+        if (root == null) {
+            size++;
+            root = new Node<V>(lo, hi, v, BLACK);
+            return;
+        }
+
+        // 自顶向下查找插入位置
+        int depth = 0;
+        Node<V> node = root;
+        while (node != null) {
+            if (lo == node.lo && hi == node.hi) {
+                return;
+            }
+            boolean less = lo < node.lo || lo == node.lo && hi < node.hi;
+            path[depth] = node;
+            wentLeft[depth] = less;
+            depth++;
+            node = less ? node.left : node.right;
+        }
+
+        size++;
+        Node<V> child = new Node<V>(lo, hi, v, RED);
+
+        // childChanged 表示下一层的子树根节点是新节点或者发生过旋转/颜色翻转
+        // 与 LongRedBlackTree 不同, 没有旋转的层仍然要继续向上, 直到子树的max不再变化
+        boolean childChanged = true;
+        int level = depth - 1;
+        for (; level >= 0; level--) {
+            node = path[level];
+
+            if (wentLeft[level]) {
+                if (node.left != child) {
+                    node.left = child;
+                }
+            } else if (node.right != child) {
+                node.right = child;
+            }
+
+            // 先把新区间的右端点计入max, 之后的旋转从正确的max出发
+            boolean maxChanged = false;
+            if (node.max < hi) {
+                node.max = hi;
+                maxChanged = true;
+            }
+
+            boolean changed = false;
+
+            if (!isRed(node.left) && isRed(node.right)) {
+                node = rotateLeft(node);
+                changed = true;
+            }
+
+            if (isRed(node.left) && isRed(node.left.left)) {
+                node = rotateRight(node);
+                changed = true;
+            }
+
+            if (isRed(node.left) && isRed(node.right)) {
+                flipColor(node);
+                changed = true;
+            }
+
+            if (!changed && !childChanged && !maxChanged) {
+                break;
+            }
+
+            child = node;
+            childChanged = changed;
+        }
+
+        if (level < 0) {
+            root = child;
+        }
+        root.color = BLACK;
+    }
+
+    /**
+     * get 查找端点完全相同的区间对应的值
+     * @param lo 区间的左端点
+     * @param hi 区间的右端点
+     * @return 返回区间对应的值, 区间不存在时返回null
+     */
+    public V get(long lo, long hi) {
+        Node<V> node = root;
+        while (node != null) {
+            if (lo < node.lo || lo == node.lo && hi < node.hi) {
+                node = node.left;
+            } else if (lo > node.lo || hi > node.hi) {
+                node = node.right;
+            } else {
+                return node.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * overlapping 查找包含point的所有区间
+     * @param point 查询的点
+     * @param sink 按 (lo, hi) 的升序接收每个包含point的区间
+     * @return 返回结果的个数
+     */
+    public int overlapping(long point, IntervalSink<? super V> sink) {
+        return overlapping(root, point, point, sink);
+    }
+
+    /**
+     * overlapping 查找与 [lo, hi] 重叠(至少有一个公共点)的所有区间
+     * @param lo 查询区间的左端点
+     * @param hi 查询区间的右端点, 不能小于lo
+     * @param sink 按 (lo, hi) 的升序接收每个重叠的区间
+     * @return 返回结果的个数
+     */
+    public int overlapping(long lo, long hi, IntervalSink<? super V> sink) {
+        if (lo > hi) {
+            throw new IllegalArgumentException("interval [" + lo + ", " + hi + "] is empty");
+        }
+        return overlapping(root, lo, hi, sink);
+    }
+
+    // overlapping 中序遍历与 [lo, hi] 重叠的区间, 递归深度不超过树高, 不分配对象
+    private int overlapping(Node<V> node, long lo, long hi, IntervalSink<? super V> sink) {
+        int count = 0;
+        while (node != null && node.max >= lo) {
+            count += overlapping(node.left, lo, hi, sink);
+            if (node.lo > hi) {
+                break;
+            }
+            if (node.hi >= lo) {
+                sink.accept(node.lo, node.hi, node.value);
+                count++;
+            }
+            // 右子树用循环代替尾递归
+            node = node.right;
+        }
+        return count;
+    }
+
+    /**
+     * forEach 按 (lo, hi) 的升序遍历所有区间
+     * @param sink 接收每个区间
+     */
+    public void forEach(IntervalSink<? super V> sink) {
+        overlapping(root, Long.MIN_VALUE, Long.MAX_VALUE, sink);
+    }
+
+    // rotateLeft 和 rotateRight 之后旋转上来的节点覆盖原来整棵子树, max不变; 转下去的节点重新计算
+    private Node<V> rotateLeft(Node<V> node) {
+        Node<V> root = node.right;
+        node.right = root.left;
+        root.left = node;
+        root.color = node.color;
+        node.color = RED;
+        root.max = node.max;
+        updateMax(node);
+        return root;
+    }
+
+    private Node<V> rotateRight(Node<V> node) {
+        Node<V> root = node.left;
+        node.left = root.right;
+        root.right = node;
+        root.color = node.color;
+        node.color = RED;
+        root.max = node.max;
+        updateMax(node);
+        return root;
+    }
+
+    private void updateMax(Node<V> node) {
+        long max = node.hi;
+        if (node.left != null && node.left.max > max) {
+            max = node.left.max;
+        }
+        if (node.right != null && node.right.max > max) {
+            max = node.right.max;
+        }
+        node.max = max;
+    }
+
+    private void flipColor(Node<V> node) {
+        node.left.color = node.right.color = BLACK;
+        node.color = RED;
+    }
+
+    private boolean isRed(Node<V> node) {
+        return node != null && node.color == RED;
+    }
+
+    /**
+     * size 获取当前区间树的区间个数
+     * @return 返回区间树持有的区间个数
+     */
+    public int size() {
+        return size;
+    }
+}
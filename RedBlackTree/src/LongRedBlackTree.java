@@ -0,0 +1,196 @@
+/**
+ * LongRedBlackTree 键为 long 的左倾红黑树
+ * 与 RedBlackTree 使用相同的插入, 旋转和颜色翻转逻辑, 键直接保存为 long 并用 < 比较, 不需要装箱
+ * @param <V> 值的类型
+ */
+public class LongRedBlackTree<V> {
+    private static final boolean RED = true;
+    private static final boolean BLACK = false;
+
+    // 左倾红黑树的高度不超过 2*log2(n), int 能表示的元素个数下高度不会超过64
+    private static final int MAX_HEIGHT = 64;
+
+    static private class Node<V> {
+        private long key;
+        private V value;
+        private Node<V> left, right;
+        private boolean color;
+
+        Node(long key, V value, Node<V> left, Node<V> right, boolean color) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.color = color;
+        }
+
+        Node(long key, V value) {
+            this(key, value, null, null, RED);
+        }
+    }
+
+    private int size;
+
+    private Node<V> root;
+
+    // 插入时记录的从根到插入位置的路径, 每棵树复用同一块缓冲区
+    private final Node<V>[] path;
+
+    // path[i] 的下一个节点是否是它的左孩子
+    private final boolean[] wentLeft;
+
+    @SuppressWarnings("unchecked")
+    LongRedBlackTree() {
+        size = 0;
+        root = null;
+        path = (Node<V>[]) new Node[MAX_HEIGHT];
+        wentLeft = new boolean[MAX_HEIGHT];
+    }
+
+    /**
+     * add 往红黑树种添加节点, 键已经存在时不做任何修改
+     * @param k 元素对应的键
+     * @param v 元素对应的值
+     */
+    public void add(long k, V v) {
+        if (root == null) {
+            size++;
+            root = new Node<V>(k, v, null, null, BLACK);
+            return;
+        }
+
+        // 自顶向下查找插入位置
+        int depth = 0;
+        Node<V> node = root;
+        while (node != null) {
+            if (k == node.key) {
+                return;
+            }
+            boolean less = k < node.key;
+            path[depth] = node;
+            wentLeft[depth] = less;
+            depth++;
+            node = less ? node.left : node.right;
+        }
+
+        size++;
+        Node<V> child = new Node<V>(k, v);
+
+        // childChanged 表示下一层的子树根节点是新节点或者发生过旋转/颜色翻转
+        boolean childChanged = true;
+        int level = depth - 1;
+        for (; level >= 0; level--) {
+            node = path[level];
+
+            if (wentLeft[level]) {
+                if (node.left != child) {
+                    node.left = child;
+                }
+            } else if (node.right != child) {
+                node.right = child;
+            }
+
+            boolean changed = false;
+
+            if (!isRed(node.left) && isRed(node.right)) {
+                node = rotateLeft(node);
+                changed = true;
+            }
+
+            if (isRed(node.left) && isRed(node.left.left)) {
+                node = rotateRight(node);
+                changed = true;
+            }
+
+            if (isRed(node.left) && isRed(node.right)) {
+                flipColor(node);
+                changed = true;
+            }
+
+            if (!changed && !childChanged) {
+                break;
+            }
+
+            child = node;
+            childChanged = changed;
+        }
+
+        if (level < 0) {
+            root = child;
+        }
+        root.color = BLACK;
+    }
+
+    /**
+     * get 查找键对应的值
+     * @param k 要查找的键
+     * @return 返回键对应的值, 键不存在时返回null
+     */
+    public V get(long k) {
+        Node<V> node = root;
+        while (node != null) {
+            if (k < node.key) {
+                node = node.left;
+            } else if (k > node.key) {
+                node = node.right;
+            } else {
+                return node.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * containsKey 判断键是否存在
+     * @param k 要查找的键
+     * @return 键存在时返回true
+     */
+    public boolean containsKey(long k) {
+        Node<V> node = root;
+        while (node != null) {
+            if (k < node.key) {
+                node = node.left;
+            } else if (k > node.key) {
+                node = node.right;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Node<V> rotateLeft(Node<V> node) {
+        Node<V> root = node.right;
+        node.right = root.left;
+        root.left = node;
+        root.color = node.color;
+        node.color = RED;
+        return root;
+    }
+
+    private Node<V> rotateRight(Node<V> node) {
+        Node<V> root = node.left;
+        node.left = root.right;
+        root.right = node;
+        root.color = node.color;
+        node.color = RED;
+        return root;
+    }
+
+    private void flipColor(Node<V> node) {
+        node.left.color = node.right.color = BLACK;
+        node.color = RED;
+    }
+
+    private boolean isRed(Node<V> node) {
+        return node != null && node.color == RED;
+    }
+
+    /**
+     * size 获取当前红黑树的节点个数
+     * @return 返回红黑树持有的节点个数值
+     */
+    public int size() {
+        return size;
+    }
+}
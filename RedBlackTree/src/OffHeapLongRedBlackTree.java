@@ -0,0 +1,419 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * OffHeapLongRedBlackTree 节点保存在堆外内存中的左倾红黑树, 键和值都是 long
+ * 值通常是调用方自己管理的句柄(例如另一块存储中的偏移量)
+ *
+ * 节点是定长的32字节记录, 按下标寻址, 下标0和1是文件头:
+ * 记录: key(8) value(8) left(8, 最高位是颜色) right(8)
+ * 文件头: magic(8) version(4) segmentShift(4) size(8) root(8) next(8)
+ *
+ * 存储区由多个固定大小的段组成, 每个段是一个直接内存 ByteBuffer 或者文件的一段内存映射,
+ * 所以总容量不受单个 ByteBuffer 2GB 的限制, 也完全不占用Java堆
+ * 使用内存映射文件时, 根节点和元素个数在每次修改后都写回文件头, 重新打开文件后树可以直接使用, 不需要重建
+ */
+public class OffHeapLongRedBlackTree implements Closeable {
+    private static final long MAGIC = 0x4C4C524254524545L; // "LLRBTREE"
+    private static final int VERSION = 1;
+
+    private static final int RECORD_SHIFT = 5;
+
+    private static final int KEY = 0;
+    private static final int VALUE = 8;
+    private static final int LEFT = 16;
+    private static final int RIGHT = 24;
+
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 8;
+    private static final int HEADER_SEGMENT_SHIFT = 12;
+    private static final int HEADER_SIZE = 16;
+    private static final int HEADER_ROOT = 24;
+    private static final int HEADER_NEXT = 32;
+    private static final long HEADER_RECORDS = 2;
+
+    // left 字段的最高位保存颜色
+    private static final long RED = Long.MIN_VALUE;
+    private static final long INDEX_MASK = Long.MAX_VALUE;
+
+    private static final long NIL = 0;
+
+    private static final int MAX_HEIGHT = 128;
+
+    // 默认每段64MB
+    private static final int DEFAULT_SEGMENT_SHIFT = 26;
+
+    private final FileChannel channel;
+    private final int segmentShift;
+    private final long recordMask;
+
+    private ByteBuffer[] segments;
+
+    private long size;
+    private long root;
+    private long next;
+
+    private final long[] path = new long[MAX_HEIGHT];
+    private final boolean[] wentLeft = new boolean[MAX_HEIGHT];
+
+    /**
+     * 创建一棵使用直接内存的树
+     */
+    OffHeapLongRedBlackTree() {
+        this(DEFAULT_SEGMENT_SHIFT);
+    }
+
+    /**
+     * 创建一棵使用直接内存的树
+     * @param segmentShift 每段大小的以2为底的对数
+     */
+    OffHeapLongRedBlackTree(int segmentShift) {
+        this(null, segmentShift);
+        initHeader();
+    }
+
+    private OffHeapLongRedBlackTree(FileChannel channel, int segmentShift) {
+        if (segmentShift < RECORD_SHIFT + 1 || segmentShift > 30) {
+            throw new IllegalArgumentException("segmentShift out of range: " + segmentShift);
+        }
+        this.channel = channel;
+        this.segmentShift = segmentShift;
+        this.recordMask = (1L << (segmentShift - RECORD_SHIFT)) - 1;
+        this.segments = new ByteBuffer[0];
+    }
+
+    /**
+     * open 打开或创建一个由内存映射文件支撑的树
+     * @param file 文件路径, 文件不存在时创建一棵空树
+     * @return 返回可以直接使用的树
+     * @throws IOException 文件读写失败或者文件格式不正确时抛出
+     */
+    public static OffHeapLongRedBlackTree open(Path file) throws IOException {
+        return open(file, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    /**
+     * open 打开或创建一个由内存映射文件支撑的树
+     * @param file 文件路径, 文件不存在时创建一棵空树
+     * @param segmentShift 新建文件时每段大小的以2为底的对数, 打开已有文件时以文件头为准
+     * @return 返回可以直接使用的树
+     * @throws IOException 文件读写失败或者文件格式不正确时抛出
+     */
+    public static OffHeapLongRedBlackTree open(Path file, int segmentShift) throws IOException {
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                OffHeapLongRedBlackTree tree = new OffHeapLongRedBlackTree(channel, segmentShift);
+                tree.initHeader();
+                return tree;
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_NEXT + 8).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            if (header.getLong(HEADER_MAGIC) != MAGIC) {
+                throw new IOException("not a tree file: " + file);
+            }
+            if (header.getInt(HEADER_VERSION) != VERSION) {
+                throw new IOException("unsupported version " + header.getInt(HEADER_VERSION) + ": " + file);
+            }
+
+            OffHeapLongRedBlackTree tree = new OffHeapLongRedBlackTree(channel, header.getInt(HEADER_SEGMENT_SHIFT));
+            tree.size = header.getLong(HEADER_SIZE);
+            tree.root = header.getLong(HEADER_ROOT);
+            tree.next = header.getLong(HEADER_NEXT);
+            tree.ensureCapacity(tree.next);
+            return tree;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * add 往红黑树种添加节点, 键已经存在时不做任何修改
+     * @param k 元素对应的键
+     * @param v 元素对应的值
+     */
+    public void add(long k, long v) {
+        if (root == NIL) {
+            size++;
+            root = newNode(k, v);
+            setColor(root, false);
+            writeHeader();
+            return;
+        }
+
+        // 自顶向下查找插入位置
+        int depth = 0;
+        long node = root;
+        while (node != NIL) {
+            long key = key(node);
+            if (k == key) {
+                return;
+            }
+            boolean less = k < key;
+            path[depth] = node;
+            wentLeft[depth] = less;
+            depth++;
+            node = less ? left(node) : right(node);
+        }
+
+        size++;
+        long child = newNode(k, v);
+
+        // childChanged 表示下一层的子树根节点是新节点或者发生过旋转/颜色翻转
+        boolean childChanged = true;
+        int level = depth - 1;
+        for (; level >= 0; level--) {
+            node = path[level];
+
+            if (wentLeft[level]) {
+                if (left(node) != child) {
+                    setLeft(node, child);
+                }
+            } else if (right(node) != child) {
+                setRight(node, child);
+            }
+
+            boolean changed = false;
+
+            if (!isRed(left(node)) && isRed(right(node))) {
+                node = rotateLeft(node);
+                changed = true;
+            }
+
+            if (isRed(left(node)) && isRed(left(left(node)))) {
+                node = rotateRight(node);
+                changed = true;
+            }
+
+            if (isRed(left(node)) && isRed(right(node))) {
+                flipColor(node);
+                changed = true;
+            }
+
+            if (!changed && !childChanged) {
+                break;
+            }
+
+            child = node;
+            childChanged = changed;
+        }
+
+        if (level < 0) {
+            root = child;
+        }
+        setColor(root, false);
+        writeHeader();
+    }
+
+    /**
+     * get 查找键对应的值
+     * @param k 要查找的键
+     * @param defaultValue 键不存在时返回的值
+     * @return 返回键对应的值, 键不存在时返回defaultValue
+     */
+    public long get(long k, long defaultValue) {
+        long node = root;
+        while (node != NIL) {
+            long key = key(node);
+            if (k < key) {
+                node = left(node);
+            } else if (k > key) {
+                node = right(node);
+            } else {
+                return segment(node).getLong(offset(node) + VALUE);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * containsKey 判断键是否存在
+     * @param k 要查找的键
+     * @return 键存在时返回true
+     */
+    public boolean containsKey(long k) {
+        long node = root;
+        while (node != NIL) {
+            long key = key(node);
+            if (k < key) {
+                node = left(node);
+            } else if (k > key) {
+                node = right(node);
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * size 获取当前红黑树的节点个数
+     * @return 返回红黑树持有的节点个数值
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * force 把内存映射文件中被修改的内容刷到磁盘, 直接内存模式下不做任何事
+     */
+    public void force() {
+        if (channel == null) {
+            return;
+        }
+        for (ByteBuffer segment : segments) {
+            ((MappedByteBuffer) segment).force();
+        }
+    }
+
+    /**
+     * close 刷盘并关闭文件
+     * 映射的内存在段对象被GC回收时才会解除映射, 关闭后不能再使用这棵树
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            force();
+            channel.close();
+        }
+        segments = new ByteBuffer[0];
+    }
+
+    private long rotateLeft(long node) {
+        long root = right(node);
+        setRight(node, left(root));
+        setLeft(root, node);
+        setColor(root, isRed(node));
+        setColor(node, true);
+        return root;
+    }
+
+    private long rotateRight(long node) {
+        long root = left(node);
+        setLeft(node, right(root));
+        setRight(root, node);
+        setColor(root, isRed(node));
+        setColor(node, true);
+        return root;
+    }
+
+    private void flipColor(long node) {
+        setColor(left(node), false);
+        setColor(right(node), false);
+        setColor(node, true);
+    }
+
+    private boolean isRed(long node) {
+        return node != NIL && (segment(node).getLong(offset(node) + LEFT) & RED) != 0;
+    }
+
+    private void setColor(long node, boolean isRed) {
+        ByteBuffer segment = segment(node);
+        int offset = offset(node) + LEFT;
+        long word = segment.getLong(offset);
+        segment.putLong(offset, isRed ? word | RED : word & INDEX_MASK);
+    }
+
+    private long key(long node) {
+        return segment(node).getLong(offset(node) + KEY);
+    }
+
+    private long left(long node) {
+        return segment(node).getLong(offset(node) + LEFT) & INDEX_MASK;
+    }
+
+    private long right(long node) {
+        return segment(node).getLong(offset(node) + RIGHT);
+    }
+
+    private void setLeft(long node, long child) {
+        ByteBuffer segment = segment(node);
+        int offset = offset(node) + LEFT;
+        segment.putLong(offset, (segment.getLong(offset) & RED) | child);
+    }
+
+    private void setRight(long node, long child) {
+        segment(node).putLong(offset(node) + RIGHT, child);
+    }
+
+    private ByteBuffer segment(long node) {
+        return segments[(int) (node >>> (segmentShift - RECORD_SHIFT))];
+    }
+
+    private int offset(long node) {
+        return (int) (node & recordMask) << RECORD_SHIFT;
+    }
+
+    /**
+     * newNode 在存储区末尾分配一个红色节点, 空间不够时增加一个段
+     */
+    private long newNode(long k, long v) {
+        long node = next++;
+        ensureCapacity(next);
+        ByteBuffer segment = segment(node);
+        int offset = offset(node);
+        segment.putLong(offset + KEY, k);
+        segment.putLong(offset + VALUE, v);
+        segment.putLong(offset + LEFT, RED);
+        segment.putLong(offset + RIGHT, NIL);
+        return node;
+    }
+
+    private void initHeader() {
+        size = 0;
+        root = NIL;
+        next = HEADER_RECORDS;
+        ensureCapacity(next);
+
+        ByteBuffer header = segments[0];
+        header.putLong(HEADER_MAGIC, MAGIC);
+        header.putInt(HEADER_VERSION, VERSION);
+        header.putInt(HEADER_SEGMENT_SHIFT, segmentShift);
+        writeHeader();
+    }
+
+    // writeHeader 把元素个数, 根节点和下一个空闲下标写回文件头
+    private void writeHeader() {
+        ByteBuffer header = segments[0];
+        header.putLong(HEADER_SIZE, size);
+        header.putLong(HEADER_ROOT, root);
+        header.putLong(HEADER_NEXT, next);
+    }
+
+    // ensureCapacity 保证下标小于records的记录都有对应的段
+    private void ensureCapacity(long records) {
+        int needed = (int) ((records + recordMask) >>> (segmentShift - RECORD_SHIFT));
+        if (needed <= segments.length) {
+            return;
+        }
+
+        ByteBuffer[] grown = Arrays.copyOf(segments, needed);
+        for (int i = segments.length; i < needed; i++) {
+            grown[i] = allocateSegment(i);
+        }
+        segments = grown;
+    }
+
+    private ByteBuffer allocateSegment(int index) {
+        long segmentBytes = 1L << segmentShift;
+        if (channel == null) {
+            return ByteBuffer.allocateDirect((int) segmentBytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, index * segmentBytes, segmentBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot map segment " + index, e);
+        }
+    }
+}
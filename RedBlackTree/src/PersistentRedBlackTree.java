@@ -0,0 +1,225 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * PersistentRedBlackTree 持久化(路径复制)的左倾红黑树
+ * add 只复制插入路径上的 O(log n) 个节点, 在新节点上执行与 RedBlackTree 相同的旋转和颜色翻转,
+ * 已经发布的节点从不修改; 新版本通过一次CAS发布
+ * 读操作不加锁, 永远看到某个完整的版本; snapshot() 返回的快照永远保持一致, 获取快照没有额外开销
+ */
+public class PersistentRedBlackTree<K extends Comparable<K>, V> {
+    private static final boolean RED = true;
+    private static final boolean BLACK = false;
+
+    static private class Node<K extends Comparable<K>, V> {
+        private K key;
+        private V value;
+        private Node<K, V> left, right;
+        private boolean color;
+
+        Node(K key, V value, Node<K, V> left, Node<K, V> right, boolean color) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.color = color;
+        }
+
+        Node(K key, V value) {
+            this(key, value, null, null, RED);
+        }
+
+        // copy 复制节点, 复制出的节点在发布前可以随意修改
+        Node<K, V> copy() {
+            return new Node<K, V>(key, value, left, right, color);
+        }
+    }
+
+    /**
+     * Snapshot 树的一个不可变版本
+     */
+    public static final class Snapshot<K extends Comparable<K>, V> {
+        private final Node<K, V> root;
+        private final int size;
+
+        private Snapshot(Node<K, V> root, int size) {
+            this.root = root;
+            this.size = size;
+        }
+
+        /**
+         * get 查找键对应的值
+         * @param k 要查找的键
+         * @return 返回键对应的值, 键不存在时返回null
+         */
+        public V get(K k) {
+            Node<K, V> node = root;
+            while (node != null) {
+                int cmp = k.compareTo(node.key);
+                if (cmp < 0) {
+                    node = node.left;
+                } else if (cmp > 0) {
+                    node = node.right;
+                } else {
+                    return node.value;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * containsKey 判断键是否存在
+         * @param k 要查找的键
+         * @return 键存在时返回true
+         */
+        public boolean containsKey(K k) {
+            Node<K, V> node = root;
+            while (node != null) {
+                int cmp = k.compareTo(node.key);
+                if (cmp < 0) {
+                    node = node.left;
+                } else if (cmp > 0) {
+                    node = node.right;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * size 获取这个版本的节点个数
+         * @return 返回这个版本持有的节点个数值
+         */
+        public int size() {
+            return size;
+        }
+    }
+
+    private final AtomicReference<Snapshot<K, V>> current = new AtomicReference<>(new Snapshot<K, V>(null, 0));
+
+    PersistentRedBlackTree() {
+    }
+
+    /**
+     * add 往红黑树种添加节点, 键已经存在时不做任何修改
+     * 在当前版本上复制插入路径得到新版本, 发布时如果有其他写者抢先发布, 基于最新版本重试
+     * @param k 元素对应的键
+     * @param v 元素对应的值
+     */
+    public void add(K k, V v) {
+        while (true) {
+            Snapshot<K, V> base = current.get();
+            Node<K, V> root = add(base.root, k, v);
+            if (root == base.root) {
+                return;
+            }
+            root.color = BLACK;
+            if (current.compareAndSet(base, new Snapshot<K, V>(root, base.size + 1))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * add 方法递归的复制路径并添加节点
+     * @param node 当前版本中的子树根节点, 不会被修改
+     * @param k 用户要添加的键
+     * @param v 用户要添加的值
+     * @return 返回新版本中的子树根节点, 键已经存在时返回node本身
+     */
+    private Node<K, V> add(Node<K, V> node, K k, V v) {
+        if (node == null) {
+            return new Node<K, V>(k, v);
+        }
+
+        int cmp = k.compareTo(node.key);
+        if (cmp == 0) {
+            return node;
+        }
+
+        Node<K, V> child = add(cmp < 0 ? node.left : node.right, k, v);
+        if (child == (cmp < 0 ? node.left : node.right)) {
+            return node;
+        }
+
+        node = node.copy();
+        if (cmp < 0) {
+            node.left = child;
+        } else {
+            node.right = child;
+        }
+
+        // 旋转只涉及node和插入路径上的孩子, 它们都是刚复制的节点
+        if (!isRed(node.left) && isRed(node.right)) {
+            node = rotateLeft(node);
+        }
+
+        if (isRed(node.left) && isRed(node.left.left)) {
+            node = rotateRight(node);
+        }
+
+        if (isRed(node.left) && isRed(node.right)) {
+            flipColor(node);
+        }
+
+        return node;
+    }
+
+    /**
+     * get 在当前版本中查找键对应的值
+     * @param k 要查找的键
+     * @return 返回键对应的值, 键不存在时返回null
+     */
+    public V get(K k) {
+        return current.get().get(k);
+    }
+
+    /**
+     * snapshot 获取当前版本, 之后的修改不会影响这个版本
+     * @return 返回当前版本的快照
+     */
+    public Snapshot<K, V> snapshot() {
+        return current.get();
+    }
+
+    /**
+     * size 获取当前版本的节点个数
+     * @return 返回红黑树持有的节点个数值
+     */
+    public int size() {
+        return current.get().size;
+    }
+
+    private Node<K, V> rotateLeft(Node<K, V> node) {
+        Node<K, V> root = node.right;
+        node.right = root.left;
+        root.left = node;
+        root.color = node.color;
+        node.color = RED;
+        return root;
+    }
+
+    private Node<K, V> rotateRight(Node<K, V> node) {
+        Node<K, V> root = node.left;
+        node.left = root.right;
+        root.right = node;
+        root.color = node.color;
+        node.color = RED;
+        return root;
+    }
+
+    /**
+     * flipColor 进行颜色翻转
+     * 不在插入路径上的那个孩子属于已经发布的版本, 需要先复制再修改颜色
+     */
+    private void flipColor(Node<K, V> node) {
+        node.left = node.left.copy();
+        node.right = node.right.copy();
+        node.left.color = node.right.color = BLACK;
+        node.color = RED;
+    }
+
+    private boolean isRed(Node<K, V> node) {
+        return node != null && node.color == RED;
+    }
+}
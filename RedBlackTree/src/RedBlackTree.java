@@ -1,3 +1,25 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 public class RedBlackTree<K extends Comparable<K>, V> {
     private static final boolean RED = true;
     private static final boolean BLACK = false;
@@ -15,69 +37,212 @@ public class RedBlackTree<K extends Comparable<K>, V> {
             this.right = right;
             this.color = color;
         }
+    }
+
+    /**
+     * CountedNode 开启了顺序统计的树使用的节点, 额外保存以这个节点为根的子树的节点个数
+     * 子树大小放在子类中, 没有开启顺序统计的树的节点不为它多占内存
+     */
+    static private final class CountedNode<K extends Comparable<K>, V> extends Node<K, V> {
+        private int count;
 
-        Node(K key, V value) {
-            this(key, value, null, null, RED);
+        CountedNode(K key, V value, Node<K, V> left, Node<K, V> right, boolean color) {
+            super(key, value, left, right, color);
+            this.count = 1 + count(left) + count(right);
         }
     }
 
+    // 左倾红黑树的高度不超过 2*log2(n), int 能表示的元素个数下高度不会超过64
+    private static final int MAX_HEIGHT = 64;
+
     private int size;
 
     private Node<K, V> root;
 
+    // 插入时记录的从根到插入位置的路径, 每棵树复用同一块缓冲区
+    private final Node<K, V>[] path;
+
+    // path[i] 的下一个节点是否是它的左孩子
+    private final boolean[] wentLeft;
+
+    // 是否在节点中维护子树大小, 开启后支持 rank/select/countInRange
+    private final boolean orderStatistics;
+
+    // 热点路径计数器, 记录点都用 TreeStats.ENABLED 保护, 关闭时被JIT消除
+    private final TreeStats stats = TreeStats.ENABLED ? new TreeStats() : TreeStats.DISABLED;
+
+    // 递归删除过程中累计的比较次数, 删除结束时一次性记录
+    private int removeComparisons;
+
+    // 指针查找模式: 插入从上一次插入后仍然有效的路径上开始, 而不是每次都从根节点开始
+    private boolean fingerSearch;
+
+    // path[0..finger] 在上一次插入之后仍然是一条有效的从根出发的路径, -1 表示没有可用的路径
+    private int finger = -1;
+
+    // path[i] 所在子树的开区间键范围 (lowBound[i], highBound[i]), null 表示没有这一侧的边界
+    private K[] lowBound, highBound;
+
     RedBlackTree() {
+        this(false);
+    }
+
+    /**
+     * @param orderStatistics 是否维护子树大小以支持 O(log n) 的 rank/select/countInRange
+     */
+    @SuppressWarnings("unchecked")
+    RedBlackTree(boolean orderStatistics) {
         size = 0;
         root = null;
+        path = (Node<K, V>[]) new Node[MAX_HEIGHT];
+        wentLeft = new boolean[MAX_HEIGHT];
+        this.orderStatistics = orderStatistics;
     }
 
     /**
-     * add 往红黑树种添加节点
-     * @param k 元素对应的键
-     * @param v 元素对应的值
+     * setFingerSearch 开启或关闭指针查找模式
+     * 开启后插入会记住上一次的插入路径以及路径上每个子树的键范围, 修复结束后没有被修改的那段路径仍然有效,
+     * 下一次插入从这段路径上最深的、键范围包含新键的节点开始向下查找;
+     * 近似有序的键每次插入只需要均摊 O(1) 次比较, 均匀随机的键反而会多出回溯时的比较, 所以默认关闭
+     * @param enabled 是否开启
      */
-    public void add(K k, V v) {
-        root = add(root, k, v);
-        root.color = BLACK;
+    @SuppressWarnings("unchecked")
+    public void setFingerSearch(boolean enabled) {
+        if (enabled && lowBound == null) {
+            lowBound = (K[]) new Comparable[MAX_HEIGHT];
+            highBound = (K[]) new Comparable[MAX_HEIGHT];
+        }
+        fingerSearch = enabled;
+        finger = -1;
     }
 
     /**
-     * add 方法递归的往红黑树中添加节点
-     * @param node 整个红黑树的根节点
-     * @param k 用户要添加的键
-     * @param v 用户要添加的值
-     * @return 返回添加后的根节点
+     * add 往红黑树种添加节点
+     * 非递归实现: 自顶向下查找插入位置并记录路径, 然后沿路径自底向上修复,
+     * 当连续两层都没有发生旋转或颜色翻转时, 更上层的节点不会再受影响, 提前结束修复
+     * @param k 元素对应的键
+     * @param v 元素对应的值
      */
-    private Node<K, V> add(Node<K, V> node, K k, V v) {
-        if (node == null) {
+    public void add(K k, V v) {
+        if (root == null) {
             size++;
-            return new Node<K, V>(k, v);
+            root = newNode(k, v, null, null, BLACK);
+            if (TreeStats.ENABLED) {
+                stats.recordOperation(0);
+            }
+            return;
         }
 
-        if (k.compareTo(node.key) < 0) {
-            node.left = add(node.left, k, v);
-        } else if (k.compareTo(node.key) > 0) {
-            node.right = add(node.right, k, v);
+        // 自顶向下查找插入位置, 每层只比较一次
+        int depth = 0;
+        int comparisons = 0;
+        if (fingerSearch && finger > 0) {
+            // 从有效路径的最深处回退到第一个键范围包含k的子树, 根节点的范围总是包含k
+            depth = finger;
+            while (depth > 0) {
+                K low = lowBound[depth];
+                K high = highBound[depth];
+                if (TreeStats.ENABLED) {
+                    comparisons += (low == null ? 0 : 1) + (high == null ? 0 : 1);
+                }
+                if ((low == null || k.compareTo(low) > 0) && (high == null || k.compareTo(high) < 0)) {
+                    break;
+                }
+                depth--;
+            }
+        }
+        Node<K, V> node = depth == 0 ? root : path[depth];
+        while (node != null) {
+            if (TreeStats.ENABLED) {
+                comparisons++;
+            }
+            int cmp = k.compareTo(node.key);
+            path[depth] = node;
+            if (cmp == 0) {
+                finger = depth;
+                if (TreeStats.ENABLED) {
+                    stats.recordOperation(comparisons);
+                }
+                return;
+            }
+            wentLeft[depth] = cmp < 0;
+            if (fingerSearch) {
+                lowBound[depth + 1] = cmp < 0 ? lowBound[depth] : node.key;
+                highBound[depth + 1] = cmp < 0 ? node.key : highBound[depth];
+            }
+            depth++;
+            node = cmp < 0 ? node.left : node.right;
         }
 
-        // 右节点为红色（在右侧出现3-node）对node进行左旋转修复
-        if (!isRed(node.left) && isRed(node.right)) {
-            node = rotateLeft(node);
+        if (TreeStats.ENABLED) {
+            stats.recordOperation(comparisons);
         }
 
-        // 左节点是RED节点, 左节点的左节点也是RED节点,
-        // 当插入元素在左节点（左节点是RED节点）或者经过右旋转修复才会出现这种情况
-        // 此时node.left.left是一个3-node节点,对node进行右旋转修复
-        if (isRed(node.left) && isRed(node.left.left)) {
-            node = rotateRight(node);
+        size++;
+        Node<K, V> child = newNode(k, v, null, null, RED);
+
+        // 路径上每个祖先的子树都多了一个节点, 修复可能提前结束, 所以先统一更新
+        if (orderStatistics) {
+            for (int i = 0; i < depth; i++) {
+                counted(path[i]).count++;
+            }
         }
 
-        // 左右节点都是RED节点, 此时node相当于是一个4-node
-        // 对4-node的处理是进行颜色翻转
-        if (isRed(node.left) && isRed(node.right)) {
-            flipColor(node);
+        // childChanged 表示下一层的子树根节点是新节点或者发生过旋转/颜色翻转
+        boolean childChanged = true;
+        int level = depth - 1;
+        for (; level >= 0; level--) {
+            node = path[level];
+
+            if (wentLeft[level]) {
+                if (node.left != child) {
+                    node.left = child;
+                }
+            } else if (node.right != child) {
+                node.right = child;
+            }
+
+            boolean changed = false;
+
+            // 右节点为红色（在右侧出现3-node）对node进行左旋转修复
+            if (!isRed(node.left) && isRed(node.right)) {
+                node = rotateLeft(node);
+                changed = true;
+            }
+
+            // 左节点是RED节点, 左节点的左节点也是RED节点,
+            // 当插入元素在左节点（左节点是RED节点）或者经过右旋转修复才会出现这种情况
+            // 此时node.left.left是一个3-node节点,对node进行右旋转修复
+            if (isRed(node.left) && isRed(node.left.left)) {
+                node = rotateRight(node);
+                changed = true;
+            }
+
+            // 左右节点都是RED节点, 此时node相当于是一个4-node
+            // 对4-node的处理是进行颜色翻转
+            if (isRed(node.left) && isRed(node.right)) {
+                flipColor(node);
+                changed = true;
+                if (TreeStats.ENABLED) {
+                    stats.recordSplit();
+                }
+            }
+
+            // 本层和下一层都没有变化, 上层节点看到的子节点和孙节点与插入前完全一样, 不需要再修复
+            if (!changed && !childChanged) {
+                break;
+            }
+
+            child = node;
+            childChanged = changed;
         }
 
-        return node;
+        // 修复停在level层时, path[level] 和它的祖先都没有变化, 下一次插入可以从这段路径开始
+        finger = level;
+        if (level < 0) {
+            root = child;
+        }
+        root.color = BLACK;
     }
 
     /**
@@ -86,11 +251,18 @@ public class RedBlackTree<K extends Comparable<K>, V> {
      * @return 返回旋转后的根节点
      */
     private Node<K, V> rotateLeft(Node<K, V> node) {
+        if (TreeStats.ENABLED) {
+            stats.recordRotation();
+        }
         Node<K, V> root = node.right;
         node.right = root.left;
         root.left = node;
         root.color = node.color;
         node.color = RED;
+        if (orderStatistics) {
+            counted(root).count = counted(node).count;
+            updateCount(node);
+        }
         return root;
     }
 
@@ -100,21 +272,58 @@ public class RedBlackTree<K extends Comparable<K>, V> {
      * @return 返回旋转后的根节点
      */
     private Node<K, V> rotateRight(Node<K, V> node) {
+        if (TreeStats.ENABLED) {
+            stats.recordRotation();
+        }
         Node<K, V> root = node.left;
         node.left = root.right;
         root.right = node;
         root.color = node.color;
         node.color = RED;
+        if (orderStatistics) {
+            counted(root).count = counted(node).count;
+            updateCount(node);
+        }
         return root;
     }
 
     /**
-     * flipColor 进行颜色翻转
+     * flipColor 进行颜色翻转, node和两个孩子的颜色都取反
+     * 插入时把黑色节点和两个红孩子(4-node)分解, 删除时反过来把黑色节点和两个黑孩子合并为4-node
      * @param node 当前路由到的红黑树的根节点
      */
     private void flipColor(Node<K, V> node) {
-        node.left.color = node.right.color = BLACK;
-        node.color = RED;
+        if (TreeStats.ENABLED) {
+            stats.recordColorFlip();
+        }
+        node.color = !node.color;
+        node.left.color = !node.left.color;
+        node.right.color = !node.right.color;
+    }
+
+    // newNode 按这棵树是否开启顺序统计创建节点
+    private Node<K, V> newNode(K k, V v, Node<K, V> left, Node<K, V> right, boolean color) {
+        return newNode(k, v, left, right, color, orderStatistics);
+    }
+
+    private static <K extends Comparable<K>, V> Node<K, V> newNode(K k, V v, Node<K, V> left, Node<K, V> right,
+                                                                   boolean color, boolean counted) {
+        return counted ? new CountedNode<K, V>(k, v, left, right, color) : new Node<K, V>(k, v, left, right, color);
+    }
+
+    // counted 开启了顺序统计的树中所有节点都是 CountedNode
+    private static CountedNode<?, ?> counted(Node<?, ?> node) {
+        return (CountedNode<?, ?>) node;
+    }
+
+    // updateCount 根据两个孩子重新计算node的子树大小
+    private static void updateCount(Node<?, ?> node) {
+        counted(node).count = 1 + count(node.left) + count(node.right);
+    }
+
+    // count 获取子树的节点个数, 空子树为0, 只能用于开启了顺序统计的树
+    private static int count(Node<?, ?> node) {
+        return node == null ? 0 : counted(node).count;
     }
 
     /**
@@ -126,6 +335,711 @@ public class RedBlackTree<K extends Comparable<K>, V> {
         return node != null && node.color == RED;
     }
 
+    /**
+     * remove 从红黑树中删除键
+     * 自顶向下删除: 向下走时用 moveRedLeft/moveRedRight 保证当前节点或它的孩子是红色,
+     * 这样在底部删除的节点一定不是2-node; 返回时用 balance 修复路径上留下的右倾红链接和临时4-node
+     * @param k 要删除的键
+     * @return 返回被删除的键对应的值, 键不存在时返回null
+     */
+    public V remove(K k) {
+        removeComparisons = 0;
+        Node<K, V> node = root;
+        while (node != null) {
+            if (TreeStats.ENABLED) {
+                removeComparisons++;
+            }
+            int cmp = k.compareTo(node.key);
+            if (cmp < 0) {
+                node = node.left;
+            } else if (cmp > 0) {
+                node = node.right;
+            } else {
+                break;
+            }
+        }
+        if (node == null) {
+            if (TreeStats.ENABLED) {
+                stats.recordOperation(removeComparisons);
+            }
+            return null;
+        }
+
+        V value = node.value;
+        prepareRoot();
+        root = remove(root, k);
+        finishRemove();
+        if (TreeStats.ENABLED) {
+            stats.recordOperation(removeComparisons);
+        }
+        return value;
+    }
+
+    private Node<K, V> remove(Node<K, V> node, K k) {
+        if (compareForRemove(k, node) < 0) {
+            if (!isRed(node.left) && !isRed(node.left.left)) {
+                node = moveRedLeft(node);
+            }
+            node.left = remove(node.left, k);
+        } else {
+            if (isRed(node.left)) {
+                node = rotateRight(node);
+            }
+            if (compareForRemove(k, node) == 0 && node.right == null) {
+                return null;
+            }
+            if (!isRed(node.right) && !isRed(node.right.left)) {
+                node = moveRedRight(node);
+            }
+            if (compareForRemove(k, node) == 0) {
+                // 用右子树的最小节点替换当前节点, 再从右子树中删除它
+                Node<K, V> min = node.right;
+                while (min.left != null) {
+                    min = min.left;
+                }
+                node.key = min.key;
+                node.value = min.value;
+                node.right = removeMin(node.right);
+            } else {
+                node.right = remove(node.right, k);
+            }
+        }
+        return balance(node);
+    }
+
+    // compareForRemove 删除过程中的比较, 开启统计时同时计数
+    private int compareForRemove(K k, Node<K, V> node) {
+        if (TreeStats.ENABLED) {
+            removeComparisons++;
+        }
+        return k.compareTo(node.key);
+    }
+
+    /**
+     * removeMin 删除最小的键, 树为空时不做任何修改
+     */
+    public void removeMin() {
+        if (root == null) {
+            return;
+        }
+        prepareRoot();
+        root = removeMin(root);
+        finishRemove();
+    }
+
+    private Node<K, V> removeMin(Node<K, V> node) {
+        if (node.left == null) {
+            return null;
+        }
+        if (!isRed(node.left) && !isRed(node.left.left)) {
+            node = moveRedLeft(node);
+        }
+        node.left = removeMin(node.left);
+        return balance(node);
+    }
+
+    /**
+     * removeMax 删除最大的键, 树为空时不做任何修改
+     */
+    public void removeMax() {
+        if (root == null) {
+            return;
+        }
+        prepareRoot();
+        root = removeMax(root);
+        finishRemove();
+    }
+
+    private Node<K, V> removeMax(Node<K, V> node) {
+        if (isRed(node.left)) {
+            node = rotateRight(node);
+        }
+        if (node.right == null) {
+            return null;
+        }
+        if (!isRed(node.right) && !isRed(node.right.left)) {
+            node = moveRedRight(node);
+        }
+        node.right = removeMax(node.right);
+        return balance(node);
+    }
+
+    /**
+     * pollFirst 删除并返回最小的键值对
+     * @return 返回被删除的键值对, 树为空时返回null
+     */
+    public Map.Entry<K, V> pollFirst() {
+        if (root == null) {
+            return null;
+        }
+        Node<K, V> node = root;
+        while (node.left != null) {
+            node = node.left;
+        }
+        Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<>(node.key, node.value);
+        removeMin();
+        return entry;
+    }
+
+    /**
+     * pollLast 删除并返回最大的键值对
+     * @return 返回被删除的键值对, 树为空时返回null
+     */
+    public Map.Entry<K, V> pollLast() {
+        if (root == null) {
+            return null;
+        }
+        Node<K, V> node = root;
+        while (node.right != null) {
+            node = node.right;
+        }
+        Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<>(node.key, node.value);
+        removeMax();
+        return entry;
+    }
+
+    // prepareRoot 根节点的两个孩子都是黑色时把根节点染红, 让向下的第一步可以从根节点借红链接
+    private void prepareRoot() {
+        finger = -1;
+        if (!isRed(root.left) && !isRed(root.right)) {
+            root.color = RED;
+        }
+    }
+
+    private void finishRemove() {
+        size--;
+        if (root != null) {
+            root.color = BLACK;
+        }
+    }
+
+    /**
+     * moveRedLeft node是红色且左孩子和左孩子的左孩子都是黑色时, 让左孩子或它的一个孩子变为红色
+     * 先翻转颜色和右孩子合并为4-node, 右孩子是3-node时再通过旋转从右孩子借一个节点
+     */
+    private Node<K, V> moveRedLeft(Node<K, V> node) {
+        if (TreeStats.ENABLED) {
+            stats.recordMerge();
+        }
+        flipColor(node);
+        if (isRed(node.right.left)) {
+            node.right = rotateRight(node.right);
+            node = rotateLeft(node);
+            flipColor(node);
+        }
+        return node;
+    }
+
+    /**
+     * moveRedRight node是红色且右孩子和右孩子的左孩子都是黑色时, 让右孩子或它的一个孩子变为红色
+     */
+    private Node<K, V> moveRedRight(Node<K, V> node) {
+        if (TreeStats.ENABLED) {
+            stats.recordMerge();
+        }
+        flipColor(node);
+        if (isRed(node.left.left)) {
+            node = rotateRight(node);
+            flipColor(node);
+        }
+        return node;
+    }
+
+    /**
+     * balance 删除返回时修复node, 与插入时的三种修复相同
+     * 子树的节点个数在旋转之前更新, 旋转依赖它是正确的
+     */
+    private Node<K, V> balance(Node<K, V> node) {
+        if (orderStatistics) {
+            updateCount(node);
+        }
+
+        if (isRed(node.right) && !isRed(node.left)) {
+            node = rotateLeft(node);
+        }
+        if (isRed(node.left) && isRed(node.left.left)) {
+            node = rotateRight(node);
+        }
+        if (isRed(node.left) && isRed(node.right)) {
+            flipColor(node);
+        }
+        return node;
+    }
+
+    /**
+     * get 查找键对应的值
+     * 查找最多走 MAX_HEIGHT 层, 合法的树不会达到这个深度; 这让乐观读(与写并发)在看到不一致的链接时也一定会结束
+     * @param k 要查找的键
+     * @return 返回键对应的值, 键不存在时返回null
+     */
+    public V get(K k) {
+        Node<K, V> node = root;
+        int depth = 0;
+        for (; node != null && depth < MAX_HEIGHT; depth++) {
+            int cmp = k.compareTo(node.key);
+            if (cmp < 0) {
+                node = node.left;
+            } else if (cmp > 0) {
+                node = node.right;
+            } else {
+                if (TreeStats.ENABLED) {
+                    stats.recordOperation(depth + 1);
+                }
+                return node.value;
+            }
+        }
+        if (TreeStats.ENABLED) {
+            stats.recordOperation(depth);
+        }
+        return null;
+    }
+
+    /**
+     * containsKey 判断键是否存在, 与 get 不同, 值为null的键也返回true
+     * @param k 要查找的键
+     * @return 键存在时返回true
+     */
+    public boolean containsKey(K k) {
+        Node<K, V> node = root;
+        int depth = 0;
+        for (; node != null && depth < MAX_HEIGHT; depth++) {
+            int cmp = k.compareTo(node.key);
+            if (cmp < 0) {
+                node = node.left;
+            } else if (cmp > 0) {
+                node = node.right;
+            } else {
+                if (TreeStats.ENABLED) {
+                    stats.recordOperation(depth + 1);
+                }
+                return true;
+            }
+        }
+        if (TreeStats.ENABLED) {
+            stats.recordOperation(depth);
+        }
+        return false;
+    }
+
+    /**
+     * floor 查找不大于k的最大键
+     * @param k 要查找的键
+     * @return 返回不大于k的最大键, 不存在时返回null
+     */
+    public K floor(K k) {
+        Node<K, V> node = root;
+        K floor = null;
+        while (node != null) {
+            int cmp = k.compareTo(node.key);
+            if (cmp < 0) {
+                node = node.left;
+            } else if (cmp > 0) {
+                floor = node.key;
+                node = node.right;
+            } else {
+                return node.key;
+            }
+        }
+        return floor;
+    }
+
+    /**
+     * ceiling 查找不小于k的最小键
+     * @param k 要查找的键
+     * @return 返回不小于k的最小键, 不存在时返回null
+     */
+    public K ceiling(K k) {
+        Node<K, V> node = root;
+        K ceiling = null;
+        while (node != null) {
+            int cmp = k.compareTo(node.key);
+            if (cmp < 0) {
+                ceiling = node.key;
+                node = node.left;
+            } else if (cmp > 0) {
+                node = node.right;
+            } else {
+                return node.key;
+            }
+        }
+        return ceiling;
+    }
+
+    /**
+     * rank 计算小于k的键的个数, 需要开启顺序统计
+     * @param k 要查找的键
+     * @return 返回小于k的键的个数
+     * @throws UnsupportedOperationException 没有开启顺序统计时抛出
+     */
+    public int rank(K k) {
+        checkOrderStatistics();
+        int rank = 0;
+        Node<K, V> node = root;
+        while (node != null) {
+            int cmp = k.compareTo(node.key);
+            if (cmp < 0) {
+                node = node.left;
+            } else if (cmp > 0) {
+                rank += 1 + count(node.left);
+                node = node.right;
+            } else {
+                return rank + count(node.left);
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * select 查找升序排列后第index个键(从0开始), 需要开启顺序统计
+     * @param index 键的名次
+     * @return 返回第index个键
+     * @throws IndexOutOfBoundsException index不在 [0, size) 范围内时抛出
+     * @throws UnsupportedOperationException 没有开启顺序统计时抛出
+     */
+    public K select(int index) {
+        checkOrderStatistics();
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " out of bounds for size " + size);
+        }
+
+        Node<K, V> node = root;
+        while (true) {
+            int leftCount = count(node.left);
+            if (index < leftCount) {
+                node = node.left;
+            } else if (index > leftCount) {
+                index -= leftCount + 1;
+                node = node.right;
+            } else {
+                return node.key;
+            }
+        }
+    }
+
+    /**
+     * countInRange 计算 [lo, hi) 范围内的键的个数, 需要开启顺序统计
+     * @param lo 范围下界(包含)
+     * @param hi 范围上界(不包含)
+     * @return 返回范围内的键的个数
+     * @throws UnsupportedOperationException 没有开启顺序统计时抛出
+     */
+    public int countInRange(K lo, K hi) {
+        if (lo.compareTo(hi) >= 0) {
+            checkOrderStatistics();
+            return 0;
+        }
+        return rank(hi) - rank(lo);
+    }
+
+    private void checkOrderStatistics() {
+        if (!orderStatistics) {
+            throw new UnsupportedOperationException("order statistics are not enabled for this tree");
+        }
+    }
+
+    /**
+     * cursor 创建一个尚未定位的游标, 同一个游标可以通过 seek 反复定位
+     * @return 返回新的游标
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * subRange 创建一个定位在 [lo, hi) 范围上的游标
+     * @param lo 范围下界(包含), 为null时从最小的键开始
+     * @param hi 范围上界(不包含), 为null时到最大的键结束
+     * @return 返回定位好的游标
+     */
+    public Cursor subRange(K lo, K hi) {
+        return new Cursor().seek(lo, hi);
+    }
+
+    /**
+     * Cursor 按键的升序遍历一个范围的游标
+     * 游标持有一个预先分配的栈(大小为 2*log2(n) 级别), 定位和遍历都不再分配内存,
+     * 树的大小没有超过创建(或上次扩容)时的规模时, 反复 seek 也不会分配内存
+     * 遍历过程中修改树之后需要重新 seek
+     *
+     * 用法:
+     * for (cursor.seek(lo, hi); cursor.next(); ) { cursor.key(); cursor.value(); }
+     */
+    public final class Cursor {
+        private Node<K, V>[] stack;
+        private int top;
+        private K hi;
+        private Node<K, V> current;
+
+        private Cursor() {
+            stack = newStack(size);
+        }
+
+        /**
+         * seek 把游标定位到 [lo, hi) 范围的第一个键之前
+         * @param lo 范围下界(包含), 为null时从最小的键开始
+         * @param hi 范围上界(不包含), 为null时到最大的键结束
+         * @return 返回游标本身
+         */
+        public Cursor seek(K lo, K hi) {
+            // 左倾红黑树的高度不超过 2*log2(n+1), 树变大之后扩容
+            if (stack.length < stackCapacity(size)) {
+                stack = newStack(size);
+            }
+
+            this.hi = hi;
+            this.current = null;
+            top = 0;
+
+            // 从根向下找第一个不小于lo的节点, 路径上所有不小于lo的节点都是之后要访问的祖先
+            Node<K, V> node = root;
+            while (node != null) {
+                if (lo == null || lo.compareTo(node.key) <= 0) {
+                    stack[top++] = node;
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * next 移动到下一个键
+         * @return 还有下一个键时返回true
+         */
+        public boolean next() {
+            if (top == 0) {
+                current = null;
+                return false;
+            }
+
+            Node<K, V> node = stack[--top];
+            if (hi != null && hi.compareTo(node.key) <= 0) {
+                top = 0;
+                current = null;
+                return false;
+            }
+
+            current = node;
+            for (node = node.right; node != null; node = node.left) {
+                stack[top++] = node;
+            }
+            return true;
+        }
+
+        /**
+         * key 获取当前位置的键
+         * @return 返回当前位置的键
+         * @throws IllegalStateException 没有调用 next 或者已经遍历结束时抛出
+         */
+        public K key() {
+            return currentNode().key;
+        }
+
+        /**
+         * value 获取当前位置的值
+         * @return 返回当前位置的值
+         * @throws IllegalStateException 没有调用 next 或者已经遍历结束时抛出
+         */
+        public V value() {
+            return currentNode().value;
+        }
+
+        private Node<K, V> currentNode() {
+            if (current == null) {
+                throw new IllegalStateException("cursor is not positioned on an entry");
+            }
+            return current;
+        }
+    }
+
+    private static int stackCapacity(int size) {
+        return 2 * (32 - Integer.numberOfLeadingZeros(size + 1)) + 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K extends Comparable<K>, V> Node<K, V>[] newStack(int size) {
+        return (Node<K, V>[]) new Node[stackCapacity(size)];
+    }
+
+    /**
+     * forEach 按键的升序遍历所有元素
+     * @param action 对每个键值对执行的操作
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Node<K, V>[] stack = (Node<K, V>[]) new Node[MAX_HEIGHT];
+        int top = 0;
+        Node<K, V> node = root;
+        while (node != null || top > 0) {
+            while (node != null) {
+                stack[top++] = node;
+                node = node.left;
+            }
+            node = stack[--top];
+            action.accept(node.key, node.value);
+            node = node.right;
+        }
+    }
+
+    /**
+     * spliterator 按键的升序遍历所有元素, trySplit 沿树的结构把剩余的元素分为左子树和右子树两部分, 不需要先复制到数组
+     * 开启了顺序统计时子树大小已知, 拆分出的每一部分都是精确的大小(SIZED|SUBSIZED);
+     * 否则只有没有拆分过的 Spliterator 是SIZED, 拆分后按一半估计; 遍历期间不能修改树
+     * @return 返回覆盖所有元素的 Spliterator, 元素是不可修改的 Map.Entry
+     */
+    public Spliterator<Map.Entry<K, V>> spliterator() {
+        return new EntrySpliterator<K, V>(root, size, orderStatistics);
+    }
+
+    /**
+     * stream 按键的升序遍历所有元素的顺序流
+     * @return 返回元素为 Map.Entry 的流
+     */
+    public Stream<Map.Entry<K, V>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * parallelStream 沿树的结构拆分的并行流, 在 ForkJoinPool.commonPool 中执行
+     * @return 返回元素为 Map.Entry 的并行流
+     */
+    public Stream<Map.Entry<K, V>> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * EntrySpliterator 剩余的元素依次是: 子树current中的所有元素, 然后从栈顶到栈底的每个节点和它的右子树;
+     * fenced 为true时栈底节点的右子树已经拆分给了后一部分, 只剩栈底节点本身
+     */
+    private static final class EntrySpliterator<K extends Comparable<K>, V> implements Spliterator<Map.Entry<K, V>> {
+        private Node<K, V> current;
+        private final Node<K, V>[] stack;
+        private int top;
+        private boolean fenced;
+
+        // 节点中的子树大小是否有效, 有效时estimate总是精确的
+        private final boolean counted;
+
+        // 没有子树大小时, 拆分之后estimate只是估计值
+        private boolean estimated;
+        private long estimate;
+
+        @SuppressWarnings("unchecked")
+        EntrySpliterator(Node<K, V> current, long estimate, boolean counted) {
+            this.current = current;
+            this.stack = (Node<K, V>[]) new Node[MAX_HEIGHT];
+            this.estimate = estimate;
+            this.counted = counted;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Map.Entry<K, V>> action) {
+            Node<K, V> node = next();
+            if (node == null) {
+                return false;
+            }
+            action.accept(new AbstractMap.SimpleImmutableEntry<>(node.key, node.value));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Map.Entry<K, V>> action) {
+            for (Node<K, V> node = next(); node != null; node = next()) {
+                action.accept(new AbstractMap.SimpleImmutableEntry<>(node.key, node.value));
+            }
+        }
+
+        // next 中序遍历的下一个节点, 没有剩余元素时返回null
+        private Node<K, V> next() {
+            while (current != null) {
+                stack[top++] = current;
+                current = current.left;
+            }
+            if (top == 0) {
+                return null;
+            }
+            Node<K, V> node = stack[--top];
+            if (top == 0 && fenced) {
+                fenced = false;
+                current = null;
+            } else {
+                current = node.right;
+            }
+            if (estimate > 0) {
+                estimate--;
+            }
+            return node;
+        }
+
+        /**
+         * trySplit 优先从栈底开始找第一个右子树还属于自己的节点, 把它的右子树留给自己, 它和它之前的元素拆分出去;
+         * 栈底节点的右子树是剩余元素中最大的一块; 没有这样的节点时在current的根节点处拆分
+         */
+        @Override
+        public Spliterator<Map.Entry<K, V>> trySplit() {
+            for (int i = fenced ? 1 : 0; i < top; i++) {
+                Node<K, V> node = stack[i];
+                if (node.right != null) {
+                    EntrySpliterator<K, V> prefix = new EntrySpliterator<K, V>(current, 0, counted);
+                    System.arraycopy(stack, i, prefix.stack, 0, top - i);
+                    prefix.top = top - i;
+                    prefix.fenced = true;
+                    current = node.right;
+                    top = i;
+                    return divide(prefix);
+                }
+            }
+            if (current != null && current.left != null) {
+                EntrySpliterator<K, V> prefix = new EntrySpliterator<K, V>(current.left, 0, counted);
+                prefix.stack[0] = current;
+                prefix.top = 1;
+                prefix.fenced = true;
+                current = current.right;
+                return divide(prefix);
+            }
+            return null;
+        }
+
+        // divide 计算拆分出的前一部分和剩下的部分各自的大小
+        private EntrySpliterator<K, V> divide(EntrySpliterator<K, V> prefix) {
+            if (counted) {
+                long n = count(prefix.current) + 1;
+                for (int i = 1; i < prefix.top; i++) {
+                    n += 1 + count(prefix.stack[i].right);
+                }
+                prefix.estimate = n;
+            } else {
+                prefix.estimate = estimate >>> 1;
+                prefix.estimated = true;
+                estimated = true;
+            }
+            estimate -= prefix.estimate;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            int characteristics = ORDERED | SORTED | DISTINCT | NONNULL;
+            if (counted) {
+                characteristics |= SIZED | SUBSIZED;
+            } else if (!estimated) {
+                characteristics |= SIZED;
+            }
+            return characteristics;
+        }
+
+        @Override
+        public Comparator<? super Map.Entry<K, V>> getComparator() {
+            return Map.Entry.comparingByKey();
+        }
+    }
+
     /**
      * size 获取当前红黑树的节点个数
      * @return 返回红黑树持有的节点个数值
@@ -134,6 +1048,732 @@ public class RedBlackTree<K extends Comparable<K>, V> {
         return size;
     }
 
+    /**
+     * stats 获取统计快照, 计数在 -Dtreestats.enabled=true 时才会累计
+     * 树高和节点形状需要遍历整棵树, 不要在热点路径上调用
+     * @return 返回统计快照, 红黑树中黑色节点和它的红色左孩子算作一个3-node
+     */
+    public TreeStats.Snapshot stats() {
+        int height = 0;
+        long twoNodes = 0;
+        long threeNodes = 0;
+
+        // 先序遍历, 栈中同时保存节点和它的深度
+        @SuppressWarnings("unchecked")
+        Node<K, V>[] stack = (Node<K, V>[]) new Node[MAX_HEIGHT + 1];
+        int[] depths = new int[MAX_HEIGHT + 1];
+        int top = 0;
+        if (root != null) {
+            stack[top] = root;
+            depths[top++] = 1;
+        }
+        while (top > 0) {
+            Node<K, V> node = stack[--top];
+            int depth = depths[top];
+            height = Math.max(height, depth);
+            if (!isRed(node)) {
+                if (isRed(node.left)) {
+                    threeNodes++;
+                } else {
+                    twoNodes++;
+                }
+            }
+            if (node.right != null) {
+                stack[top] = node.right;
+                depths[top++] = depth + 1;
+            }
+            if (node.left != null) {
+                stack[top] = node.left;
+                depths[top++] = depth + 1;
+            }
+        }
+        return stats.snapshot(height, size, twoNodes, threeNodes);
+    }
+
+    /**
+     * writeTo 把所有元素按键的升序写成二进制快照, 格式见 TreeSnapshot, 不关闭channel
+     * @param channel 写入的目标, 例如 FileChannel
+     * @param keyCodec 键的编码, 整数键可以使用 SnapshotCodecs.SORTED_INT/SORTED_LONG 做差分编码
+     * @param valueCodec 值的编码
+     */
+    public void writeTo(WritableByteChannel channel, SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec) throws IOException {
+        TreeSnapshot.write(channel, size, this::forEach, keyCodec, valueCodec);
+    }
+
+    /**
+     * writeTo 把所有元素写成二进制快照, 不关闭输出流
+     */
+    public void writeTo(OutputStream out, SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec) throws IOException {
+        writeTo(Channels.newChannel(out), keyCodec, valueCodec);
+    }
+
+    /**
+     * readFrom 读取 writeTo 写出的快照, 用 fromSorted 线性构造红黑树, 不关闭channel
+     * @param channel 读取的来源, 例如 FileChannel
+     * @param keyCodec 键的编码, 必须与写入时相同
+     * @param valueCodec 值的编码, 必须与写入时相同
+     * @return 返回构造好的红黑树
+     * @throws java.io.StreamCorruptedException 快照损坏时抛出
+     */
+    public static <K extends Comparable<K>, V> RedBlackTree<K, V> readFrom(ReadableByteChannel channel, SnapshotCodec<K> keyCodec,
+                                                                            SnapshotCodec<V> valueCodec) throws IOException {
+        return TreeSnapshot.read(channel, keyCodec, valueCodec, RedBlackTree::fromSorted);
+    }
+
+    /**
+     * readFrom 从输入流读取快照, 不关闭输入流
+     */
+    public static <K extends Comparable<K>, V> RedBlackTree<K, V> readFrom(InputStream in, SnapshotCodec<K> keyCodec,
+                                                                            SnapshotCodec<V> valueCodec) throws IOException {
+        return readFrom(Channels.newChannel(in), keyCodec, valueCodec);
+    }
+
+    /**
+     * fromSorted 用严格升序的键值数组线性构造一棵平衡的红黑树
+     * 树的形状按2-3树分配: 尽量使用2-node, 只在最底层附近用红色左孩子组成3-node; 构造出的树不开启顺序统计
+     * @param keys 严格升序的键
+     * @param values 与键一一对应的值
+     * @return 返回构造好的红黑树
+     * @throws IllegalArgumentException 键不是严格升序或者键值个数不同时抛出
+     */
+    public static <K extends Comparable<K>, V> RedBlackTree<K, V> fromSorted(K[] keys, V[] values) {
+        return fromSorted(keys, values, false);
+    }
+
+    /**
+     * fromSorted 用严格升序的键值数组线性构造一棵平衡的红黑树
+     * @param orderStatistics 是否开启顺序统计, 开启时构造过程中顺便算出子树大小, 之后每次修改都要维护它
+     */
+    public static <K extends Comparable<K>, V> RedBlackTree<K, V> fromSorted(K[] keys, V[] values, boolean orderStatistics) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys and values differ in length: " + keys.length + " != " + values.length);
+        }
+        for (int i = 1; i < keys.length; i++) {
+            checkAscending(keys[i - 1], keys[i], i);
+        }
+
+        RedBlackTree<K, V> tree = new RedBlackTree<>(orderStatistics);
+        tree.root = build(keys, values, 0, keys.length, heightFor(keys.length), orderStatistics);
+        tree.size = keys.length;
+        return tree;
+    }
+
+    /**
+     * bulkLoad 用按键严格升序的迭代器线性构造一棵平衡的红黑树, 迭代时同时检查键的顺序
+     * @param entries 按键严格升序的键值对
+     * @return 返回构造好的红黑树, 不开启顺序统计
+     * @throws IllegalArgumentException 键不是严格升序时抛出
+     */
+    public static <K extends Comparable<K>, V> RedBlackTree<K, V> bulkLoad(Iterator<Map.Entry<K, V>> entries) {
+        return bulkLoad(entries, false);
+    }
+
+    /**
+     * bulkLoad 用按键严格升序的迭代器线性构造一棵平衡的红黑树
+     * @param orderStatistics 是否开启顺序统计
+     */
+    @SuppressWarnings("unchecked")
+    public static <K extends Comparable<K>, V> RedBlackTree<K, V> bulkLoad(Iterator<Map.Entry<K, V>> entries,
+                                                                           boolean orderStatistics) {
+        List<K> keys = new ArrayList<>();
+        List<V> values = new ArrayList<>();
+        K previous = null;
+        while (entries.hasNext()) {
+            Map.Entry<K, V> entry = entries.next();
+            K key = entry.getKey();
+            if (previous != null) {
+                checkAscending(previous, key, keys.size());
+            }
+            keys.add(key);
+            values.add(entry.getValue());
+            previous = key;
+        }
+
+        RedBlackTree<K, V> tree = new RedBlackTree<>(orderStatistics);
+        tree.root = build((K[]) keys.toArray(new Comparable[0]), (V[]) values.toArray(), 0, keys.size(),
+                heightFor(keys.size()), orderStatistics);
+        tree.size = keys.size();
+        return tree;
+    }
+
+    private static <K extends Comparable<K>> void checkAscending(K previous, K key, int index) {
+        if (previous.compareTo(key) >= 0) {
+            throw new IllegalArgumentException("keys are not strictly ascending at index " + index);
+        }
+    }
+
+    /**
+     * heightFor 计算n个元素对应的2-3树高度(即红黑树的黑高), 取能容纳n个元素的最大高度, 让2-node尽量多
+     */
+    private static int heightFor(int n) {
+        return 31 - Integer.numberOfLeadingZeros(n + 1);
+    }
+
+    // maxKeys 高度为height的2-3树最多能容纳的元素个数 3^height - 1
+    private static long maxKeys(int height) {
+        long keys = 1;
+        for (int i = 0; i < height; i++) {
+            keys *= 3;
+        }
+        return keys - 1;
+    }
+
+    /**
+     * build 把 keys[lo, hi) 构造为黑高为height的子树
+     * 调用方保证 2^height - 1 <= hi - lo <= 3^height - 1
+     * 元素个数允许时构造2-node, 否则构造3-node(黑色节点加红色左孩子), 三棵子树平分剩下的元素
+     * @param counted 是否构造带子树大小的节点
+     * @return 返回黑色的子树根节点
+     */
+    private static <K extends Comparable<K>, V> Node<K, V> build(K[] keys, V[] values, int lo, int hi, int height,
+                                                                 boolean counted) {
+        int n = hi - lo;
+        if (n == 0) {
+            return null;
+        }
+
+        if (fitsTwoNode(n, height)) {
+            int mid = twoNodeKey(lo, n);
+            return newNode(keys[mid], values[mid],
+                    build(keys, values, lo, mid, height - 1, counted),
+                    build(keys, values, mid + 1, hi, height - 1, counted), BLACK, counted);
+        }
+
+        int leftKey = threeNodeLeftKey(lo, n);
+        int rightKey = threeNodeRightKey(lo, n);
+        Node<K, V> redLeft = newNode(keys[leftKey], values[leftKey],
+                build(keys, values, lo, leftKey, height - 1, counted),
+                build(keys, values, leftKey + 1, rightKey, height - 1, counted), RED, counted);
+        return newNode(keys[rightKey], values[rightKey], redLeft,
+                build(keys, values, rightKey + 1, hi, height - 1, counted), BLACK, counted);
+    }
+
+    // fitsTwoNode 高度为height, 包含n个元素的子树的根节点能否是2-node
+    private static boolean fitsTwoNode(int n, int height) {
+        return n <= 2 * maxKeys(height - 1) + 1;
+    }
+
+    // twoNodeKey 2-node根节点的下标, 两棵子树平分其余元素
+    private static int twoNodeKey(int lo, int n) {
+        return lo + (n - 1) / 2;
+    }
+
+    // threeNodeLeftKey/threeNodeRightKey 3-node根节点的两个键的下标, 三棵子树平分其余元素
+    private static int threeNodeLeftKey(int lo, int n) {
+        return lo + (n - 2) / 3;
+    }
+
+    private static int threeNodeRightKey(int lo, int n) {
+        int a = (n - 2) / 3;
+        return lo + a + 1 + (n - 2 - a) / 2;
+    }
+
+    /**
+     * parallelBuild 用无序的键值数组并行构造一棵平衡的红黑树
+     * 先并行创建节点并按键并行排序(稳定排序, 重复的键保留第一次出现的值, 与逐个add的结果一致),
+     * 再在ForkJoinPool中并行链接左右子树, 树的形状与 fromSorted 构造的完全相同
+     * 在某个ForkJoinPool的任务中调用时使用该线程池, 否则使用公共线程池
+     * @param keys 任意顺序的键
+     * @param values 与键一一对应的值
+     * @return 返回构造好的红黑树, 不开启顺序统计
+     * @throws IllegalArgumentException 键值个数不同时抛出
+     */
+    public static <K extends Comparable<K>, V> RedBlackTree<K, V> parallelBuild(K[] keys, V[] values) {
+        return parallelBuild(keys, values, false);
+    }
+
+    /**
+     * parallelBuild 用无序的键值数组并行构造一棵平衡的红黑树
+     * @param orderStatistics 是否开启顺序统计
+     */
+    @SuppressWarnings("unchecked")
+    public static <K extends Comparable<K>, V> RedBlackTree<K, V> parallelBuild(K[] keys, V[] values, boolean orderStatistics) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys and values differ in length: " + keys.length + " != " + values.length);
+        }
+
+        Node<K, V>[] nodes = (Node<K, V>[]) new Node[keys.length];
+        Arrays.parallelSetAll(nodes, i -> newNode(keys[i], values[i], null, null, BLACK, orderStatistics));
+        Arrays.parallelSort(nodes, (a, b) -> a.key.compareTo(b.key));
+
+        int n = nodes.length;
+        boolean duplicated = IntStream.range(1, n).parallel()
+                .anyMatch(i -> nodes[i - 1].key.compareTo(nodes[i].key) == 0);
+        if (duplicated) {
+            n = 1;
+            for (int i = 1; i < nodes.length; i++) {
+                if (nodes[n - 1].key.compareTo(nodes[i].key) != 0) {
+                    nodes[n++] = nodes[i];
+                }
+            }
+        }
+
+        RedBlackTree<K, V> tree = new RedBlackTree<>(orderStatistics);
+        if (n > 0) {
+            tree.root = new LinkTask<K, V>(nodes, 0, n, heightFor(n)).invoke();
+        }
+        tree.size = n;
+        return tree;
+    }
+
+    /**
+     * LinkTask 把已经排好序的节点 nodes[lo, hi) 链接为黑高为height的子树
+     * 按与 build 相同的规则划分, 子树足够大时并行构造
+     */
+    private static final class LinkTask<K extends Comparable<K>, V> extends RecursiveTask<Node<K, V>> {
+        private static final long serialVersionUID = 1L;
+
+        // 小于这个元素个数的子树直接在当前线程中构造
+        private static final int SEQUENTIAL_THRESHOLD = 1 << 13;
+
+        private final Node<K, V>[] nodes;
+        private final int lo, hi, height;
+
+        LinkTask(Node<K, V>[] nodes, int lo, int hi, int height) {
+            this.nodes = nodes;
+            this.lo = lo;
+            this.hi = hi;
+            this.height = height;
+        }
+
+        @Override
+        protected Node<K, V> compute() {
+            return hi - lo < SEQUENTIAL_THRESHOLD ? link(nodes, lo, hi, height) : linkParallel();
+        }
+
+        private Node<K, V> linkParallel() {
+            int n = hi - lo;
+            if (fitsTwoNode(n, height)) {
+                int mid = twoNodeKey(lo, n);
+                LinkTask<K, V> left = new LinkTask<K, V>(nodes, lo, mid, height - 1);
+                left.fork();
+                Node<K, V> right = new LinkTask<K, V>(nodes, mid + 1, hi, height - 1).compute();
+                return attach(nodes[mid], left.join(), right, BLACK);
+            }
+
+            int leftKey = threeNodeLeftKey(lo, n);
+            int rightKey = threeNodeRightKey(lo, n);
+            LinkTask<K, V> left = new LinkTask<K, V>(nodes, lo, leftKey, height - 1);
+            LinkTask<K, V> middle = new LinkTask<K, V>(nodes, leftKey + 1, rightKey, height - 1);
+            left.fork();
+            middle.fork();
+            Node<K, V> right = new LinkTask<K, V>(nodes, rightKey + 1, hi, height - 1).compute();
+            Node<K, V> redLeft = attach(nodes[leftKey], left.join(), middle.join(), RED);
+            return attach(nodes[rightKey], redLeft, right, BLACK);
+        }
+
+        private static <K extends Comparable<K>, V> Node<K, V> link(Node<K, V>[] nodes, int lo, int hi, int height) {
+            int n = hi - lo;
+            if (n == 0) {
+                return null;
+            }
+
+            if (fitsTwoNode(n, height)) {
+                int mid = twoNodeKey(lo, n);
+                return attach(nodes[mid], link(nodes, lo, mid, height - 1), link(nodes, mid + 1, hi, height - 1), BLACK);
+            }
+
+            int leftKey = threeNodeLeftKey(lo, n);
+            int rightKey = threeNodeRightKey(lo, n);
+            Node<K, V> redLeft = attach(nodes[leftKey],
+                    link(nodes, lo, leftKey, height - 1), link(nodes, leftKey + 1, rightKey, height - 1), RED);
+            return attach(nodes[rightKey], redLeft, link(nodes, rightKey + 1, hi, height - 1), BLACK);
+        }
+
+        private static <K extends Comparable<K>, V> Node<K, V> attach(Node<K, V> node, Node<K, V> left, Node<K, V> right, boolean color) {
+            node.left = left;
+            node.right = right;
+            node.color = color;
+            if (node instanceof CountedNode) {
+                updateCount(node);
+            }
+            return node;
+        }
+    }
+
+    /**
+     * join 用一个新键把两棵树连接为一棵红黑树, left中的键都小于key, right中的键都大于key
+     * 沿黑高较大的那棵树的右(左)边界向下找到黑高与另一棵树相同的黑色节点, 用红色的新节点替换它, 再像插入一样向上修复,
+     * 复杂度为 O(|两棵树的黑高之差| + 1); 两棵树的节点直接被新树使用, 调用后left和right都变为空树
+     * 两棵树都开启了顺序统计时, 连接后的树也开启顺序统计
+     * @param left 键都小于key的树
+     * @param key 连接用的键
+     * @param value 连接用的键对应的值
+     * @param right 键都大于key的树
+     * @return 返回连接后的树
+     * @throws IllegalArgumentException 键的顺序不满足要求, 或者left和right是同一棵树时抛出
+     */
+    public static <K extends Comparable<K>, V> RedBlackTree<K, V> join(RedBlackTree<K, V> left, K key, V value,
+                                                                        RedBlackTree<K, V> right) {
+        if (left == right) {
+            throw new IllegalArgumentException("cannot join a tree with itself");
+        }
+        if (left.root != null && max(left.root).key.compareTo(key) >= 0) {
+            throw new IllegalArgumentException("left tree has a key not less than " + key);
+        }
+        if (right.root != null && min(right.root).key.compareTo(key) <= 0) {
+            throw new IllegalArgumentException("right tree has a key not greater than " + key);
+        }
+
+        RedBlackTree<K, V> tree = new RedBlackTree<>(left.orderStatistics && right.orderStatistics);
+        tree.root = tree.join(left.root, blackHeight(left.root), tree.newNode(key, value, null, null, RED), right.root, blackHeight(right.root));
+        tree.root.color = BLACK;
+        tree.size = left.size + right.size + 1;
+        left.clear();
+        right.clear();
+        return tree;
+    }
+
+    /**
+     * split 把键不小于key的元素移到一棵新树中, 这棵树只保留键小于key的元素
+     * 沿查找key的路径把两侧挂着的子树依次 join 起来, 复杂度 O(log n)
+     * 开启顺序统计时两棵树的元素个数直接从子树大小得到, 否则需要遍历返回的树来计算
+     * @param key 分割点, 它本身(如果存在)属于返回的树
+     * @return 返回键不小于key的元素组成的树
+     */
+    public RedBlackTree<K, V> split(K key) {
+        RedBlackTree<K, V> high = new RedBlackTree<>(orderStatistics);
+        if (root == null) {
+            return high;
+        }
+
+        Split<K, V> parts = new Split<>();
+        split(root, blackHeight(root), key, parts);
+        Node<K, V> right = parts.right;
+        if (parts.middle != null) {
+            right = join(null, 0, parts.middle, right, parts.rightHeight);
+        }
+
+        root = parts.left;
+        if (root != null) {
+            root.color = BLACK;
+        }
+        high.root = right;
+        if (right != null) {
+            right.color = BLACK;
+        }
+        high.size = orderStatistics ? count(right) : countNodes(right);
+        size -= high.size;
+        finger = -1;
+        return high;
+    }
+
+    /**
+     * union 计算两棵树的并集, 键在两棵树中都存在时保留a中的值
+     * 用a的根节点分割b, 递归合并两侧后再用a的根节点 join 起来; 两侧的子问题互不相关, 足够大时交给 ForkJoinPool 并行执行,
+     * 元素个数为m和n(m <= n)时总的工作量为 O(m log(n/m + 1))
+     * 两棵树的节点直接被结果使用, 调用后a和b都变为空树; 两棵树都开启了顺序统计时结果也开启顺序统计
+     * @return 返回并集
+     */
+    public static <K extends Comparable<K>, V> RedBlackTree<K, V> union(RedBlackTree<K, V> a, RedBlackTree<K, V> b) {
+        return setOperation(UNION, a, b);
+    }
+
+    /**
+     * intersection 计算两棵树的交集, 保留a中的值; 复杂度和对输入的影响与 union 相同
+     * @return 返回交集
+     */
+    public static <K extends Comparable<K>, V> RedBlackTree<K, V> intersection(RedBlackTree<K, V> a, RedBlackTree<K, V> b) {
+        return setOperation(INTERSECTION, a, b);
+    }
+
+    /**
+     * difference 计算a中不在b中的元素; 复杂度和对输入的影响与 union 相同
+     * @return 返回差集
+     */
+    public static <K extends Comparable<K>, V> RedBlackTree<K, V> difference(RedBlackTree<K, V> a, RedBlackTree<K, V> b) {
+        return setOperation(DIFFERENCE, a, b);
+    }
+
+    private static <K extends Comparable<K>, V> RedBlackTree<K, V> setOperation(int op, RedBlackTree<K, V> a, RedBlackTree<K, V> b) {
+        if (a == b) {
+            throw new IllegalArgumentException("both operands are the same tree");
+        }
+
+        RedBlackTree<K, V> result = new RedBlackTree<>(a.orderStatistics && b.orderStatistics);
+        RedBlackTree<K, V>.SetTask task = result.new SetTask(op, a.root, blackHeight(a.root), b.root, blackHeight(b.root));
+        task.invoke();
+
+        result.root = task.root;
+        if (result.root != null) {
+            result.root.color = BLACK;
+        }
+        if (op == UNION) {
+            result.size = (int) (a.size + b.size - task.common);
+        } else if (op == INTERSECTION) {
+            result.size = (int) task.common;
+        } else {
+            result.size = (int) (a.size - task.common);
+        }
+        a.clear();
+        b.clear();
+        return result;
+    }
+
+    // 集合操作的种类
+    private static final int UNION = 0;
+    private static final int INTERSECTION = 1;
+    private static final int DIFFERENCE = 2;
+
+    /**
+     * SetTask 对两棵子树a和b执行集合操作, 结果写入root/height, common是两棵子树共有的键的个数
+     * 子树的黑高不计入红色的根节点; 两棵子树的黑高都不小于 FORK_HEIGHT 时, 左侧的子问题交给其他线程,
+     * 否则在当前线程中递归完成, 递归过程中复用同一个任务的字段传递结果, 不再分配对象
+     */
+    private final class SetTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // 黑高为h的子树至少有 2^h - 1 个节点, 更小的子问题在当前线程中完成
+        private static final int FORK_HEIGHT = 10;
+
+        private final int op;
+        private final Node<K, V> a, b;
+        private final int aHeight, bHeight;
+        private final Split<K, V> parts = new Split<>();
+
+        private Node<K, V> root;
+        private int height;
+        private long common;
+
+        SetTask(int op, Node<K, V> a, int aHeight, Node<K, V> b, int bHeight) {
+            this.op = op;
+            this.a = a;
+            this.aHeight = aHeight;
+            this.b = b;
+            this.bHeight = bHeight;
+        }
+
+        @Override
+        protected void compute() {
+            if (a == null || b == null || aHeight < FORK_HEIGHT || bHeight < FORK_HEIGHT) {
+                run(a, aHeight, b, bHeight);
+                return;
+            }
+
+            // 并集和交集用a的根节点分割b, 差集用b的根节点分割a
+            Node<K, V> pivot = op == DIFFERENCE ? b : a;
+            int pivotHeight = op == DIFFERENCE ? bHeight : aHeight;
+            int childHeight = isRed(pivot) ? pivotHeight : pivotHeight - 1;
+            SetTask left, right;
+            if (op == DIFFERENCE) {
+                split(a, aHeight, b.key, parts);
+                left = new SetTask(op, parts.left, parts.leftHeight, pivot.left, childHeight);
+                right = new SetTask(op, parts.right, parts.rightHeight, pivot.right, childHeight);
+            } else {
+                split(b, bHeight, a.key, parts);
+                left = new SetTask(op, pivot.left, childHeight, parts.left, parts.leftHeight);
+                right = new SetTask(op, pivot.right, childHeight, parts.right, parts.rightHeight);
+            }
+            boolean found = parts.middle != null;
+
+            left.fork();
+            right.compute();
+            left.join();
+
+            common = left.common + right.common;
+            combine(pivot, found, left.root, left.height, right.root, right.height);
+        }
+
+        // run 在当前线程中递归执行, 结果写入root/height, 共有的键累加到common
+        private void run(Node<K, V> a, int aHeight, Node<K, V> b, int bHeight) {
+            if (a == null || b == null) {
+                boolean keepA = op != INTERSECTION && b == null;
+                boolean keepB = op == UNION && a == null;
+                root = keepA ? a : keepB ? b : null;
+                height = keepA ? aHeight : keepB ? bHeight : 0;
+                return;
+            }
+
+            Node<K, V> pivot = op == DIFFERENCE ? b : a;
+            int pivotHeight = op == DIFFERENCE ? bHeight : aHeight;
+            int childHeight = isRed(pivot) ? pivotHeight : pivotHeight - 1;
+            Node<K, V> pivotLeft = pivot.left;
+            Node<K, V> pivotRight = pivot.right;
+            if (op == DIFFERENCE) {
+                split(a, aHeight, b.key, parts);
+            } else {
+                split(b, bHeight, a.key, parts);
+            }
+            boolean found = parts.middle != null;
+            Node<K, V> splitLeft = parts.left;
+            Node<K, V> splitRight = parts.right;
+            int splitLeftHeight = parts.leftHeight;
+            int splitRightHeight = parts.rightHeight;
+
+            if (op == DIFFERENCE) {
+                run(splitLeft, splitLeftHeight, pivotLeft, childHeight);
+            } else {
+                run(pivotLeft, childHeight, splitLeft, splitLeftHeight);
+            }
+            Node<K, V> leftRoot = root;
+            int leftHeight = height;
+            if (op == DIFFERENCE) {
+                run(splitRight, splitRightHeight, pivotRight, childHeight);
+            } else {
+                run(pivotRight, childHeight, splitRight, splitRightHeight);
+            }
+
+            combine(pivot, found, leftRoot, leftHeight, root, height);
+        }
+
+        // combine 连接两侧的结果: 并集总是保留a的根节点, 交集只在b中也有这个键时保留, 差集两个根节点都不保留
+        private void combine(Node<K, V> pivot, boolean found, Node<K, V> left, int leftHeight, Node<K, V> right, int rightHeight) {
+            if (found) {
+                common++;
+            }
+            if (op == UNION || (op == INTERSECTION && found)) {
+                height = joinedHeight(left, leftHeight, right, rightHeight);
+                root = RedBlackTree.this.join(left, leftHeight, pivot, right, rightHeight);
+            } else if (left == null) {
+                root = right;
+                height = rightHeight;
+            } else {
+                // 没有中间键时从left中分出最大的节点作为中间键
+                split(left, leftHeight, max(left).key, parts);
+                height = joinedHeight(parts.left, parts.leftHeight, right, rightHeight);
+                root = RedBlackTree.this.join(parts.left, parts.leftHeight, parts.middle, right, rightHeight);
+            }
+        }
+    }
+
+    /**
+     * Split split 的结果: 键小于分割点的子树, 键等于分割点的节点(不存在时为null), 键大于分割点的子树
+     */
+    private static final class Split<K extends Comparable<K>, V> {
+        private Node<K, V> left, middle, right;
+        private int leftHeight, rightHeight;
+    }
+
+    /**
+     * split 方法递归的按key分割子树
+     * 子树的黑高不计入红色的根节点, 分割出的子树的根节点可能是红色
+     * @param node 子树的根节点
+     * @param height 子树的黑高
+     * @param key 分割点
+     * @param parts 写入分割的结果
+     */
+    private void split(Node<K, V> node, int height, K key, Split<K, V> parts) {
+        if (node == null) {
+            parts.left = parts.middle = parts.right = null;
+            parts.leftHeight = parts.rightHeight = 0;
+            return;
+        }
+
+        int childHeight = isRed(node) ? height : height - 1;
+        Node<K, V> left = node.left;
+        Node<K, V> right = node.right;
+        int cmp = key.compareTo(node.key);
+        if (cmp == 0) {
+            parts.left = left;
+            parts.leftHeight = childHeight;
+            parts.middle = node;
+            parts.right = right;
+            parts.rightHeight = childHeight;
+        } else if (cmp < 0) {
+            split(left, childHeight, key, parts);
+            int joined = joinedHeight(parts.right, parts.rightHeight, right, childHeight);
+            parts.right = join(parts.right, parts.rightHeight, node, right, childHeight);
+            parts.rightHeight = joined;
+        } else {
+            split(right, childHeight, key, parts);
+            int joined = joinedHeight(left, childHeight, parts.left, parts.leftHeight);
+            parts.left = join(left, childHeight, node, parts.left, parts.leftHeight);
+            parts.leftHeight = joined;
+        }
+    }
+
+    /**
+     * join 方法用middle连接两棵子树, left中的键都小于middle的键, right中的键都大于middle的键
+     * 先把红色的根节点染黑, 黑高相同时middle成为红色的根节点, 否则沿较高的子树的边界向下插入middle
+     * @return 返回连接后的子树, 根节点可能是红色, 黑高为 joinedHeight(left, leftHeight, right, rightHeight)
+     */
+    private Node<K, V> join(Node<K, V> left, int leftHeight, Node<K, V> middle, Node<K, V> right, int rightHeight) {
+        if (isRed(left)) {
+            left.color = BLACK;
+            leftHeight++;
+        }
+        if (isRed(right)) {
+            right.color = BLACK;
+            rightHeight++;
+        }
+        if (leftHeight > rightHeight) {
+            return joinRight(left, leftHeight, middle, right, rightHeight);
+        }
+        if (leftHeight < rightHeight) {
+            return joinLeft(left, leftHeight, middle, right, rightHeight);
+        }
+        return attachRed(middle, left, right);
+    }
+
+    // joinRight 沿node的右边界向下, 左倾红黑树的右链接都是黑色的, 每向下一层黑高减一
+    private Node<K, V> joinRight(Node<K, V> node, int height, Node<K, V> middle, Node<K, V> right, int rightHeight) {
+        if (height == rightHeight) {
+            return attachRed(middle, node, right);
+        }
+        node.right = joinRight(node.right, height - 1, middle, right, rightHeight);
+        return balance(node);
+    }
+
+    // joinLeft 沿node的左边界向下找到黑高为leftHeight的黑色节点, 左边界上的红色节点不改变黑高
+    private Node<K, V> joinLeft(Node<K, V> left, int leftHeight, Node<K, V> middle, Node<K, V> node, int height) {
+        if (height == leftHeight && !isRed(node)) {
+            return attachRed(middle, left, node);
+        }
+        node.left = joinLeft(left, leftHeight, middle, node.left, isRed(node) ? height : height - 1);
+        return balance(node);
+    }
+
+    private Node<K, V> attachRed(Node<K, V> node, Node<K, V> left, Node<K, V> right) {
+        node.left = left;
+        node.right = right;
+        node.color = RED;
+        if (orderStatistics) {
+            updateCount(node);
+        }
+        return node;
+    }
+
+    // joinedHeight join 结果的黑高: 红色的根节点会被染黑, 结果的黑高是两侧中较大的那个
+    private int joinedHeight(Node<K, V> left, int leftHeight, Node<K, V> right, int rightHeight) {
+        return Math.max(isRed(left) ? leftHeight + 1 : leftHeight, isRed(right) ? rightHeight + 1 : rightHeight);
+    }
+
+    // blackHeight 从node沿左链接到叶子经过的黑色节点个数
+    private static int blackHeight(Node<?, ?> node) {
+        int height = 0;
+        for (; node != null; node = node.left) {
+            if (node.color == BLACK) {
+                height++;
+            }
+        }
+        return height;
+    }
+
+    private static <K extends Comparable<K>, V> Node<K, V> min(Node<K, V> node) {
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    private static <K extends Comparable<K>, V> Node<K, V> max(Node<K, V> node) {
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node;
+    }
+
+    private static int countNodes(Node<?, ?> node) {
+        return node == null ? 0 : 1 + countNodes(node.left) + countNodes(node.right);
+    }
+
+    // clear 节点被其他树使用之后清空这棵树
+    private void clear() {
+        root = null;
+        size = 0;
+        finger = -1;
+    }
+
     public static void main(String[] args) {
         RedBlackTree<String, Integer> rbt = new RedBlackTree<>();
         rbt.add("S", 1);
@@ -0,0 +1,130 @@
+import java.nio.BufferUnderflowException;
+import java.util.Arrays;
+
+/**
+ * SnapshotBuffer 快照一个块的字节缓冲区, 提供定长整数和变长整数(LEB128)的读写
+ * 写满后自动扩容; 读越过块的末尾时抛出 BufferUnderflowException
+ */
+public final class SnapshotBuffer {
+    private byte[] data;
+    private int position;
+    private int limit;
+
+    SnapshotBuffer(int capacity) {
+        data = new byte[capacity];
+    }
+
+    public void writeByte(int b) {
+        ensureCapacity(1);
+        data[position++] = (byte) b;
+    }
+
+    public void writeInt(int v) {
+        ensureCapacity(4);
+        data[position++] = (byte) (v >>> 24);
+        data[position++] = (byte) (v >>> 16);
+        data[position++] = (byte) (v >>> 8);
+        data[position++] = (byte) v;
+    }
+
+    /**
+     * writeVarLong 把v当作无符号数写成变长整数, 每个字节保存7位, 最高位表示后面还有字节
+     */
+    public void writeVarLong(long v) {
+        ensureCapacity(10);
+        while ((v & ~0x7FL) != 0) {
+            data[position++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        data[position++] = (byte) v;
+    }
+
+    /**
+     * writeSignedVarLong 先做zigzag变换再写成变长整数, 绝对值小的负数也只占很少的字节
+     */
+    public void writeSignedVarLong(long v) {
+        writeVarLong((v << 1) ^ (v >> 63));
+    }
+
+    public void writeBytes(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, data, position, length);
+        position += length;
+    }
+
+    public int readByte() {
+        if (position >= limit) {
+            throw new BufferUnderflowException();
+        }
+        return data[position++] & 0xFF;
+    }
+
+    public int readInt() {
+        if (limit - position < 4) {
+            throw new BufferUnderflowException();
+        }
+        int v = (data[position] & 0xFF) << 24 | (data[position + 1] & 0xFF) << 16
+                | (data[position + 2] & 0xFF) << 8 | (data[position + 3] & 0xFF);
+        position += 4;
+        return v;
+    }
+
+    public long readVarLong() {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position >= limit) {
+                throw new BufferUnderflowException();
+            }
+            byte b = data[position++];
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return v;
+            }
+        }
+        throw new IllegalStateException("varint is longer than 10 bytes at offset " + position);
+    }
+
+    public long readSignedVarLong() {
+        long v = readVarLong();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    public void readBytes(byte[] bytes, int offset, int length) {
+        if (limit - position < length) {
+            throw new BufferUnderflowException();
+        }
+        System.arraycopy(data, position, bytes, offset, length);
+        position += length;
+    }
+
+    byte[] array() {
+        return data;
+    }
+
+    int position() {
+        return position;
+    }
+
+    void position(int position) {
+        this.position = position;
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    // reset 准备读取data中的前limit个字节, 容量不够时扩容, 调用者随后把字节读入array()
+    void reset(int limit) {
+        if (data.length < limit) {
+            data = new byte[limit];
+        }
+        this.position = 0;
+        this.limit = limit;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (data.length - position < bytes) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, position + bytes));
+        }
+    }
+}
@@ -0,0 +1,23 @@
+/**
+ * SnapshotCodec 快照中键或值的编码方式
+ * 元素按键的升序写入, 编码时可以拿到同一个块中的上一个元素, 有序的整数键只需要写与上一个键的差;
+ * 每个块的第一个元素的 previous 为null, 所以每个块都可以独立解码
+ */
+public interface SnapshotCodec<T> {
+
+    /**
+     * write 编码一个元素
+     * @param out 写入的缓冲区
+     * @param previous 同一个块中的上一个元素, 块中第一个元素时为null
+     * @param value 要编码的元素, 不为null
+     */
+    void write(SnapshotBuffer out, T previous, T value);
+
+    /**
+     * read 解码一个元素
+     * @param in 读取的缓冲区
+     * @param previous 同一个块中上一个解码出的元素, 块中第一个元素时为null
+     * @return 返回解码出的元素
+     */
+    T read(SnapshotBuffer in, T previous);
+}
@@ -0,0 +1,95 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SnapshotCodecs 常用的键值编码
+ * SORTED_INT/SORTED_LONG 只能用于键: 块中第一个键写zigzag变长整数, 之后写与上一个键的差(一定为正)的变长整数,
+ * 稠密的键每个只占1个字节; INT/LONG 用于值, 写zigzag变长整数; STRING 写UTF-8字节数和字节
+ */
+public final class SnapshotCodecs {
+
+    public static final SnapshotCodec<Integer> SORTED_INT = new SnapshotCodec<Integer>() {
+        @Override
+        public void write(SnapshotBuffer out, Integer previous, Integer value) {
+            if (previous == null) {
+                out.writeSignedVarLong(value);
+            } else {
+                out.writeVarLong((long) value - previous);
+            }
+        }
+
+        @Override
+        public Integer read(SnapshotBuffer in, Integer previous) {
+            if (previous == null) {
+                return (int) in.readSignedVarLong();
+            }
+            return (int) (previous + in.readVarLong());
+        }
+    };
+
+    // 差值按无符号数写入, 键跨度超过 Long.MAX_VALUE 时减法溢出, 解码时的加法同样溢出回来
+    public static final SnapshotCodec<Long> SORTED_LONG = new SnapshotCodec<Long>() {
+        @Override
+        public void write(SnapshotBuffer out, Long previous, Long value) {
+            if (previous == null) {
+                out.writeSignedVarLong(value);
+            } else {
+                out.writeVarLong(value - previous);
+            }
+        }
+
+        @Override
+        public Long read(SnapshotBuffer in, Long previous) {
+            if (previous == null) {
+                return in.readSignedVarLong();
+            }
+            return previous + in.readVarLong();
+        }
+    };
+
+    public static final SnapshotCodec<Integer> INT = new SnapshotCodec<Integer>() {
+        @Override
+        public void write(SnapshotBuffer out, Integer previous, Integer value) {
+            out.writeSignedVarLong(value);
+        }
+
+        @Override
+        public Integer read(SnapshotBuffer in, Integer previous) {
+            return (int) in.readSignedVarLong();
+        }
+    };
+
+    public static final SnapshotCodec<Long> LONG = new SnapshotCodec<Long>() {
+        @Override
+        public void write(SnapshotBuffer out, Long previous, Long value) {
+            out.writeSignedVarLong(value);
+        }
+
+        @Override
+        public Long read(SnapshotBuffer in, Long previous) {
+            return in.readSignedVarLong();
+        }
+    };
+
+    public static final SnapshotCodec<String> STRING = new SnapshotCodec<String>() {
+        @Override
+        public void write(SnapshotBuffer out, String previous, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeVarLong(bytes.length);
+            out.writeBytes(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public String read(SnapshotBuffer in, String previous) {
+            long length = in.readVarLong();
+            if (length < 0 || length > in.limit() - in.position()) {
+                throw new IllegalStateException("string length " + length + " exceeds the block");
+            }
+            byte[] bytes = new byte[(int) length];
+            in.readBytes(bytes, 0, bytes.length);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    private SnapshotCodecs() {
+    }
+}
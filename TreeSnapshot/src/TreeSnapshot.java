@@ -0,0 +1,229 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * TreeSnapshot 有序映射的二进制快照格式, RedBlackTree 和 TwoThreeTree 的 writeTo/readFrom 共用
+ *
+ * 文件头(20字节): 魔数 "TRSN", 版本号, 元素个数(long), 前16个字节的CRC32C; 元素个数决定读取时分配的数组, 所以也需要校验
+ * 之后是若干个块, 每个块: 元素个数(int), 数据长度(int), 数据的CRC32C(int), 数据
+ * 块中的元素按键的升序依次写键和值, 编码由 SnapshotCodec 决定; 每个块独立解码, 块的大小约为64KB
+ * 所有定长整数都是大端序
+ *
+ * 读取时先根据文件头分配键值数组, 逐块校验并解码, 最后交给树的 fromSorted 线性构造, 不需要逐个 add
+ */
+public final class TreeSnapshot {
+    private static final int MAGIC = 0x5452534E;
+    static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 20;
+    private static final int BLOCK_HEADER_BYTES = 12;
+
+    // 块中的数据超过这个长度时结束当前块
+    private static final int BLOCK_BYTES = 64 * 1024;
+
+    // 读取时允许的最大块长度, 超过时认为块头已经损坏, 避免分配过大的缓冲区
+    private static final int MAX_BLOCK_BYTES = 64 * 1024 * 1024;
+
+    private TreeSnapshot() {
+    }
+
+    /**
+     * write 把按键升序遍历到的元素写成快照, 不关闭channel
+     * @param channel 写入的目标
+     * @param size 元素个数, 必须与遍历到的元素个数相同
+     * @param entries 按键的升序把每个元素交给传入的 BiConsumer, 通常是树的 forEach
+     * @param keyCodec 键的编码
+     * @param valueCodec 值的编码
+     */
+    public static <K, V> void write(WritableByteChannel channel, int size, Consumer<BiConsumer<K, V>> entries,
+                                    SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec) throws IOException {
+        SnapshotBuffer header = new SnapshotBuffer(HEADER_BYTES);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        // 元素个数按long写入, 高32位目前总是0
+        header.writeInt(0);
+        header.writeInt(size);
+        CRC32C crc = new CRC32C();
+        crc.update(header.array(), 0, header.position());
+        header.writeInt((int) crc.getValue());
+        writeFully(channel, header.array(), header.position());
+
+        BlockWriter<K, V> writer = new BlockWriter<K, V>(channel, keyCodec, valueCodec);
+        try {
+            entries.accept(writer);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+
+        if (writer.written != size) {
+            throw new IllegalStateException("expected " + size + " entries but wrote " + writer.written);
+        }
+    }
+
+    /**
+     * read 读取快照并用构造函数生成树, 不关闭channel
+     * @param channel 读取的来源
+     * @param keyCodec 键的编码, 必须与写入时相同
+     * @param valueCodec 值的编码, 必须与写入时相同
+     * @param build 用严格升序的键值数组构造树, 通常是树的 fromSorted
+     * @return 返回构造好的树
+     * @throws StreamCorruptedException 文件头, 校验和或者块中的数据不正确时抛出
+     * @throws EOFException 快照不完整时抛出
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V, T> T read(ReadableByteChannel channel, SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec,
+                                   BiFunction<K[], V[], T> build) throws IOException {
+        SnapshotBuffer buffer = new SnapshotBuffer(BLOCK_BYTES + BLOCK_BYTES / 4);
+        readFully(channel, buffer, HEADER_BYTES);
+        if (buffer.readInt() != MAGIC) {
+            throw new StreamCorruptedException("not a tree snapshot");
+        }
+        int version = buffer.readInt();
+        if (version != VERSION) {
+            throw new StreamCorruptedException("unsupported snapshot version " + version);
+        }
+        long size = (long) buffer.readInt() << 32 | (buffer.readInt() & 0xFFFFFFFFL);
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), 0, buffer.position());
+        if ((int) crc.getValue() != buffer.readInt()) {
+            throw new StreamCorruptedException("snapshot header fails its checksum");
+        }
+        if (size < 0 || size > Integer.MAX_VALUE - 8) {
+            throw new StreamCorruptedException("invalid entry count " + size);
+        }
+
+        K[] keys = (K[]) new Comparable[(int) size];
+        V[] values = (V[]) new Object[(int) size];
+        int count = 0;
+        for (int block = 0; count < size; block++) {
+            readFully(channel, buffer, BLOCK_HEADER_BYTES);
+            int entries = buffer.readInt();
+            int length = buffer.readInt();
+            int checksum = buffer.readInt();
+            if (entries <= 0 || entries > size - count || length < 0 || length > MAX_BLOCK_BYTES) {
+                throw new StreamCorruptedException("block " + block + " has an invalid header");
+            }
+
+            readFully(channel, buffer, length);
+            crc.reset();
+            crc.update(buffer.array(), 0, length);
+            if ((int) crc.getValue() != checksum) {
+                throw new StreamCorruptedException("block " + block + " fails its checksum");
+            }
+
+            try {
+                K key = null;
+                V value = null;
+                for (int i = 0; i < entries; i++) {
+                    key = keyCodec.read(buffer, key);
+                    value = valueCodec.read(buffer, value);
+                    keys[count] = key;
+                    values[count] = value;
+                    count++;
+                }
+            } catch (BufferUnderflowException | IllegalStateException e) {
+                throw new StreamCorruptedException("block " + block + " cannot be decoded: " + e);
+            }
+            if (buffer.position() != length) {
+                throw new StreamCorruptedException("block " + block + " has " + (length - buffer.position()) + " trailing bytes");
+            }
+        }
+
+        try {
+            return build.apply(keys, values);
+        } catch (IllegalArgumentException e) {
+            throw new StreamCorruptedException("snapshot entries are not in order: " + e.getMessage());
+        }
+    }
+
+    /**
+     * BlockWriter 把元素编码到当前块中, 块写满后计算校验和并写出
+     */
+    private static final class BlockWriter<K, V> implements BiConsumer<K, V> {
+        private final WritableByteChannel channel;
+        private final SnapshotCodec<K> keyCodec;
+        private final SnapshotCodec<V> valueCodec;
+        private final SnapshotBuffer buffer = new SnapshotBuffer(BLOCK_BYTES + BLOCK_BYTES / 4);
+        private final CRC32C crc = new CRC32C();
+
+        // 当前块中的元素个数和上一个元素
+        private int entries;
+        private K previousKey;
+        private V previousValue;
+
+        private long written;
+
+        BlockWriter(WritableByteChannel channel, SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec) {
+            this.channel = channel;
+            this.keyCodec = keyCodec;
+            this.valueCodec = valueCodec;
+            buffer.position(BLOCK_HEADER_BYTES);
+        }
+
+        @Override
+        public void accept(K key, V value) {
+            keyCodec.write(buffer, previousKey, key);
+            valueCodec.write(buffer, previousValue, value);
+            previousKey = key;
+            previousValue = value;
+            entries++;
+            written++;
+            if (buffer.position() - BLOCK_HEADER_BYTES >= BLOCK_BYTES) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        // flush 在预留的位置填入块头, 把整个块写出, 然后开始一个新块
+        void flush() throws IOException {
+            if (entries == 0) {
+                return;
+            }
+            int end = buffer.position();
+            crc.reset();
+            crc.update(buffer.array(), BLOCK_HEADER_BYTES, end - BLOCK_HEADER_BYTES);
+            buffer.position(0);
+            buffer.writeInt(entries);
+            buffer.writeInt(end - BLOCK_HEADER_BYTES);
+            buffer.writeInt((int) crc.getValue());
+            writeFully(channel, buffer.array(), end);
+
+            buffer.position(BLOCK_HEADER_BYTES);
+            entries = 0;
+            previousKey = null;
+            previousValue = null;
+        }
+    }
+
+    private static void writeFully(WritableByteChannel channel, byte[] bytes, int length) throws IOException {
+        ByteBuffer source = ByteBuffer.wrap(bytes, 0, length);
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
+    // readFully 从channel读取length个字节到buffer的开头, 并把buffer设置为读取这些字节
+    private static void readFully(ReadableByteChannel channel, SnapshotBuffer buffer, int length) throws IOException {
+        buffer.reset(length);
+        ByteBuffer target = ByteBuffer.wrap(buffer.array(), 0, length);
+        while (target.hasRemaining()) {
+            if (channel.read(target) < 0) {
+                throw new EOFException("snapshot ends " + target.remaining() + " bytes early");
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * TreeStats 树的热点路径计数器: 每次操作的比较次数, 旋转, 颜色翻转, 4-node分解和合并
+ * 默认关闭, 用 -Dtreestats.enabled=true 开启; 所有记录点都写成 if (TreeStats.ENABLED) {...},
+ * ENABLED 是 static final, 关闭时JIT把它当作常量折叠, 整段记录代码被消除, 不会留下任何开销
+ * 计数器使用 LongAdder, 多个线程同时写入不会在同一个缓存行上竞争
+ */
+public final class TreeStats {
+
+    /**
+     * ENABLED 是否开启统计, 只在类初始化时读取一次
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("treestats.enabled");
+
+    // JMX刷新时会连续读取所有属性, 在这段时间内复用同一个快照, 避免每个属性都遍历一次树
+    private static final long SNAPSHOT_REUSE_NANOS = 1_000_000_000L;
+
+    /**
+     * DISABLED 统计关闭时所有树共享的实例, 记录点都被跳过, 计数始终为0, 只用来生成形状信息的快照
+     */
+    static final TreeStats DISABLED = new TreeStats();
+
+    private final LongAdder operations = new LongAdder();
+    private final LongAdder comparisons = new LongAdder();
+    private final LongAdder rotations = new LongAdder();
+    private final LongAdder colorFlips = new LongAdder();
+    private final LongAdder splits = new LongAdder();
+    private final LongAdder merges = new LongAdder();
+
+    TreeStats() {
+    }
+
+    /**
+     * recordOperation 记录一次查找/插入/删除和它执行的键比较次数
+     */
+    void recordOperation(long comparisons) {
+        this.operations.increment();
+        this.comparisons.add(comparisons);
+    }
+
+    void recordRotation() {
+        rotations.increment();
+    }
+
+    void recordColorFlip() {
+        colorFlips.increment();
+    }
+
+    void recordSplit() {
+        splits.increment();
+    }
+
+    void recordMerge() {
+        merges.increment();
+    }
+
+    /**
+     * snapshot 把当前的计数和树的形状信息组合成一个快照
+     * @param height 树高
+     * @param size 元素个数
+     * @param twoNodes 2-node的个数
+     * @param threeNodes 3-node的个数
+     * @return 返回快照
+     */
+    Snapshot snapshot(int height, long size, long twoNodes, long threeNodes) {
+        return new Snapshot(operations.sum(), comparisons.sum(), rotations.sum(), colorFlips.sum(),
+                splits.sum(), merges.sum(), height, size, twoNodes, threeNodes);
+    }
+
+    /**
+     * register 把一棵树的统计信息注册到平台MBeanServer
+     * @param name MBean的名字, 例如 "trees:type=TreeStats,name=orders"
+     * @param source 获取快照的方法, 通常是 tree::stats; 它在JMX线程中调用, 与写操作并发时形状信息只是近似值
+     * @return 返回注册使用的ObjectName, 用于之后注销
+     * @throws IllegalStateException 名字不合法或者已经被注册时抛出
+     */
+    public static ObjectName register(String name, Supplier<Snapshot> source) {
+        try {
+            ObjectName objectName = new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(new StandardMBean(new Bean(source), TreeStatsMBean.class), objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot register " + name, e);
+        }
+    }
+
+    /**
+     * Snapshot 某一时刻的统计信息
+     * 计数是自树创建以来的累计值; 统计没有开启时所有计数都为0, 形状信息仍然有效
+     */
+    public static final class Snapshot {
+        private final long operations;
+        private final long comparisons;
+        private final long rotations;
+        private final long colorFlips;
+        private final long splits;
+        private final long merges;
+        private final int height;
+        private final long size;
+        private final long twoNodes;
+        private final long threeNodes;
+
+        private Snapshot(long operations, long comparisons, long rotations, long colorFlips, long splits, long merges,
+                         int height, long size, long twoNodes, long threeNodes) {
+            this.operations = operations;
+            this.comparisons = comparisons;
+            this.rotations = rotations;
+            this.colorFlips = colorFlips;
+            this.splits = splits;
+            this.merges = merges;
+            this.height = height;
+            this.size = size;
+            this.twoNodes = twoNodes;
+            this.threeNodes = threeNodes;
+        }
+
+        // operations 查找, 插入和删除的次数
+        public long operations() {
+            return operations;
+        }
+
+        // comparisons 这些操作执行的键比较次数
+        public long comparisons() {
+            return comparisons;
+        }
+
+        public double comparisonsPerOperation() {
+            return operations == 0 ? 0 : (double) comparisons / operations;
+        }
+
+        // rotations 左旋转和右旋转的次数, 只有红黑树有
+        public long rotations() {
+            return rotations;
+        }
+
+        // colorFlips 颜色翻转的次数, 只有红黑树有
+        public long colorFlips() {
+            return colorFlips;
+        }
+
+        // splits 分解4-node的次数, 红黑树中对应插入时的颜色翻转
+        public long splits() {
+            return splits;
+        }
+
+        // merges 删除时合并两个2-node的次数, 红黑树中对应 moveRedLeft/moveRedRight 中的颜色翻转
+        public long merges() {
+            return merges;
+        }
+
+        // height 从根到最深的叶子经过的节点个数
+        public int height() {
+            return height;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        // twoNodes/threeNodes 按2-3树的形状统计的节点个数, 红黑树中黑色节点带红色左孩子算作一个3-node
+        public long twoNodes() {
+            return twoNodes;
+        }
+
+        public long threeNodes() {
+            return threeNodes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("ops=%d cmp/op=%.2f rotations=%d flips=%d splits=%d merges=%d "
+                            + "height=%d size=%d 2-nodes=%d 3-nodes=%d",
+                    operations, comparisonsPerOperation(), rotations, colorFlips, splits, merges,
+                    height, size, twoNodes, threeNodes);
+        }
+    }
+
+    /**
+     * Bean TreeStatsMBean 的实现, 每个属性都从一个短时间内复用的快照中读取
+     */
+    private static final class Bean implements TreeStatsMBean {
+        private final Supplier<Snapshot> source;
+        private Snapshot snapshot;
+        private long takenAt;
+
+        Bean(Supplier<Snapshot> source) {
+            this.source = source;
+        }
+
+        private synchronized Snapshot current() {
+            long now = System.nanoTime();
+            if (snapshot == null || now - takenAt > SNAPSHOT_REUSE_NANOS) {
+                try {
+                    snapshot = source.get();
+                } catch (RuntimeException e) {
+                    // 树不是线程安全的, 遍历和写操作并发时可能失败, 这时继续使用上一个快照
+                    if (snapshot == null) {
+                        throw e;
+                    }
+                }
+                takenAt = now;
+            }
+            return snapshot;
+        }
+
+        @Override
+        public long getOperations() {
+            return current().operations();
+        }
+
+        @Override
+        public long getComparisons() {
+            return current().comparisons();
+        }
+
+        @Override
+        public double getComparisonsPerOperation() {
+            return current().comparisonsPerOperation();
+        }
+
+        @Override
+        public long getRotations() {
+            return current().rotations();
+        }
+
+        @Override
+        public long getColorFlips() {
+            return current().colorFlips();
+        }
+
+        @Override
+        public long getSplits() {
+            return current().splits();
+        }
+
+        @Override
+        public long getMerges() {
+            return current().merges();
+        }
+
+        @Override
+        public int getHeight() {
+            return current().height();
+        }
+
+        @Override
+        public long getSize() {
+            return current().size();
+        }
+
+        @Override
+        public long getTwoNodes() {
+            return current().twoNodes();
+        }
+
+        @Override
+        public long getThreeNodes() {
+            return current().threeNodes();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * TreeStatsMBean 通过JMX暴露的树的统计信息, 属性含义见 TreeStats.Snapshot
+ */
+public interface TreeStatsMBean {
+
+    long getOperations();
+
+    long getComparisons();
+
+    double getComparisonsPerOperation();
+
+    long getRotations();
+
+    long getColorFlips();
+
+    long getSplits();
+
+    long getMerges();
+
+    int getHeight();
+
+    long getSize();
+
+    long getTwoNodes();
+
+    long getThreeNodes();
+}
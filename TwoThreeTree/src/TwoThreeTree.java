@@ -1,75 +1,163 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 public class TwoThreeTree<K extends Comparable<K>, V> {
 
     // 2-3 node define:
     // 2-node: they hold two links (left and right) and one key
     // 3-node: they hold three links (left, middle, right) and two keys
-    static private class Node<K extends Comparable<K>, V> {
-        public K leftKey, middleKey, rightKey;
-        public V leftValue, middleValue, rightValue;
-        public Node<K, V> left, middleLeft, middleRight, right;
-
-        private Node(K leftKey, V leftValue, K middleKey, V middleValue, K rightKey, V rightValue,
-                     Node<K, V> left, Node<K, V> middleLeft, Node<K, V> middleRight, Node<K, V> right) {
+    // 每种形状只保存自己用到的字段: 叶子节点没有孩子引用, 2-node没有第二个键;
+    // 节点的形状改变时(插入或删除一个键, 分解或合并)用新形状的节点替换它, 形状不变时原地修改
+    static private abstract class Node<K extends Comparable<K>, V> {
+        K leftKey;
+        V leftValue;
 
+        Node(K leftKey, V leftValue) {
             this.leftKey = leftKey;
             this.leftValue = leftValue;
-            this.middleKey = middleKey;
-            this.middleValue = middleValue;
+        }
+    }
+
+    /**
+     * k:v
+     * /    \
+     * null  null
+     */
+    static private final class LeafTwoNode<K extends Comparable<K>, V> extends Node<K, V> {
+        LeafTwoNode(K leftKey, V leftValue) {
+            super(leftKey, leftValue);
+        }
+    }
+
+    /**
+     * leftKey, rightKey
+     * /      |       \
+     * null   null    null
+     */
+    static private final class LeafThreeNode<K extends Comparable<K>, V> extends Node<K, V> {
+        K rightKey;
+        V rightValue;
+
+        LeafThreeNode(K leftKey, V leftValue, K rightKey, V rightValue) {
+            super(leftKey, leftValue);
+            this.rightKey = rightKey;
+            this.rightValue = rightValue;
+        }
+    }
+
+    /**
+     * leftKey
+     * /     \
+     * left   right
+     */
+    static private final class TwoNode<K extends Comparable<K>, V> extends Node<K, V> {
+        Node<K, V> left, right;
+
+        TwoNode(K leftKey, V leftValue, Node<K, V> left, Node<K, V> right) {
+            super(leftKey, leftValue);
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    /**
+     * leftKey, rightKey
+     * /      |        \
+     * left   middleLeft  right
+     */
+    static private final class ThreeNode<K extends Comparable<K>, V> extends Node<K, V> {
+        K rightKey;
+        V rightValue;
+        Node<K, V> left, middleLeft, right;
+
+        ThreeNode(K leftKey, V leftValue, K rightKey, V rightValue,
+                  Node<K, V> left, Node<K, V> middleLeft, Node<K, V> right) {
+            super(leftKey, leftValue);
             this.rightKey = rightKey;
             this.rightValue = rightValue;
             this.left = left;
             this.middleLeft = middleLeft;
-            this.middleRight = middleRight;
             this.right = right;
         }
+    }
 
-        private Node(K leftKey, V leftValue, K middleKey, V middleValue, K rightKey, V rightValue, Node<K, V> left, Node<K, V> middle, Node<K, V> right) {
-            this.leftKey = leftKey;
-            this.leftValue = leftValue;
+    /**
+     * 临时的4-node, 只在插入或删除的过程中存在, 叶子4-node的孩子都是null
+     * leftKey, middleKey, rightKey
+     * /      |          |        \
+     * left   middleLeft middleRight right
+     */
+    static private final class FourNode<K extends Comparable<K>, V> extends Node<K, V> {
+        K middleKey, rightKey;
+        V middleValue, rightValue;
+        Node<K, V> left, middleLeft, middleRight, right;
+
+        FourNode(K leftKey, V leftValue, K middleKey, V middleValue, K rightKey, V rightValue,
+                 Node<K, V> left, Node<K, V> middleLeft, Node<K, V> middleRight, Node<K, V> right) {
+            super(leftKey, leftValue);
             this.middleKey = middleKey;
             this.middleValue = middleValue;
             this.rightKey = rightKey;
             this.rightValue = rightValue;
             this.left = left;
-            this.middleLeft = middle;
+            this.middleLeft = middleLeft;
+            this.middleRight = middleRight;
             this.right = right;
         }
-
-        Node(K leftKey, V leftValue, K middleKey, V middleValue, K rightKey, V rightValue) {
-            this(leftKey, leftValue, middleKey, middleValue, rightKey, rightValue, null, null, null);
-        }
-
-        /**
-         * leftKey, null
-         * /      |     \
-         * left   null   right
-         *
-         * @param leftKey
-         * @param leftValue
-         * @param left
-         * @param right
-         */
-        Node(K leftKey, V leftValue, Node<K, V> left, Node<K, V> right) {
-            this(leftKey, leftValue, null, null, null, null, left, null, right);
-        }
-
-        /**
-         * k:v
-         * /    \
-         * null  null
-         *
-         * @param leftKey
-         * @param leftValue
-         */
-        Node(K leftKey, V leftValue) {
-            this(leftKey, leftValue, null, null, null, null, null, null, null);
-        }
     }
 
     private int size;
 
     private Node<K, V> root;
 
+    // delete 的模式: 删除指定的键, 最小的键或最大的键
+    private static final int FIND = 0;
+    private static final int MIN = -1;
+    private static final int MAX = 1;
+
+    // 插入和删除时展开节点用的缓冲区, 一次调整最多同时涉及父节点, 孩子和兄弟三个节点
+    private final Slots<K, V> parentSlots = new Slots<>();
+    private final Slots<K, V> childSlots = new Slots<>();
+    private final Slots<K, V> siblingSlots = new Slots<>();
+
+    // 热点路径计数器, 记录点都用 TreeStats.ENABLED 保护, 关闭时被JIT消除
+    private final TreeStats stats = TreeStats.ENABLED ? new TreeStats() : TreeStats.DISABLED;
+
+    // 插入时记录的从根到叶子的路径和每一层进入的孩子下标, 2-3树的高度不超过 log2(size + 1)
+    private static final int MAX_HEIGHT = 32;
+    @SuppressWarnings("unchecked")
+    private final Node<K, V>[] path = (Node<K, V>[]) new Node[MAX_HEIGHT];
+    private final int[] pathIndex = new int[MAX_HEIGHT];
+
+    // 指针查找模式: 插入从上一次插入后仍然有效的路径上开始, 而不是每次都从根节点开始
+    private boolean fingerSearch;
+
+    // path[0..finger] 在上一次插入之后仍然是一条有效的从根出发的路径, -1 表示没有可用的路径
+    private int finger = -1;
+
+    // path[i] 所在子树的开区间键范围 (lowBound[i], highBound[i]), null 表示没有这一侧的边界
+    private K[] lowBound, highBound;
+
+    // 最近一次删除的结果
+    private boolean removed;
+    private K removedKey;
+    private V removedValue;
+
     TwoThreeTree() {
         this.size = 0;
         this.root = null;
@@ -80,537 +168,1131 @@ public class TwoThreeTree<K extends Comparable<K>, V> {
     }
 
     private V search(Node<K, V> node, K key) {
-        if (node == null) {
-            return null;
-        }
-
-        if (isTwoNode(node)) {
-            if (key.compareTo(node.leftKey) < 0) {
-                return search(node.left, key);
-            } else if (key.compareTo(node.leftKey) > 0) {
-                return search(node.right, key);
+        int comparisons = 0;
+        V value = null;
+        while (node != null) {
+            int cmp = key.compareTo(node.leftKey);
+            if (TreeStats.ENABLED) {
+                comparisons++;
+            }
+            if (cmp == 0) {
+                value = node.leftValue;
+                break;
             }
 
-            return node.leftValue;
-
-        } else {
+            if (node instanceof TwoNode) {
+                TwoNode<K, V> two = (TwoNode<K, V>) node;
+                node = cmp < 0 ? two.left : two.right;
+
+            } else if (node instanceof ThreeNode) {
+                ThreeNode<K, V> three = (ThreeNode<K, V>) node;
+                if (cmp < 0) {
+                    node = three.left;
+                } else {
+                    int right = key.compareTo(three.rightKey);
+                    if (TreeStats.ENABLED) {
+                        comparisons++;
+                    }
+                    if (right == 0) {
+                        value = three.rightValue;
+                        break;
+                    }
+                    node = right < 0 ? three.middleLeft : three.right;
+                }
 
-            if (key.compareTo(node.leftKey) < 0) {
-                return search(node.left, key);
-            } else if (key.compareTo(node.rightKey) > 0) {
-                return search(node.right, key);
-            } else if (key.compareTo(node.leftKey) > 0 && key.compareTo(node.rightKey) < 0) {
-                return search(node.middleLeft, key);
-            }
+            } else if (node instanceof LeafThreeNode) {
+                LeafThreeNode<K, V> three = (LeafThreeNode<K, V>) node;
+                if (cmp > 0) {
+                    if (TreeStats.ENABLED) {
+                        comparisons++;
+                    }
+                    if (key.compareTo(three.rightKey) == 0) {
+                        value = three.rightValue;
+                    }
+                }
+                break;
 
-            if (node.leftKey == key) {
-                return node.leftValue;
+            } else {
+                break;
             }
+        }
 
-            return node.rightValue;
+        if (TreeStats.ENABLED) {
+            stats.recordOperation(comparisons);
         }
+        return value;
     }
 
-    public void add(K key, V value) {
-        root = add(root, key, value);
-        // 分解根节点
-        if (isFourNode(root)) {
-            Node<K, V> left = new Node<K, V>(root.leftKey, root.leftValue, root.left, root.middleLeft);
-            Node<K, V> right = new Node<K, V>(root.rightKey, root.rightValue, root.middleRight, root.right);
-            root = new Node<K, V>(root.middleKey, root.middleValue, left, right);
+    /**
+     * setFingerSearch 开启或关闭指针查找模式
+     * 开启后插入会记住上一次的插入路径以及路径上每个子树的键范围, 自底向上修复时原地修改的最高节点和它的祖先仍然有效,
+     * 下一次插入从这段路径上最深的、键范围包含新键的节点开始向下查找;
+     * 近似有序的键每次插入只需要均摊 O(1) 次比较, 均匀随机的键反而会多出回溯时的比较, 所以默认关闭
+     * @param enabled 是否开启
+     */
+    @SuppressWarnings("unchecked")
+    public void setFingerSearch(boolean enabled) {
+        if (enabled && lowBound == null) {
+            lowBound = (K[]) new Comparable[MAX_HEIGHT];
+            highBound = (K[]) new Comparable[MAX_HEIGHT];
         }
+        fingerSearch = enabled;
+        finger = -1;
     }
 
-    private Node<K, V> add(Node<K, V> node, K key, V value) {
-        if (node == null) {
+    /**
+     * add 往2-3树中添加元素, 键已经存在时不做任何修改
+     * 非递归实现: 自顶向下查找叶子并记录路径, 叶子直接合并新键, 3-node 合并后成为临时的 4-node,
+     * 然后沿路径自底向上把 4-node 分解到父节点中; 父节点的形状不变(原地修改)时更上层不受影响, 提前结束
+     */
+    public void add(K key, V value) {
+        if (root == null) {
             size++;
-            return new Node<>(key, value);
+            root = new LeafTwoNode<>(key, value);
+            if (TreeStats.ENABLED) {
+                stats.recordOperation(0);
+            }
+            return;
         }
 
-        if (isLeaf(node)) {
-            merge(node, key, value);
-            size++;
-            return node;
-        } else {
-            // 非叶子节点2节点
-            if (isTwoNode(node)) {
-                // key < node.leftKey
-                if (key.compareTo(node.leftKey) < 0) {
-                    Node<K, V> newRoot = add(node.left, key, value);
-
-                    // 添加后返回的新节点是 2-node 或者 3-node 直接挂接在树上
-                    if (isTwoNode(newRoot) || isThreeNode(newRoot)) {
-                        node.left = newRoot;
-                        return node;
-                    }
-
-                    // 添加后返回的新节点是一个临时的 4-node, 当前根节点是一个2-node,
-                    if (isFourNode(newRoot) && isTwoNode(node)) {
-                        return split42NodeLeft(newRoot, node);
-                    }
+        Slots<K, V> slots = parentSlots;
+        if (TreeStats.ENABLED) {
+            slots.comparisons = 0;
+        }
 
-                    // 添加后返回的新节点是一个临时的 4-node, 当前根节点是一个3-node,
-                    if (isFourNode(newRoot) && isThreeNode(node)) {
-                        return split43NodeLeft(newRoot, node);
-                    }
+        int depth = 0;
+        if (fingerSearch && finger > 0) {
+            // 从有效路径的最深处回退到第一个键范围包含key的子树, 根节点的范围总是包含key
+            depth = finger;
+            while (depth > 0) {
+                K low = lowBound[depth];
+                K high = highBound[depth];
+                if (TreeStats.ENABLED) {
+                    slots.comparisons += (low == null ? 0 : 1) + (high == null ? 0 : 1);
                 }
-
-                // key > node.leftKey
-                if (key.compareTo(node.leftKey) > 0) {
-                    Node<K, V> newRoot = add(node.right, key, value);
-
-                    // 添加后返回的新节点是 2-node 或者 3-node 直接挂接在树上
-                    if (isTwoNode(newRoot) || isThreeNode(newRoot)) {
-                        node.right = newRoot;
-                        return node;
-                    }
-
-                    // 添加后返回的新节点是一个临时的 4-node, 当前根节点是一个2-node,
-                    if (isFourNode(newRoot) && isTwoNode(node)) {
-                        return split42NodeRight(newRoot, node);
-                    }
-
-                    // 添加后返回的新节点是一个临时的 4-node, 当前根节点是一个3-node,
-                    if (isFourNode(newRoot) && isThreeNode(node)) {
-                        return split43NodeRight(newRoot, node);
-                    }
+                if ((low == null || key.compareTo(low) > 0) && (high == null || key.compareTo(high) < 0)) {
+                    break;
                 }
+                depth--;
+            }
+        }
 
-            } else if (isThreeNode(node)) {
-
-                // node.left < key < node.right
-                if (key.compareTo(node.leftKey) > 0 && key.compareTo(node.rightKey) < 0) {
-                    Node<K, V> newRoot = add(node.middleLeft, key, value);
-
-                    if (isTwoNode(newRoot) || isThreeNode(newRoot)) {
-                        node.middleLeft = newRoot;
-                        return node;
-                    }
-
-                    if (isFourNode(newRoot) && isThreeNode(node)) {
-                        return split43NodeMiddle(newRoot, node);
-                    }
+        Node<K, V> node = depth == 0 ? root : path[depth];
+        while (true) {
+            path[depth] = node;
+            slots.load(node);
+            if (slots.indexOf(key) >= 0) {
+                finger = depth;
+                if (TreeStats.ENABLED) {
+                    stats.recordOperation(slots.comparisons);
                 }
+                return;
+            }
+            int index = slots.childIndex(key, FIND);
+            if (isLeaf(node)) {
+                slots.insertKey(index, key, value);
+                slots.insertChild(index + 1, null);
+                size++;
+                break;
+            }
+            pathIndex[depth] = index;
+            if (fingerSearch) {
+                lowBound[depth + 1] = index == 0 ? lowBound[depth] : slots.keys[index - 1];
+                highBound[depth + 1] = index == slots.count ? highBound[depth] : slots.keys[index];
+            }
+            node = slots.children[index];
+            depth++;
+        }
 
-                // key < node.left
-                if (key.compareTo(node.leftKey) < 0) {
-                    Node<K, V> newRoot = add(node.left, key, value);
-
-                    if (isTwoNode(newRoot) || isThreeNode(newRoot)) {
-                        node.left = newRoot;
-                        return node;
-                    }
-
-                    // 添加后返回的新节点是一个临时的 4-node, 当前根节点是一个3-node,
-                    if (isFourNode(newRoot) && isThreeNode(node)) {
-                        return split43NodeLeft(newRoot, node);
-                    }
-                }
+        if (TreeStats.ENABLED) {
+            stats.recordOperation(slots.comparisons);
+        }
 
-                // key > node.right
-                if (key.compareTo(node.rightKey) > 0) {
-                    Node<K, V> newRoot = add(node.right, key, value);
+        Node<K, V> child = slots.store(node);
+        int level = depth - 1;
+        for (; level >= 0; level--) {
+            Node<K, V> parent = path[level];
+            slots.load(parent);
+            if (isFourNode(child)) {
+                split4Node(slots, pathIndex[level], (FourNode<K, V>) child);
+            } else {
+                slots.children[pathIndex[level]] = child;
+            }
+            child = slots.store(parent);
+            if (child == parent) {
+                break;
+            }
+        }
 
-                    if (isTwoNode(newRoot) || isThreeNode(newRoot)) {
-                        node.right = newRoot;
-                        return node;
-                    }
+        // 修复停在level层时, path[level] 和它的祖先都没有被替换, 下一次插入可以从这段路径开始
+        finger = level;
+        if (level >= 0) {
+            return;
+        }
 
-                    // 添加后返回的新节点是一个临时的 4-node, 当前根节点是一个3-node,
-                    if (isFourNode(newRoot) && isThreeNode(node)) {
-                        return split43NodeRight(newRoot, node);
-                    }
-                }
+        root = child;
+        // 分解根节点
+        if (isFourNode(root)) {
+            if (TreeStats.ENABLED) {
+                stats.recordSplit();
             }
+            FourNode<K, V> four = (FourNode<K, V>) root;
+            root = new TwoNode<K, V>(four.middleKey, four.middleValue,
+                    twoNode(four.leftKey, four.leftValue, four.left, four.middleLeft),
+                    twoNode(four.rightKey, four.rightValue, four.middleRight, four.right));
         }
-        return node;
     }
 
-    public void remove(K key) {
-
+    /**
+     * split4Node 分离第index个孩子(一个临时的4-node)为两个2-node, 中间键放到展开的父节点中
+     * @param slots 展开的父节点
+     * @param index 4-node在父节点中的位置
+     * @param node4 要分离的4-node
+     */
+    private void split4Node(Slots<K, V> slots, int index, FourNode<K, V> node4) {
+        if (TreeStats.ENABLED) {
+            stats.recordSplit();
+        }
+        slots.insertKey(index, node4.middleKey, node4.middleValue);
+        slots.children[index] = twoNode(node4.leftKey, node4.leftValue, node4.left, node4.middleLeft);
+        slots.insertChild(index + 1, twoNode(node4.rightKey, node4.rightValue, node4.middleRight, node4.right));
     }
 
-    private Node<K, V> remove(Node<K, V> node, K key) {
-        return null;
+    /**
+     * remove 从2-3树中删除键
+     * @param key 要删除的键
+     * @return 返回被删除的键对应的值, 键不存在时返回null
+     */
+    public V remove(K key) {
+        return delete(key, FIND) ? removedValue : null;
     }
 
     /**
-     * removeMin 从2-3树中删除最小节点
+     * removeMin 从2-3树中删除最小节点, 树为空时不做任何修改
      */
     public void removeMin() {
+        delete(null, MIN);
+    }
 
+    /**
+     * removeMax 从2-3树中删除最大节点, 树为空时不做任何修改
+     */
+    public void removeMax() {
+        delete(null, MAX);
     }
 
-    private Node<K, V> removeMin(Node<K, V> node) {
-        if (node == null) {
+    /**
+     * pollFirst 删除并返回最小的键值对, 用于按键的顺序依次取出元素
+     * @return 返回被删除的键值对, 树为空时返回null
+     */
+    public Map.Entry<K, V> pollFirst() {
+        if (!delete(null, MIN)) {
             return null;
         }
+        return new AbstractMap.SimpleImmutableEntry<>(removedKey, removedValue);
+    }
 
-        if (isTwoNode(node) && isTwoNode(node.left) && isTwoNode(node.right)) {
-            // 合并为一个4-node
-            node = new Node<K, V>(node.left.leftKey, node.left.leftValue,
-                    node.leftKey, node.leftValue, node.right.leftKey, node.right.leftValue,
-                    node.left.left, node.left.right, node.right.left, node.right.right);
+    /**
+     * delete 自顶向下删除, 只需要从根到叶子走一遍
+     * 向下走之前保证要进入的孩子至少有2个键(向兄弟借一个键, 或者和兄弟合并为临时的4-node),
+     * 这样在叶子上删除一个键后不会出现空节点, 不需要再自底向上修复;
+     * 合并产生的临时4-node在递归返回时分解, 中间键放回父节点合并时空出的位置
+     * @return 删除了元素时返回true, 被删除的键值保存在 removedKey/removedValue 中
+     */
+    private boolean delete(K key, int mode) {
+        if (root == null) {
+            return false;
+        }
+        finger = -1;
 
-            // 向下变换
-            node.left = removeMin(node.left);
+        // 根节点没有父节点可以借键, 它和两个孩子都是2-node时先合并为一个4-node
+        if (root instanceof TwoNode) {
+            TwoNode<K, V> two = (TwoNode<K, V>) root;
+            if (isTwoNode(two.left) && isTwoNode(two.right)) {
+                root = merge22Node(two.left, two.leftKey, two.leftValue, two.right);
+            }
+        }
 
-        } else {
+        removed = false;
+        if (TreeStats.ENABLED) {
+            parentSlots.comparisons = 0;
+        }
+        root = delete(root, key, mode);
+        if (TreeStats.ENABLED) {
+            stats.recordOperation(parentSlots.comparisons);
+        }
+        if (root != null && isFourNode(root)) {
+            if (TreeStats.ENABLED) {
+                stats.recordSplit();
+            }
+            FourNode<K, V> four = (FourNode<K, V>) root;
+            root = new TwoNode<K, V>(four.middleKey, four.middleValue,
+                    twoNode(four.leftKey, four.leftValue, four.left, four.middleLeft),
+                    twoNode(four.rightKey, four.rightValue, four.middleRight, four.right));
+        }
 
-            if (!isTwoNode(node.left)) {
-                node.left = removeMin(node.left);
+        if (removed) {
+            size--;
+        }
+        return removed;
+    }
 
-            } else {
+    /**
+     * delete 方法递归的从子树中删除
+     * @param node 子树根节点, 除了根节点之外至少有2个键
+     * @param key mode为FIND时要删除的键
+     * @param mode FIND删除key, MIN/MAX删除最小/最大的键
+     * @return 返回删除后的子树根节点, 子树为空时返回null
+     */
+    private Node<K, V> delete(Node<K, V> node, K key, int mode) {
+        if (isLeaf(node)) {
+            Slots<K, V> slots = parentSlots;
+            slots.load(node);
+            int index = mode == MIN ? 0 : mode == MAX ? slots.count - 1 : slots.indexOf(key);
+            if (index < 0) {
+                return node;
+            }
 
-                // 父节点是2-node 右边兄弟节点不是2-node
-                if (isTwoNode(node) && isThreeNode(node.right)) {
-                    // 构造新的左节点, 新的左节点是一个3-node
-                    // 将右节点合并过来
-                    Node<K, V> left = new Node<K, V>(node.left.leftKey, node.left.leftValue, null, null, node.leftKey, node.leftValue,
-                            node.left.left, node.left.right, node.right.left);
+            removed = true;
+            removedKey = slots.keys[index];
+            removedValue = slots.values[index];
+            slots.removeKey(index);
+            slots.removeChild(index);
+            return slots.count == 0 ? null : slots.store(node);
+        }
 
-                    // 构造新的右节点, 新的右节点是一个2-node
-                    Node<K, V> right = new Node<K, V>(node.right.rightKey, node.right.rightValue, null, null, null, null,
-                            node.right.middleLeft, null, node.right.right);
+        node = fatten(node, childIndex(node, key, mode));
+
+        // 调整后要删除的键可能被移到了孩子中, 重新查找
+        Slots<K, V> slots = parentSlots;
+        slots.load(node);
+        int found = mode == FIND ? slots.indexOf(key) : -1;
+        int index;
+        if (found >= 0) {
+            // 内部节点的键用右子树的最小键替换, 再从右子树删除这个最小键
+            K k = slots.keys[found];
+            V v = slots.values[found];
+            index = found + 1;
+            Node<K, V> child = delete(slots.children[index], null, MIN);
+
+            slots.load(node);
+            slots.keys[found] = removedKey;
+            slots.values[found] = removedValue;
+            slots.children[index] = child;
+            removedKey = k;
+            removedValue = v;
+        } else {
+            index = slots.childIndex(key, mode);
+            Node<K, V> child = delete(slots.children[index], key, mode);
 
-                    // 替换根节点为右节点中最小键
-                    node.leftKey = node.right.leftKey;
-                    node.leftValue = node.right.leftValue;
+            slots.load(node);
+            slots.children[index] = child;
+        }
 
-                    node.left = left;
-                    node.right = right;
+        // 分解合并时产生的临时4-node
+        Node<K, V> child = slots.children[index];
+        if (isFourNode(child)) {
+            split4Node(slots, index, (FourNode<K, V>) child);
+        }
+        return slots.store(node);
+    }
 
-                    // 向下变换
-                    node.left = removeMin(node.left);
-                }
+    /**
+     * fatten 保证node的第index个孩子至少有2个键
+     * 孩子是2-node时, 优先从有多余键的相邻兄弟借一个键(经过父节点旋转), 兄弟都是2-node时和一个兄弟合并为4-node
+     * @param node 父节点, 不是根节点时至少有2个键, 是根节点时合并不会让它变空(见delete)
+     * @return 返回调整后的父节点
+     */
+    private Node<K, V> fatten(Node<K, V> node, int index) {
+        Slots<K, V> parent = parentSlots;
+        Slots<K, V> child = childSlots;
+        Slots<K, V> sibling = siblingSlots;
+
+        parent.load(node);
+        child.load(parent.children[index]);
+        if (child.count >= 2) {
+            return node;
+        }
 
-                // 父节点是3-node
-                if (isThreeNode(node)) {
-                    // 中间兄弟节点不是2-node
-                    if (!isTwoNode(node.middleLeft)) {
+        if (index > 0 && !isTwoNode(parent.children[index - 1])) {
+            // 左兄弟的最大键上移, 父节点的键下移到孩子
+            sibling.load(parent.children[index - 1]);
+            int last = sibling.count - 1;
+            child.insertKey(0, parent.keys[index - 1], parent.values[index - 1]);
+            child.insertChild(0, sibling.children[last + 1]);
+            parent.keys[index - 1] = sibling.keys[last];
+            parent.values[index - 1] = sibling.values[last];
+            sibling.removeKey(last);
+            sibling.removeChild(last + 1);
+            parent.children[index - 1] = sibling.store(parent.children[index - 1]);
+            parent.children[index] = child.store(parent.children[index]);
+
+        } else if (index < parent.count && !isTwoNode(parent.children[index + 1])) {
+            // 右兄弟的最小键上移, 父节点的键下移到孩子
+            sibling.load(parent.children[index + 1]);
+            child.insertKey(1, parent.keys[index], parent.values[index]);
+            child.insertChild(2, sibling.children[0]);
+            parent.keys[index] = sibling.keys[0];
+            parent.values[index] = sibling.values[0];
+            sibling.removeKey(0);
+            sibling.removeChild(0);
+            parent.children[index + 1] = sibling.store(parent.children[index + 1]);
+            parent.children[index] = child.store(parent.children[index]);
+
+        } else {
+            // 和右兄弟(没有右兄弟时和左兄弟)合并, 父节点中两者之间的键成为4-node的中间键
+            int left = index < parent.count ? index : index - 1;
+            Node<K, V> merged = merge22Node(parent.children[left], parent.keys[left], parent.values[left],
+                    parent.children[left + 1]);
+            parent.removeKey(left);
+            parent.removeChild(left + 1);
+            parent.children[left] = merged;
+        }
 
+        return parent.store(node);
+    }
 
+    // merge22Node 把两个2-node和它们之间的键合并为一个临时4-node
+    private Node<K, V> merge22Node(Node<K, V> left, K key, V value, Node<K, V> right) {
+        if (TreeStats.ENABLED) {
+            stats.recordMerge();
+        }
+        if (left instanceof TwoNode) {
+            TwoNode<K, V> l = (TwoNode<K, V>) left;
+            TwoNode<K, V> r = (TwoNode<K, V>) right;
+            return new FourNode<K, V>(l.leftKey, l.leftValue, key, value, r.leftKey, r.leftValue,
+                    l.left, l.right, r.left, r.right);
+        }
+        return new FourNode<K, V>(left.leftKey, left.leftValue, key, value, right.leftKey, right.leftValue,
+                null, null, null, null);
+    }
 
-                        // 右边兄弟节点不是2-node
-                    } else if (!isTwoNode(node.right)) {
+    // childIndex 要删除的键所在的孩子, 键在node中时返回它右边的孩子
+    private int childIndex(Node<K, V> node, K key, int mode) {
+        Slots<K, V> slots = parentSlots;
+        slots.load(node);
+        int found = mode == FIND ? slots.indexOf(key) : -1;
+        return found >= 0 ? found + 1 : slots.childIndex(key, mode);
+    }
 
-                        // 所有兄弟节点都是2-node
-                    } else {
+    /**
+     * Slots 把各种形状的节点按下标展开, 插入和删除时在上面移动键和孩子, 再写回节点
+     * count个键对应 count+1 个孩子, 叶子节点的孩子都是null
+     */
+    static private class Slots<K extends Comparable<K>, V> {
+        private int count;
+        // 开启统计时累计 indexOf/childIndex 中的键比较次数
+        private int comparisons;
+        @SuppressWarnings("unchecked")
+        private final K[] keys = (K[]) new Comparable[3];
+        @SuppressWarnings("unchecked")
+        private final V[] values = (V[]) new Object[3];
+        @SuppressWarnings("unchecked")
+        private final Node<K, V>[] children = (Node<K, V>[]) new Node[4];
+
+        void load(Node<K, V> node) {
+            set(0, node.leftKey, node.leftValue);
+            if (node instanceof TwoNode) {
+                TwoNode<K, V> two = (TwoNode<K, V>) node;
+                count = 1;
+                children[0] = two.left;
+                children[1] = two.right;
+            } else if (node instanceof LeafTwoNode) {
+                count = 1;
+                children[0] = children[1] = null;
+            } else if (node instanceof ThreeNode) {
+                ThreeNode<K, V> three = (ThreeNode<K, V>) node;
+                count = 2;
+                set(1, three.rightKey, three.rightValue);
+                children[0] = three.left;
+                children[1] = three.middleLeft;
+                children[2] = three.right;
+            } else if (node instanceof LeafThreeNode) {
+                LeafThreeNode<K, V> three = (LeafThreeNode<K, V>) node;
+                count = 2;
+                set(1, three.rightKey, three.rightValue);
+                children[0] = children[1] = children[2] = null;
+            } else {
+                FourNode<K, V> four = (FourNode<K, V>) node;
+                count = 3;
+                set(1, four.middleKey, four.middleValue);
+                set(2, four.rightKey, four.rightValue);
+                children[0] = four.left;
+                children[1] = four.middleLeft;
+                children[2] = four.middleRight;
+                children[3] = four.right;
+            }
+        }
 
+        /**
+         * store 把展开的键和孩子写回节点
+         * node的形状与展开的键和孩子相符时原地修改, 否则创建一个新形状的节点
+         * @return 返回写入后的节点
+         */
+        Node<K, V> store(Node<K, V> node) {
+            boolean leaf = children[0] == null;
+            if (count == 1) {
+                if (leaf) {
+                    if (node instanceof LeafTwoNode) {
+                        node.leftKey = keys[0];
+                        node.leftValue = values[0];
+                        return node;
                     }
+                    return new LeafTwoNode<K, V>(keys[0], values[0]);
                 }
-
-                // 父节点是4-node
-                if (isFourNode(node)) {
-
+                if (node instanceof TwoNode) {
+                    TwoNode<K, V> two = (TwoNode<K, V>) node;
+                    two.leftKey = keys[0];
+                    two.leftValue = values[0];
+                    two.left = children[0];
+                    two.right = children[1];
+                    return two;
                 }
+                return new TwoNode<K, V>(keys[0], values[0], children[0], children[1]);
             }
-        }
-
 
+            if (count == 2) {
+                if (leaf) {
+                    if (node instanceof LeafThreeNode) {
+                        LeafThreeNode<K, V> three = (LeafThreeNode<K, V>) node;
+                        three.leftKey = keys[0];
+                        three.leftValue = values[0];
+                        three.rightKey = keys[1];
+                        three.rightValue = values[1];
+                        return three;
+                    }
+                    return new LeafThreeNode<K, V>(keys[0], values[0], keys[1], values[1]);
+                }
+                if (node instanceof ThreeNode) {
+                    ThreeNode<K, V> three = (ThreeNode<K, V>) node;
+                    three.leftKey = keys[0];
+                    three.leftValue = values[0];
+                    three.rightKey = keys[1];
+                    three.rightValue = values[1];
+                    three.left = children[0];
+                    three.middleLeft = children[1];
+                    three.right = children[2];
+                    return three;
+                }
+                return new ThreeNode<K, V>(keys[0], values[0], keys[1], values[1], children[0], children[1], children[2]);
+            }
 
+            return new FourNode<K, V>(keys[0], values[0], keys[1], values[1], keys[2], values[2],
+                    children[0], children[1], children[2], children[3]);
+        }
 
+        // indexOf 查找键的下标, 不存在时返回-1
+        int indexOf(K key) {
+            for (int i = 0; i < count; i++) {
+                if (TreeStats.ENABLED) {
+                    comparisons++;
+                }
+                int cmp = key.compareTo(keys[i]);
+                if (cmp == 0) {
+                    return i;
+                }
+                if (cmp < 0) {
+                    break;
+                }
+            }
+            return -1;
+        }
 
+        // childIndex 键所在的孩子, 即小于键的键的个数
+        int childIndex(K key, int mode) {
+            if (mode == MIN) {
+                return 0;
+            }
+            if (mode == MAX) {
+                return count;
+            }
+            int index = 0;
+            while (index < count) {
+                if (TreeStats.ENABLED) {
+                    comparisons++;
+                }
+                if (keys[index].compareTo(key) >= 0) {
+                    break;
+                }
+                index++;
+            }
+            return index;
+        }
 
-        // 根节点是2-node
-        if (isTwoNode(node)) {
+        void insertKey(int index, K key, V value) {
+            for (int i = count; i > index; i--) {
+                set(i, keys[i - 1], values[i - 1]);
+            }
+            set(index, key, value);
+            count++;
+        }
 
-            // case1: 左右节点也是2-node
-            if (isTwoNode(node.left) && isTwoNode(node.right)) {
-                // 合并为一个4-node
-                node = new Node<K, V>(node.left.leftKey, node.left.leftValue,
-                        node.leftKey, node.leftValue, node.right.leftKey, node.right.leftValue,
-                        node.left.left, node.left.right, node.right.left, node.right.right);
+        // insertChild 在insertKey之后调用, 此时count已经包含新键
+        void insertChild(int index, Node<K, V> child) {
+            System.arraycopy(children, index, children, index + 1, count - index);
+            children[index] = child;
+        }
 
-                // 向下变换
-                node.left = removeMin(node.left);
+        void removeKey(int index) {
+            for (int i = index; i < count - 1; i++) {
+                set(i, keys[i + 1], values[i + 1]);
+            }
+            count--;
+            set(count, null, null);
+        }
 
-                // case2: 左节点是2-node, 右节点不是2-node
-            } else if (isTwoNode(node.left) && !isTwoNode(node.right)) {
+        // removeChild 在removeKey之后调用, 此时count已经去掉被删除的键
+        void removeChild(int index) {
+            System.arraycopy(children, index + 1, children, index, count + 1 - index);
+            children[count + 1] = null;
+        }
 
-                K rootKey = node.leftKey;
-                V rootValue = node.leftValue;
+        private void set(int index, K key, V value) {
+            keys[index] = key;
+            values[index] = value;
+        }
+    }
 
-                // 替换根节点为右节点中最小键
-                node.leftKey = node.right.leftKey;
-                node.leftValue = node.right.leftValue;
+    // twoNode 创建一个2-node, 没有孩子时使用叶子节点的形状
+    private static <K extends Comparable<K>, V> Node<K, V> twoNode(K key, V value, Node<K, V> left, Node<K, V> right) {
+        return left == null ? new LeafTwoNode<K, V>(key, value) : new TwoNode<K, V>(key, value, left, right);
+    }
 
-                // 从右节点中删除这个最小键
-                node.right.leftKey = node.right.rightKey;
-                node.right.leftValue = node.right.rightValue;
-                node.right.rightKey = null;
-                node.right.rightValue = null;
+    // threeNode 创建一个3-node, 没有孩子时使用叶子节点的形状
+    private static <K extends Comparable<K>, V> Node<K, V> threeNode(K leftKey, V leftValue, K rightKey, V rightValue,
+                                                                      Node<K, V> left, Node<K, V> middle, Node<K, V> right) {
+        return left == null
+                ? new LeafThreeNode<K, V>(leftKey, leftValue, rightKey, rightValue)
+                : new ThreeNode<K, V>(leftKey, leftValue, rightKey, rightValue, left, middle, right);
+    }
 
-                // 原根节点和左子节点合并
-                node.left.rightKey = rootKey;
-                node.left.rightValue = rootValue;
+    // isLeaf 判断节点是否为叶子节点
+    private boolean isLeaf(Node<K, V> node) {
+        return node instanceof LeafTwoNode || node instanceof LeafThreeNode
+                || (node instanceof FourNode && ((FourNode<K, V>) node).left == null);
+    }
 
-                // 向下变换
-                node.left = removeMin(node.left);
+    // isTwoNode 判断节点是否是2-node
+    private boolean isTwoNode(Node<K, V> node) {
+        return node instanceof TwoNode || node instanceof LeafTwoNode;
+    }
 
-                // case3: 左节点不是2-node
-            } else {
+    // isThreeNde 判断节点是否是3-node
+    private boolean isThreeNode(Node<K, V> node) {
+        return node instanceof ThreeNode || node instanceof LeafThreeNode;
+    }
 
-                // 向下变换
-                node.left = removeMin(node.left);
-            }
+    // isFourNode 判断节点是否是4-node
+    private boolean isFourNode(Node<K, V> node) {
+        return node instanceof FourNode;
+    }
 
+    // leftChild, middleChild, rightChild 获取节点的孩子, 叶子节点和2-node没有的孩子返回null
+    private Node<K, V> leftChild(Node<K, V> node) {
+        if (node instanceof TwoNode) {
+            return ((TwoNode<K, V>) node).left;
+        }
+        return node instanceof ThreeNode ? ((ThreeNode<K, V>) node).left : null;
+    }
 
-            // 根节点不是2-node
-        } else {
+    private Node<K, V> middleChild(Node<K, V> node) {
+        return node instanceof ThreeNode ? ((ThreeNode<K, V>) node).middleLeft : null;
+    }
 
+    private Node<K, V> rightChild(Node<K, V> node) {
+        if (node instanceof TwoNode) {
+            return ((TwoNode<K, V>) node).right;
+        }
+        return node instanceof ThreeNode ? ((ThreeNode<K, V>) node).right : null;
+    }
 
-            // 根节点是3-node
-            if (isThreeNode(node)) {
-                // case1: 左子节点是2-node, 中间节点和右节点是2-node
-                if (isTwoNode(node.left) && isTwoNode(node.middleLeft) && isTwoNode(node.right)) {
+    public boolean is23Tree() {
+        return is23Tree(root);
+    }
 
-                }
+    private boolean is23Tree(Node<K, V> node) {
+        if (node != null) {
+            if (isTwoNode(node)) {
+                int leftHeight = leftHeight(leftChild(node), 0);
+                int rightHeight = rightHeight(rightChild(node), 0);
 
-                // case2: 左子节点是2-node, 中间是2-node节点, 右节点不是2-node
-                if (isTwoNode(node.left) && isTwoNode(node.middleLeft) && !isTwoNode(node.right)) {
 
+                if (leftHeight != rightHeight) {
+                    return false;
                 }
 
-                // case3:
-
+                return is23Tree(leftChild(node)) && is23Tree(rightChild(node));
+            } else {
+                return is23Tree(leftChild(node)) && is23Tree(middleChild(node)) && is23Tree(rightChild(node));
             }
+        }
 
+        return true;
+    }
 
-            // case2: 左子节点是2-节点而它的兄弟节点不是2-节点
-            if (isTwoNode(node.left) && !isTwoNode(node.right)) {
+    private int leftHeight(Node<K, V> node, int height) {
+        if (node == null) {
+            return height;
+        }
 
-            }
+        return leftHeight(leftChild(node), height + 1);
+    }
 
+    private int rightHeight(Node<K, V> node, int height) {
+        if (node == null) {
+            return height;
         }
+        return rightHeight(rightChild(node), height + 1);
+    }
 
+    public int size() {
+        return size;
+    }
 
-        if (!isTwoNode(node.left)) {
+    /**
+     * stats 获取统计快照, 计数在 -Dtreestats.enabled=true 时才会累计
+     * 节点形状需要遍历整棵树, 不要在热点路径上调用
+     * @return 返回统计快照
+     */
+    public TreeStats.Snapshot stats() {
+        int height = 0;
+        for (Node<K, V> node = root; node != null; node = leftChild(node)) {
+            height++;
+        }
+        long[] shapes = new long[2];
+        countShapes(root, shapes);
+        return stats.snapshot(height, size, shapes[0], shapes[1]);
+    }
 
+    // countShapes 统计子树中2-node和3-node的个数, 分别累加到 shapes[0] 和 shapes[1]
+    private void countShapes(Node<K, V> node, long[] shapes) {
+        if (node == null) {
+            return;
+        }
+        if (isTwoNode(node)) {
+            shapes[0]++;
+        } else {
+            shapes[1]++;
         }
+        countShapes(leftChild(node), shapes);
+        countShapes(middleChild(node), shapes);
+        countShapes(rightChild(node), shapes);
+    }
 
-        if (node.left != null) {
-            node.left = removeMin(node.left);
+    /**
+     * forEach 按键的升序遍历所有元素
+     * @param action 对每个键值对执行的操作
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        forEach(root, action);
+    }
 
+    private void forEach(Node<K, V> node, BiConsumer<? super K, ? super V> action) {
+        if (node instanceof TwoNode) {
+            TwoNode<K, V> two = (TwoNode<K, V>) node;
+            forEach(two.left, action);
+            action.accept(two.leftKey, two.leftValue);
+            forEach(two.right, action);
+        } else if (node instanceof ThreeNode) {
+            ThreeNode<K, V> three = (ThreeNode<K, V>) node;
+            forEach(three.left, action);
+            action.accept(three.leftKey, three.leftValue);
+            forEach(three.middleLeft, action);
+            action.accept(three.rightKey, three.rightValue);
+            forEach(three.right, action);
+        } else if (node instanceof LeafThreeNode) {
+            LeafThreeNode<K, V> three = (LeafThreeNode<K, V>) node;
+            action.accept(three.leftKey, three.leftValue);
+            action.accept(three.rightKey, three.rightValue);
+        } else if (node != null) {
+            action.accept(node.leftKey, node.leftValue);
         }
     }
 
-    private Node<K, V> split42NodeLeft(Node<K, V> node4, Node<K, V> node2) {
-        // 分离4-node
-        node4 = split4Node(node4);
-
-        // 合并2-node和分离后的4-node为3-node
-        merge42Node(node2, node4);
+    /**
+     * spliterator 按键的升序遍历所有元素, trySplit 沿树的结构把剩余的元素按节点的左, 中, 右孩子拆分, 不需要先复制到数组
+     * 节点中没有子树大小, 只有没有拆分过的 Spliterator 是SIZED, 拆分后按孩子的个数估计; 遍历期间不能修改树
+     * @return 返回覆盖所有元素的 Spliterator, 元素是不可修改的 Map.Entry
+     */
+    public Spliterator<Map.Entry<K, V>> spliterator() {
+        return new EntrySpliterator<K, V>(root, size);
+    }
 
-        // 调整3-node的子节点
-        node2.left = node4.left;
-        node2.middleLeft = node4.right;
-        return node2;
+    /**
+     * stream 按键的升序遍历所有元素的顺序流
+     * @return 返回元素为 Map.Entry 的流
+     */
+    public Stream<Map.Entry<K, V>> stream() {
+        return StreamSupport.stream(spliterator(), false);
     }
 
-    private Node<K, V> split42NodeRight(Node<K, V> node4, Node<K, V> node2) {
-        // 分离4-node
-        node4 = split4Node(node4);
+    /**
+     * parallelStream 沿树的结构拆分的并行流, 在 ForkJoinPool.commonPool 中执行
+     * @return 返回元素为 Map.Entry 的并行流
+     */
+    public Stream<Map.Entry<K, V>> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
 
-        // 合并2-node和分离后的4-node为3-node
-        merge42Node(node2, node4);
+    /**
+     * EntrySpliterator 栈中的每一层是一个节点和它下一个要输出的键的下标j, 表示这个节点还剩下: 第j个键, 第j+1个孩子, 第j+1个键, ...
+     * 剩余的元素依次是: 子树current中的所有元素, 然后从栈顶到栈底每一层剩下的部分;
+     * fence 不为-1时栈底那一层只剩到第fence个键为止, 之后的孩子和键已经拆分给了后一部分
+     */
+    private static final class EntrySpliterator<K extends Comparable<K>, V> implements Spliterator<Map.Entry<K, V>> {
+        private Node<K, V> current;
+        @SuppressWarnings("unchecked")
+        private final Node<K, V>[] nodes = (Node<K, V>[]) new Node[MAX_HEIGHT];
+        private final int[] index = new int[MAX_HEIGHT];
+        private int top;
+        private int fence = -1;
+
+        // 拆分之后estimate只是估计值
+        private boolean estimated;
+        private long estimate;
+
+        EntrySpliterator(Node<K, V> current, long estimate) {
+            this.current = current;
+            this.estimate = estimate;
+        }
 
-        // 调整3-node的子节点
-        node2.middleLeft = node4.left;
-        node2.right = node4.right;
-        return node2;
-    }
+        @Override
+        public boolean tryAdvance(Consumer<? super Map.Entry<K, V>> action) {
+            if (top == 0 && current == null) {
+                return false;
+            }
+            action.accept(next());
+            return true;
+        }
 
-    private Node<K, V> split43NodeLeft(Node<K, V> node4, Node<K, V> node3) {
-        node4 = split4Node(node4);
+        /**
+         * forEachRemaining 整棵子树递归遍历, 只有栈中的每一层需要逐个键处理
+         */
+        @Override
+        public void forEachRemaining(Consumer<? super Map.Entry<K, V>> action) {
+            forEachEntry(current, action);
+            current = null;
+            for (int t = top - 1; t >= 0; t--) {
+                Node<K, V> node = nodes[t];
+                boolean bounded = t == 0 && fence >= 0;
+                int last = bounded ? fence : keyCount(node) - 1;
+                for (int j = index[t]; j <= last; j++) {
+                    if (j == 0) {
+                        action.accept(new AbstractMap.SimpleImmutableEntry<>(node.leftKey, node.leftValue));
+                    } else {
+                        action.accept(new AbstractMap.SimpleImmutableEntry<>(rightKey(node), rightValue(node)));
+                    }
+                    if (j < last || !bounded) {
+                        forEachEntry(child(node, j + 1), action);
+                    }
+                }
+            }
+            top = 0;
+            fence = -1;
+            estimate = 0;
+        }
 
-        merge43Node(node4, node3);
+        // next 中序遍历的下一个元素, 调用前必须还有剩余元素
+        private Map.Entry<K, V> next() {
+            while (current != null) {
+                nodes[top] = current;
+                index[top] = 0;
+                top++;
+                current = child(current, 0);
+            }
+            int t = top - 1;
+            Node<K, V> node = nodes[t];
+            int j = index[t];
+            boolean bounded = t == 0 && fence >= 0;
+            int last = bounded ? fence : keyCount(node) - 1;
+            if (j < last) {
+                index[t] = j + 1;
+                current = child(node, j + 1);
+            } else {
+                top = t;
+                current = bounded ? null : child(node, j + 1);
+                if (t == 0) {
+                    fence = -1;
+                }
+            }
+            if (estimate > 0) {
+                estimate--;
+            }
+            return j == 0
+                    ? new AbstractMap.SimpleImmutableEntry<>(node.leftKey, node.leftValue)
+                    : new AbstractMap.SimpleImmutableEntry<>(rightKey(node), rightValue(node));
+        }
 
-        // 调整4-node的子节点
-        node3.left = node4.left;
-        node3.middleRight = node3.middleLeft;
-        node3.middleLeft = node4.right;
-        return node3;
-    }
+        /**
+         * trySplit 优先从栈底开始找第一个下一个孩子还属于自己的层, 把这个孩子和之后的部分留给自己, 之前的元素拆分出去;
+         * 没有这样的层时在current的根节点处拆分: 左孩子和第一个键拆分出去, 中间(或右)孩子和之后的部分留给自己
+         */
+        @Override
+        public Spliterator<Map.Entry<K, V>> trySplit() {
+            for (int i = 0; i < top; i++) {
+                Node<K, V> node = nodes[i];
+                int j = index[i];
+                boolean bounded = i == 0 && fence >= 0;
+                int lastChild = bounded ? fence : keyCount(node);
+                if (j + 1 > lastChild || child(node, j + 1) == null) {
+                    continue;
+                }
 
-    private Node<K, V> split43NodeMiddle(Node<K, V> node4, Node<K, V> node3) {
-        // 让4-node中键和3-node合并成为4-node
-        node4 = split4Node(node4);
+                EntrySpliterator<K, V> prefix = new EntrySpliterator<K, V>(current, 0);
+                System.arraycopy(nodes, i, prefix.nodes, 0, top - i);
+                System.arraycopy(index, i, prefix.index, 0, top - i);
+                prefix.top = top - i;
+                prefix.fence = j;
+
+                current = child(node, j + 1);
+                int lastKey = bounded ? fence : keyCount(node) - 1;
+                if (j + 1 <= lastKey) {
+                    index[i] = j + 1;
+                    top = i + 1;
+                } else {
+                    top = i;
+                    if (i == 0) {
+                        fence = -1;
+                    }
+                }
+                // 拆分出去的是第j个孩子剩下的部分, 自己留下之后的 lastChild - j 个孩子
+                return divide(prefix, lastChild - j + 1);
+            }
 
-        merge43Node(node4, node3);
+            Node<K, V> node = current;
+            if (node == null || child(node, 0) == null) {
+                return null;
+            }
+            EntrySpliterator<K, V> prefix = new EntrySpliterator<K, V>(child(node, 0), 0);
+            prefix.nodes[0] = node;
+            prefix.top = 1;
+            prefix.fence = 0;
+
+            current = child(node, 1);
+            if (keyCount(node) > 1) {
+                nodes[top] = node;
+                index[top] = 1;
+                top++;
+            }
+            return divide(prefix, keyCount(node) + 1);
+        }
 
-        // 调整4-node的子节点
-        node3.middleLeft = node4.left;
-        node3.middleRight = node4.right;
-        return node3;
-    }
+        // divide 按孩子的个数估计大小, 拆分出去的部分约占parts分之一; 3-node按三分之一估计比按一半更接近实际
+        private EntrySpliterator<K, V> divide(EntrySpliterator<K, V> prefix, int parts) {
+            prefix.estimate = estimate / parts;
+            prefix.estimated = true;
+            estimated = true;
+            estimate -= prefix.estimate;
+            return prefix;
+        }
 
-    private Node<K, V> split43NodeRight(Node<K, V> node4, Node<K, V> node3) {
-        node4 = split4Node(node4);
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
 
-        merge43Node(node4, node3);
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | DISTINCT | NONNULL | (estimated ? 0 : SIZED);
+        }
 
-        // 调整4-node的子节点
-        node3.middleRight = node4.left;
-        node3.right = node4.right;
-        return node3;
-    }
+        @Override
+        public Comparator<? super Map.Entry<K, V>> getComparator() {
+            return Map.Entry.comparingByKey();
+        }
 
-    // splitFourNode 分离4-node为一个2-node
-    private Node<K, V> split4Node(Node<K, V> node4) {
-        K parentKey, leftKey, rightKey;
-        V parentValue, leftValue, rightValue;
+        // forEachEntry 与树的 forEach 相同的递归遍历, 单独一份让调用点只看到流传入的 Consumer, 不受 forEach 的其他调用者影响
+        private static <K extends Comparable<K>, V> void forEachEntry(Node<K, V> node, Consumer<? super Map.Entry<K, V>> action) {
+            if (node instanceof TwoNode) {
+                TwoNode<K, V> two = (TwoNode<K, V>) node;
+                forEachEntry(two.left, action);
+                action.accept(new AbstractMap.SimpleImmutableEntry<>(two.leftKey, two.leftValue));
+                forEachEntry(two.right, action);
+            } else if (node instanceof ThreeNode) {
+                ThreeNode<K, V> three = (ThreeNode<K, V>) node;
+                forEachEntry(three.left, action);
+                action.accept(new AbstractMap.SimpleImmutableEntry<>(three.leftKey, three.leftValue));
+                forEachEntry(three.middleLeft, action);
+                action.accept(new AbstractMap.SimpleImmutableEntry<>(three.rightKey, three.rightValue));
+                forEachEntry(three.right, action);
+            } else if (node instanceof LeafThreeNode) {
+                LeafThreeNode<K, V> three = (LeafThreeNode<K, V>) node;
+                action.accept(new AbstractMap.SimpleImmutableEntry<>(three.leftKey, three.leftValue));
+                action.accept(new AbstractMap.SimpleImmutableEntry<>(three.rightKey, three.rightValue));
+            } else if (node != null) {
+                action.accept(new AbstractMap.SimpleImmutableEntry<>(node.leftKey, node.leftValue));
+            }
+        }
 
-        if (node4.middleKey.compareTo(node4.leftKey) < 0) {
-            parentKey = node4.leftKey;
-            parentValue = node4.leftValue;
-            leftKey = node4.middleKey;
-            leftValue = node4.middleValue;
-            rightKey = node4.rightKey;
-            rightValue = node4.rightValue;
+        private static int keyCount(Node<?, ?> node) {
+            return node instanceof ThreeNode || node instanceof LeafThreeNode ? 2 : 1;
+        }
 
-        } else if (node4.middleKey.compareTo(node4.rightKey) > 0) {
-            parentKey = node4.rightKey;
-            parentValue = node4.rightValue;
-            leftKey = node4.leftKey;
-            leftValue = node4.leftValue;
-            rightKey = node4.middleKey;
-            rightValue = node4.middleValue;
-        } else {
-            parentKey = node4.middleKey;
-            parentValue = node4.middleValue;
-            leftKey = node4.leftKey;
-            leftValue = node4.leftValue;
-            rightKey = node4.rightKey;
-            rightValue = node4.rightValue;
-        }
-
-        return new Node<K, V>(parentKey, parentValue,
-                new Node<K, V>(leftKey, leftValue, node4.left, node4.middleLeft),
-                new Node<K, V>(rightKey, rightValue, node4.middleRight, node4.right));
-    }
-
-    // merge42Node 合并2-node和4-node为一个3-node
-    private void merge42Node(Node<K, V> node2, Node<K, V> node4) {
-        if (node4.leftKey.compareTo(node2.leftKey) < 0) { // key < node.key1
-            node2.rightKey = node2.leftKey;
-            node2.rightValue = node2.leftValue;
-            node2.leftKey = node4.leftKey;
-            node2.leftValue = node4.leftValue;
-        } else if (node4.leftKey.compareTo(node2.leftKey) > 0) { // key > node.key1
-            node2.rightKey = node4.leftKey;
-            node2.rightValue = node4.leftValue;
-        }
-    }
-
-    // merge43Node 合并一个4-node和一个3-node为一个4-node
-    private void merge43Node(Node<K, V> node4, Node<K, V> node3) {
-        if (node4.leftKey.compareTo(node3.leftKey) > 0 && node4.leftKey.compareTo(node3.rightKey) < 0) {
-            node3.middleKey = node4.leftKey;
-            node3.middleValue = node4.leftValue;
-        } else if (node4.leftKey.compareTo(node3.leftKey) < 0) {
-            node3.middleKey = node3.leftKey;
-            node3.middleValue = node3.leftValue;
-            node3.leftKey = node4.leftKey;
-            node3.leftValue = node4.leftValue;
-        } else if (node4.leftKey.compareTo(node3.rightKey) > 0) {
-            node3.middleKey = node3.rightKey;
-            node3.middleValue = node3.rightValue;
-            node3.rightKey = node4.leftKey;
-            node3.rightValue = node4.leftValue;
-        }
-    }
-
-    private void merge(Node<K, V> node, K key, V value) {
-        if (isTwoNode(node)) {
-            if (key.compareTo(node.leftKey) < 0) { // key < node.key1
-                node.rightKey = node.leftKey;
-                node.rightValue = node.leftValue;
-                node.leftKey = key;
-                node.leftValue = value;
-            } else if (key.compareTo(node.leftKey) > 0) { // key > node.key1
-                node.rightKey = key;
-                node.rightValue = value;
-            }
-        } else if (isThreeNode(node)) {
-            if (key.compareTo(node.leftKey) > 0 && key.compareTo(node.rightKey) < 0) {
-                node.middleKey = key;
-                node.middleValue = value;
-            } else if (key.compareTo(node.leftKey) < 0) {
-                node.middleKey = node.leftKey;
-                node.middleValue = node.leftValue;
-                node.leftKey = key;
-                node.leftValue = value;
-            } else if (key.compareTo(node.rightKey) > 0) {
-                node.middleKey = node.rightKey;
-                node.middleValue = node.rightValue;
-                node.rightKey = key;
-                node.rightValue = value;
+        // child 节点的第i个孩子, 叶子节点返回null
+        private static <K extends Comparable<K>, V> Node<K, V> child(Node<K, V> node, int i) {
+            if (node instanceof TwoNode) {
+                TwoNode<K, V> two = (TwoNode<K, V>) node;
+                return i == 0 ? two.left : two.right;
+            }
+            if (node instanceof ThreeNode) {
+                ThreeNode<K, V> three = (ThreeNode<K, V>) node;
+                return i == 0 ? three.left : i == 1 ? three.middleLeft : three.right;
             }
+            return null;
         }
-    }
 
-    // isLeaf 判断节点是否为叶子节点
-    private boolean isLeaf(Node<K, V> node) {
-        return node.left == null && node.right == null;
-    }
+        private static <K extends Comparable<K>, V> K rightKey(Node<K, V> node) {
+            return node instanceof ThreeNode ? ((ThreeNode<K, V>) node).rightKey : ((LeafThreeNode<K, V>) node).rightKey;
+        }
 
-    // isTwoNode 判断节点是否是2-node
-    private boolean isTwoNode(Node<K, V> node) {
-        return node.leftKey != null && node.rightKey == null && node.middleKey == null;
+        private static <K extends Comparable<K>, V> V rightValue(Node<K, V> node) {
+            return node instanceof ThreeNode ? ((ThreeNode<K, V>) node).rightValue : ((LeafThreeNode<K, V>) node).rightValue;
+        }
     }
 
-    // isThreeNde 判断节点是否是3-node
-    private boolean isThreeNode(Node<K, V> node) {
-        return node.leftKey != null && node.rightKey != null && node.middleKey == null;
+    /**
+     * writeTo 把所有元素按键的升序写成二进制快照, 格式见 TreeSnapshot, 不关闭channel
+     * @param channel 写入的目标, 例如 FileChannel
+     * @param keyCodec 键的编码, 整数键可以使用 SnapshotCodecs.SORTED_INT/SORTED_LONG 做差分编码
+     * @param valueCodec 值的编码
+     */
+    public void writeTo(WritableByteChannel channel, SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec) throws IOException {
+        TreeSnapshot.write(channel, size, this::forEach, keyCodec, valueCodec);
     }
 
-    // isFourNode 判断节点是否是4-node
-    private boolean isFourNode(Node<K, V> node) {
-        return node.leftKey != null && node.rightKey != null && node.middleKey != null;
+    /**
+     * writeTo 把所有元素写成二进制快照, 不关闭输出流
+     */
+    public void writeTo(OutputStream out, SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec) throws IOException {
+        writeTo(Channels.newChannel(out), keyCodec, valueCodec);
     }
 
-    public boolean is23Tree() {
-        return is23Tree(root);
+    /**
+     * readFrom 读取 writeTo 写出的快照, 用 fromSorted 线性构造2-3树, 不关闭channel
+     * @param channel 读取的来源, 例如 FileChannel
+     * @param keyCodec 键的编码, 必须与写入时相同
+     * @param valueCodec 值的编码, 必须与写入时相同
+     * @return 返回构造好的2-3树
+     * @throws java.io.StreamCorruptedException 快照损坏时抛出
+     */
+    public static <K extends Comparable<K>, V> TwoThreeTree<K, V> readFrom(ReadableByteChannel channel, SnapshotCodec<K> keyCodec,
+                                                                            SnapshotCodec<V> valueCodec) throws IOException {
+        return TreeSnapshot.read(channel, keyCodec, valueCodec, TwoThreeTree::fromSorted);
     }
 
-    private boolean is23Tree(Node<K, V> node) {
-        if (node != null) {
-            if (isTwoNode(node)) {
-                int leftHeight = leftHeight(node.left, 0);
-                int rightHeight = rightHeight(node.right, 0);
+    /**
+     * readFrom 从输入流读取快照, 不关闭输入流
+     */
+    public static <K extends Comparable<K>, V> TwoThreeTree<K, V> readFrom(InputStream in, SnapshotCodec<K> keyCodec,
+                                                                            SnapshotCodec<V> valueCodec) throws IOException {
+        return readFrom(Channels.newChannel(in), keyCodec, valueCodec);
+    }
 
+    /**
+     * fromSorted 用严格升序的键值数组线性构造一棵平衡的2-3树, 尽量使用3-node以降低树高
+     * @param keys 严格升序的键
+     * @param values 与键一一对应的值
+     * @return 返回构造好的2-3树
+     * @throws IllegalArgumentException 键不是严格升序或者键值个数不同时抛出
+     */
+    public static <K extends Comparable<K>, V> TwoThreeTree<K, V> fromSorted(K[] keys, V[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys and values differ in length: " + keys.length + " != " + values.length);
+        }
+        for (int i = 1; i < keys.length; i++) {
+            checkAscending(keys[i - 1], keys[i], i);
+        }
 
-                if (leftHeight != rightHeight) {
-                    return false;
-                }
+        TwoThreeTree<K, V> tree = new TwoThreeTree<>();
+        tree.root = build(keys, values, 0, keys.length, heightFor(keys.length));
+        tree.size = keys.length;
+        return tree;
+    }
 
-                return is23Tree(node.left) && is23Tree(node.right);
-            } else {
-                return is23Tree(node.left) && is23Tree(node.middleLeft) && is23Tree(node.right);
+    /**
+     * bulkLoad 用按键严格升序的迭代器线性构造一棵平衡的2-3树, 迭代时同时检查键的顺序
+     * @param entries 按键严格升序的键值对
+     * @return 返回构造好的2-3树
+     * @throws IllegalArgumentException 键不是严格升序时抛出
+     */
+    @SuppressWarnings("unchecked")
+    public static <K extends Comparable<K>, V> TwoThreeTree<K, V> bulkLoad(Iterator<Map.Entry<K, V>> entries) {
+        List<K> keys = new ArrayList<>();
+        List<V> values = new ArrayList<>();
+        K previous = null;
+        while (entries.hasNext()) {
+            Map.Entry<K, V> entry = entries.next();
+            K key = entry.getKey();
+            if (previous != null) {
+                checkAscending(previous, key, keys.size());
             }
+            keys.add(key);
+            values.add(entry.getValue());
+            previous = key;
         }
 
-        return true;
+        TwoThreeTree<K, V> tree = new TwoThreeTree<>();
+        tree.root = build((K[]) keys.toArray(new Comparable[0]), (V[]) values.toArray(), 0, keys.size(), heightFor(keys.size()));
+        tree.size = keys.size();
+        return tree;
     }
 
-    private int leftHeight(Node<K, V> node, int height) {
-        if (node == null) {
-            return height;
+    private static <K extends Comparable<K>> void checkAscending(K previous, K key, int index) {
+        if (previous.compareTo(key) >= 0) {
+            throw new IllegalArgumentException("keys are not strictly ascending at index " + index);
         }
+    }
 
-        return leftHeight(node.left, height + 1);
+    // heightFor 能容纳n个元素的最小高度, 即满足 3^height - 1 >= n 的最小height
+    private static int heightFor(int n) {
+        int height = 0;
+        while (maxKeys(height) < n) {
+            height++;
+        }
+        return height;
     }
 
-    private int rightHeight(Node<K, V> node, int height) {
-        if (node == null) {
-            return height;
+    // minKeys 高度为height的2-3树最少包含的元素个数 2^height - 1
+    private static long minKeys(int height) {
+        return (1L << height) - 1;
+    }
+
+    // maxKeys 高度为height的2-3树最多能容纳的元素个数 3^height - 1
+    private static long maxKeys(int height) {
+        long keys = 1;
+        for (int i = 0; i < height; i++) {
+            keys *= 3;
         }
-        return rightHeight(node.right, height + 1);
+        return keys - 1;
     }
 
-    public int size() {
-        return size;
+    /**
+     * build 把 keys[lo, hi) 构造为高度为height的子树
+     * 调用方保证 2^height - 1 <= hi - lo <= 3^height - 1
+     * 三棵子树都能满足最少元素个数时构造3-node, 否则构造2-node, 子树平分剩下的元素
+     */
+    private static <K extends Comparable<K>, V> Node<K, V> build(K[] keys, V[] values, int lo, int hi, int height) {
+        int n = hi - lo;
+        if (n == 0) {
+            return null;
+        }
+
+        if (n < 3 * minKeys(height - 1) + 2) {
+            int mid = lo + (n - 1) / 2;
+            return twoNode(keys[mid], values[mid],
+                    build(keys, values, lo, mid, height - 1),
+                    build(keys, values, mid + 1, hi, height - 1));
+        }
+
+        int rest = n - 2;
+        int a = rest / 3;
+        int b = (rest - a) / 2;
+        int leftKey = lo + a;
+        int rightKey = leftKey + 1 + b;
+        return threeNode(keys[leftKey], values[leftKey], keys[rightKey], values[rightKey],
+                build(keys, values, lo, leftKey, height - 1),
+                build(keys, values, leftKey + 1, rightKey, height - 1),
+                build(keys, values, rightKey + 1, hi, height - 1));
     }
 
     public static void main(String[] args) {